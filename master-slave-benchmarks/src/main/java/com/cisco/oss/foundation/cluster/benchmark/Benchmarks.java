@@ -0,0 +1,44 @@
+package com.cisco.oss.foundation.cluster.benchmark;
+
+import com.cisco.oss.foundation.cluster.masterslave.MastershipElector;
+import com.cisco.oss.foundation.cluster.utils.MasterSlaveConfigurationUtil;
+import com.cisco.oss.foundation.configuration.CcpConstants;
+import com.cisco.oss.foundation.configuration.ConfigurationFactory;
+
+/**
+ * Shared setup of the benchmarks.
+ */
+final class Benchmarks {
+
+    static final String VERSION = "1.0";
+
+    private Benchmarks() {
+    }
+
+    /**
+     * must be called before anything touches #MasterSlaveConfigurationUtil - the component name is read once
+     */
+    static void init() {
+        if (System.getProperty(CcpConstants.RPM_SOFTWARE_NAME) == null) {
+            System.setProperty(CcpConstants.RPM_SOFTWARE_NAME, "benchmark");
+        }
+    }
+
+    static void setProperty(String key, Object value) {
+        ConfigurationFactory.getConfiguration().setProperty(key, value);
+    }
+
+    /**
+     * @return the elector id of a job, the same one the registry uses
+     */
+    static String id(String jobName) {
+        return MasterSlaveConfigurationUtil.COMPONENT_NAME + "-" + jobName;
+    }
+
+    /**
+     * one election tick the way the registry runs it when there is no active data center: readiness, active version and then the lease
+     */
+    static boolean tick(MastershipElector elector) {
+        return elector.isReady() && elector.isActiveVersion(VERSION) && elector.isMaster();
+    }
+}
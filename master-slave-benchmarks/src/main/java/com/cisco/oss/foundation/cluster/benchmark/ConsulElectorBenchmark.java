@@ -0,0 +1,84 @@
+package com.cisco.oss.foundation.cluster.benchmark;
+
+import com.cisco.oss.foundation.cluster.masterslave.MastershipElector;
+import com.cisco.oss.foundation.cluster.masterslave.consul.AsyncConsulClient;
+import com.cisco.oss.foundation.cluster.masterslave.consul.AsyncConsulMastershipElector;
+import com.cisco.oss.foundation.cluster.masterslave.consul.AsyncConsulSession;
+import com.cisco.oss.foundation.cluster.masterslave.consul.ConsulMastershipElector;
+import com.cisco.oss.foundation.cluster.test.ConsulStandIn;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of one election tick of the consul electors against the in-process consul stand-in used by the tests.
+ * Run with '-prof gc' for the allocation per tick. The stand-in answers from memory, so the numbers are mostly client side cost.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ConsulElectorBenchmark {
+
+    private static final String JOB = "consulBenchmark";
+
+    @Param({"consul", "consul-async"})
+    public String impl;
+
+    private ConsulStandIn consul;
+    private MastershipElector elector;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        Benchmarks.init();
+
+        consul = new ConsulStandIn();
+        Benchmarks.setProperty("consulClient.1.host", consul.getUri().getHost());
+        Benchmarks.setProperty("consulClient.1.port", consul.getUri().getPort());
+
+        elector = newElector();
+        elector.init(Benchmarks.id(JOB), JOB);
+    }
+
+    private MastershipElector newElector() {
+        switch (impl) {
+            case "consul":
+                return new ConsulMastershipElector();
+            case "consul-async":
+                AsyncConsulClient consulClient = new AsyncConsulClient(consul.getUri(), Duration.ofSeconds(1), Duration.ofSeconds(2));
+                return new AsyncConsulMastershipElector(new AsyncConsulSession(consulClient));
+            default:
+                throw new IllegalArgumentException("unknown consul elector: " + impl);
+        }
+    }
+
+    @Benchmark
+    public boolean tick() {
+        return Benchmarks.tick(elector);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (elector != null) {
+            elector.close();
+        }
+        if (consul != null) {
+            consul.stop();
+        }
+    }
+}
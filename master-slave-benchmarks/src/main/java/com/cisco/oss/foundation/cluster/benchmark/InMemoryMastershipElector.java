@@ -0,0 +1,80 @@
+package com.cisco.oss.foundation.cluster.benchmark;
+
+import com.cisco.oss.foundation.cluster.masterslave.MastershipElector;
+import com.cisco.oss.foundation.cluster.utils.MasterSlaveConfigurationUtil;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Elector without a backend, so the registry benchmarks measure the registry and not the db.
+ * Set as 'masterSlave.impl' by class name. Counts the ticks of each job.
+ */
+public class InMemoryMastershipElector implements MastershipElector {
+
+    private static final ConcurrentMap<String, String> LOCKS = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, AtomicLong> TICKS = new ConcurrentHashMap<>();
+
+    private String id;
+    private String jobName;
+    private AtomicLong ticks;
+
+    /**
+     * @return the number of ticks the job ran so far. 0 if it was not initialized yet
+     */
+    static long getTicks(String jobName) {
+        AtomicLong ticks = TICKS.get(jobName);
+        return ticks != null ? ticks.get() : 0;
+    }
+
+    @Override
+    public void init(String id, String jobName) {
+        this.id = id;
+        this.jobName = jobName;
+        this.ticks = TICKS.computeIfAbsent(jobName, name -> new AtomicLong());
+    }
+
+    @Override
+    public boolean isReady() {
+        return true;
+    }
+
+    @Override
+    public boolean isActiveVersion(String currentVersion) {
+        //every tick asks for the active version, whatever the multiplicity of the job
+        ticks.incrementAndGet();
+        return true;
+    }
+
+    @Override
+    public boolean isActiveDataCenter(String currentDataCenter) {
+        return true;
+    }
+
+    @Override
+    public boolean isMaster() {
+        String owner = LOCKS.putIfAbsent(id, MasterSlaveConfigurationUtil.INSTANCE_ID);
+        return owner == null || owner.equals(MasterSlaveConfigurationUtil.INSTANCE_ID);
+    }
+
+    @Override
+    public void close() {
+        cleanupMaster();
+        if (jobName != null) {
+            TICKS.remove(jobName);
+        }
+    }
+
+    @Override
+    public String getActiveVersion() {
+        return Benchmarks.VERSION;
+    }
+
+    @Override
+    public void cleanupMaster() {
+        if (id != null) {
+            LOCKS.remove(id, MasterSlaveConfigurationUtil.INSTANCE_ID);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.cisco.oss.foundation.cluster.benchmark;
+
+import com.cisco.oss.foundation.cluster.masterslave.MastershipElector;
+import com.cisco.oss.foundation.cluster.masterslave.mongo.AsyncMongoMastershipElector;
+import com.cisco.oss.foundation.cluster.masterslave.mongo.MongoMastershipElector;
+import com.cisco.oss.foundation.cluster.masterslave.mongo.MongoSessionMastershipElector;
+import com.cisco.oss.foundation.cluster.utils.MasterSlaveConfigurationUtil;
+import de.flapdoodle.embed.mongo.MongodExecutable;
+import de.flapdoodle.embed.mongo.MongodProcess;
+import de.flapdoodle.embed.mongo.MongodStarter;
+import de.flapdoodle.embed.mongo.config.IMongodConfig;
+import de.flapdoodle.embed.mongo.config.MongodConfigBuilder;
+import de.flapdoodle.embed.mongo.config.Net;
+import de.flapdoodle.embed.mongo.distribution.Version;
+import de.flapdoodle.embed.process.runtime.Network;
+import org.apache.commons.lang3.tuple.Pair;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of one election tick of the mongo electors against an embedded mongod.
+ * Run with '-prof gc' for the allocation per tick.
+ * Each fork starts its own mongod - the mongo clients are process wide singletons.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class MongoElectorBenchmark {
+
+    private static final String JOB = "mongoBenchmark";
+
+    @Param({"mongo", "mongo-session", "async-mongo"})
+    public String impl;
+
+    private MongodExecutable mongodExecutable;
+    private MongodProcess mongod;
+    private MastershipElector elector;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        Benchmarks.init();
+
+        int port = Network.getFreeServerPort();
+        IMongodConfig mongodConfig = new MongodConfigBuilder()
+                .version(Version.Main.PRODUCTION)
+                .net(new Net(port, Network.localhostIsIPv6()))
+                .build();
+        mongodExecutable = MongodStarter.getDefaultInstance().prepare(mongodConfig);
+        mongod = mongodExecutable.start();
+
+        MasterSlaveConfigurationUtil.setMongodbServers(Collections.singletonList(Pair.of("localhost", port)));
+
+        elector = newElector();
+        elector.whenReady().get(30, TimeUnit.SECONDS);
+        elector.init(Benchmarks.id(JOB), JOB);
+    }
+
+    private MastershipElector newElector() {
+        switch (impl) {
+            case "mongo":
+                return new MongoMastershipElector();
+            case "mongo-session":
+                return new MongoSessionMastershipElector();
+            case "async-mongo":
+                return new AsyncMongoMastershipElector();
+            default:
+                throw new IllegalArgumentException("unknown mongo elector: " + impl);
+        }
+    }
+
+    @Benchmark
+    public boolean tick() {
+        return Benchmarks.tick(elector);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (elector != null) {
+            elector.close();
+        }
+        if (mongod != null) {
+            mongod.stop();
+        }
+        if (mongodExecutable != null) {
+            mongodExecutable.stop();
+        }
+    }
+}
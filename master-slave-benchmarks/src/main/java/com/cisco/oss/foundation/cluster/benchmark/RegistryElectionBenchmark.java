@@ -0,0 +1,73 @@
+package com.cisco.oss.foundation.cluster.benchmark;
+
+import com.cisco.oss.foundation.cluster.registry.MasterSlaveRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Time for a round of elections: trigger an election on every running job and wait until all of them ticked.
+ * The default lease time keeps the regular ticks seconds apart, so nearly every tick measured is a triggered one.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class RegistryElectionBenchmark {
+
+    @Param({"1", "10", "100", "1000", "10000"})
+    public int jobs;
+
+    @Param({"scheduler", "thread"})
+    public String executionMode;
+
+    private List<String> jobNames;
+    private long[] ticks;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        RegistryJobs.configure(executionMode);
+        jobNames = RegistryJobs.newJobNames(jobs);
+        ticks = new long[jobs];
+        RegistryJobs.start(jobNames);
+    }
+
+    @Benchmark
+    public void electionRound() {
+        for (int i = 0; i < jobNames.size(); i++) {
+            ticks[i] = InMemoryMastershipElector.getTicks(jobNames.get(i));
+            MasterSlaveRegistry.INSTANCE.triggerElection(jobNames.get(i));
+        }
+
+        long deadline = System.nanoTime() + RegistryJobs.TIMEOUT;
+        for (int i = 0; i < jobNames.size(); i++) {
+            while (InMemoryMastershipElector.getTicks(jobNames.get(i)) <= ticks[i]) {
+                if (System.nanoTime() > deadline) {
+                    throw new IllegalStateException("job: " + jobNames.get(i) + " did not tick");
+                }
+                LockSupport.parkNanos(10_000);
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        RegistryJobs.stop(jobNames);
+    }
+}
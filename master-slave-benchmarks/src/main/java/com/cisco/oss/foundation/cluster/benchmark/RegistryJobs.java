@@ -0,0 +1,73 @@
+package com.cisco.oss.foundation.cluster.benchmark;
+
+import com.cisco.oss.foundation.cluster.registry.MasterSlaveListener;
+import com.cisco.oss.foundation.cluster.registry.MasterSlaveRegistry;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Registers and removes the jobs of the registry benchmarks. The jobs use the #InMemoryMastershipElector so only the registry itself is measured.
+ */
+final class RegistryJobs {
+
+    static final long TIMEOUT = TimeUnit.SECONDS.toNanos(60);
+
+    private static final AtomicInteger GENERATION = new AtomicInteger();
+    private static final MasterSlaveListener LISTENER = new MasterSlaveListener() {
+        @Override
+        public void goMaster() {
+        }
+
+        @Override
+        public void goSlave() {
+        }
+    };
+
+    private RegistryJobs() {
+    }
+
+    static void configure(String executionMode) {
+        Benchmarks.init();
+        Benchmarks.setProperty("masterSlave.impl", InMemoryMastershipElector.class.getName());
+        Benchmarks.setProperty("masterSlave.executionMode", executionMode);
+    }
+
+    /**
+     * @return new job names every time - a removed job may still be handing off in the background
+     */
+    static List<String> newJobNames(int jobs) {
+        int generation = GENERATION.incrementAndGet();
+        List<String> jobNames = new ArrayList<>(jobs);
+        for (int i = 0; i < jobs; i++) {
+            jobNames.add("job-" + generation + "-" + i);
+        }
+        return jobNames;
+    }
+
+    /**
+     * register the jobs and wait for the first mastership decision of each one
+     */
+    static void start(List<String> jobNames) {
+        List<CompletableFuture<Boolean>> decisions = new ArrayList<>(jobNames.size());
+        for (String jobName : jobNames) {
+            MasterSlaveRegistry.INSTANCE.addMasterSlaveListener(jobName, LISTENER);
+            decisions.add(MasterSlaveRegistry.INSTANCE.firstDecision(jobName));
+        }
+        CompletableFuture.allOf(decisions.toArray(new CompletableFuture[0])).orTimeout(TIMEOUT, TimeUnit.NANOSECONDS).join();
+    }
+
+    /**
+     * remove the jobs and wait for their handoff
+     */
+    static void stop(List<String> jobNames) {
+        List<CompletableFuture<Void>> stopped = new ArrayList<>(jobNames.size());
+        for (String jobName : jobNames) {
+            stopped.add(MasterSlaveRegistry.INSTANCE.removeMasterSlaveListenerAsync(jobName));
+        }
+        CompletableFuture.allOf(stopped.toArray(new CompletableFuture[0])).orTimeout(TIMEOUT, TimeUnit.NANOSECONDS).join();
+    }
+}
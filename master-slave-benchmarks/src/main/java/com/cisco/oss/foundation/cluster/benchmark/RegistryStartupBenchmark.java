@@ -0,0 +1,47 @@
+package com.cisco.oss.foundation.cluster.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to register a number of jobs, get the first mastership decision of each one and remove them again.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class RegistryStartupBenchmark {
+
+    @Param({"1", "10", "100", "1000", "10000"})
+    public int jobs;
+
+    @Param({"scheduler", "thread"})
+    public String executionMode;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        RegistryJobs.configure(executionMode);
+    }
+
+    @Benchmark
+    public void startAndStop() {
+        List<String> jobNames = RegistryJobs.newJobNames(jobs);
+        RegistryJobs.start(jobNames);
+        RegistryJobs.stop(jobNames);
+    }
+}
@@ -0,0 +1,119 @@
+package com.cisco.oss.foundation.cluster.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * One call of a mastership elector to its backend, e.g. the lease CAS in mongo or a lock acquire in consul.
+ */
+@Name("com.cisco.oss.foundation.cluster.BackendCall")
+@Label("Mastership Backend Call")
+@Category({"Foundation", "Master Slave"})
+@Description("A call of a mastership elector to mongo or consul")
+@StackTrace(false)
+public final class BackendCallEvent extends Event {
+
+    @Label("Backend")
+    private String backend;
+
+    @Label("Operation")
+    private String operation;
+
+    @Label("Target")
+    @Description("The mongo document id or the consul key of the job, or the consul session")
+    private String target;
+
+    @Label("Success")
+    @Description("False if the call threw or timed out")
+    private boolean success;
+
+    @Label("Outcome")
+    @Description("What the call returned, e.g. if the lease or lock was taken")
+    private String outcome;
+
+    @Label("Error")
+    private String error;
+
+    /**
+     * @return a started event. pass it to #end when the call returns
+     */
+    public static BackendCallEvent start(String backend, String operation, String target) {
+        BackendCallEvent event = new BackendCallEvent();
+        event.begin();
+        event.backend = backend;
+        event.operation = operation;
+        event.target = target;
+        return event;
+    }
+
+    /**
+     * commit the event of a call that returned, if it is recorded
+     * @param outcome what the call returned. may be null
+     */
+    public void end(String outcome) {
+        end();
+        if (shouldCommit()) {
+            this.success = true;
+            this.outcome = outcome;
+            commit();
+        }
+    }
+
+    /**
+     * commit the event of a call that failed, if it is recorded
+     */
+    public void fail(Throwable error) {
+        end();
+        if (shouldCommit()) {
+            this.success = false;
+            this.error = error.toString();
+            commit();
+        }
+    }
+
+    /**
+     * commit the event of a call that got an error response, if it is recorded
+     */
+    public void fail(String error) {
+        end();
+        if (shouldCommit()) {
+            this.success = false;
+            this.error = error;
+            commit();
+        }
+    }
+
+    /**
+     * end the event when the future completes
+     * @return the given future
+     */
+    public <T> CompletableFuture<T> endWhenDone(CompletableFuture<T> future) {
+        return future.whenComplete((result, e) -> {
+            if (e != null) {
+                fail(e);
+            } else {
+                end(outcome(result));
+            }
+        });
+    }
+
+    /**
+     * @return the outcome of a call that returned the given result
+     */
+    public static String outcome(Object result) {
+        if (result instanceof Boolean) {
+            return (Boolean) result ? "true" : "false";
+        }
+        if (result instanceof Number) {
+            //rows updated
+            return ((Number) result).longValue() > 0 ? "updated" : "unchanged";
+        }
+        return result != null ? "found" : "none";
+    }
+}
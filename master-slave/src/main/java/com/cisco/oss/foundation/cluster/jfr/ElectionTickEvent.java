@@ -0,0 +1,51 @@
+package com.cisco.oss.foundation.cluster.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * One election tick of a job, including the retry after an error.
+ */
+@Name("com.cisco.oss.foundation.cluster.ElectionTick")
+@Label("Election Tick")
+@Category({"Foundation", "Master Slave"})
+@Description("One mastership election tick of a job")
+@StackTrace(false)
+public final class ElectionTickEvent extends Event {
+
+    @Label("Job")
+    private String jobName;
+
+    @Label("Success")
+    private boolean success;
+
+    @Label("Master")
+    @Description("True if the job is master after the tick")
+    private boolean master;
+
+    /**
+     * @return a started event. pass it to #end when the tick completes
+     */
+    public static ElectionTickEvent start(String jobName) {
+        ElectionTickEvent event = new ElectionTickEvent();
+        event.begin();
+        event.jobName = jobName;
+        return event;
+    }
+
+    /**
+     * commit the event if it is recorded
+     */
+    public void end(boolean success, boolean master) {
+        end();
+        if (shouldCommit()) {
+            this.success = success;
+            this.master = master;
+            commit();
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.cisco.oss.foundation.cluster.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * One goMaster/goSlave callback of a #MasterSlaveListener.
+ */
+@Name("com.cisco.oss.foundation.cluster.ListenerCallback")
+@Label("Master Slave Listener Callback")
+@Category({"Foundation", "Master Slave"})
+@Description("A goMaster or goSlave callback of a master slave listener")
+@StackTrace(false)
+public final class ListenerCallbackEvent extends Event {
+
+    @Label("Job")
+    private String jobName;
+
+    @Label("Callback")
+    private String callback;
+
+    @Label("Success")
+    @Description("False if the callback threw")
+    private boolean success;
+
+    @Label("Timed Out")
+    @Description("True if the callback ran past the listener timeout and was interrupted")
+    private boolean timedOut;
+
+    /**
+     * @return a started event. pass it to #end when the callback returns
+     */
+    public static ListenerCallbackEvent start(String jobName, String callback) {
+        ListenerCallbackEvent event = new ListenerCallbackEvent();
+        event.begin();
+        event.jobName = jobName;
+        event.callback = callback;
+        return event;
+    }
+
+    /**
+     * commit the event if it is recorded
+     */
+    public void end(boolean success, boolean timedOut) {
+        end();
+        if (shouldCommit()) {
+            this.success = success;
+            this.timedOut = timedOut;
+            commit();
+        }
+    }
+}
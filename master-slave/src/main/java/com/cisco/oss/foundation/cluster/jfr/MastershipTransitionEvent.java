@@ -0,0 +1,49 @@
+package com.cisco.oss.foundation.cluster.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A job turned into master or slave. An instant event.
+ */
+@Name("com.cisco.oss.foundation.cluster.MastershipTransition")
+@Label("Mastership Transition")
+@Category({"Foundation", "Master Slave"})
+@Description("A job turned into master or slave")
+@StackTrace(false)
+public final class MastershipTransitionEvent extends Event {
+
+    @Label("Job")
+    private String jobName;
+
+    @Label("Master")
+    private boolean master;
+
+    @Label("Epoch")
+    @Description("The fencing epoch of the mastership. -1 if unknown")
+    private long epoch;
+
+    @Label("Reason")
+    @Description("Why the job turned into slave")
+    private String reason;
+
+    /**
+     * commit a transition event if it is recorded
+     * @param reason null when turning into master
+     * @param epoch the epoch of the new mastership. -1 when turning into slave
+     */
+    public static void emit(String jobName, boolean master, String reason, long epoch) {
+        MastershipTransitionEvent event = new MastershipTransitionEvent();
+        if (event.shouldCommit()) {
+            event.jobName = jobName;
+            event.master = master;
+            event.reason = reason;
+            event.epoch = epoch;
+            event.commit();
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package com.cisco.oss.foundation.cluster.masterslave;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Non blocking flavour of #MastershipElector. Every backend call returns a future that is completed by the backend driver,
+ * so when the registry runs in 'scheduler' execution mode the ticks are chained on the futures and no thread waits on backend latency.
+ * The blocking methods of #MastershipElector are still used in 'thread' and 'virtual' execution modes.
+ */
+public interface AsyncMastershipElector extends MastershipElector {
+
+    CompletableFuture<Void> initAsync(String id, String jobName);
+    CompletableFuture<Boolean> isActiveVersionAsync(String currentVersion);
+    CompletableFuture<Boolean> isActiveDataCenterAsync(String currentDataCenter);
+    CompletableFuture<Boolean> isMasterAsync();
+    CompletableFuture<Void> closeAsync();
+
+    /**
+     * same as #announceHandoff
+     */
+    default CompletableFuture<Void> announceHandoffAsync() {
+        announceHandoff();
+        return CompletableFuture.completedFuture(null);
+    }
+}
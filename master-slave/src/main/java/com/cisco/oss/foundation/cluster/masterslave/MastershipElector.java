@@ -1,5 +1,7 @@
 package com.cisco.oss.foundation.cluster.masterslave;
 
+import java.util.concurrent.CompletableFuture;
+
 /**
  * Created by Yair Ogen (yaogen) on 14/02/2016.
  */
@@ -13,4 +15,58 @@ public interface MastershipElector {
     void close();
     String getActiveVersion();
     void cleanupMaster();
+
+    /**
+     * @return a future completed when the backend of this elector can be used. the first election waits for it instead of a fixed delay
+     */
+    default CompletableFuture<Void> whenReady() {
+        return CompletableFuture.completedFuture(null);
+    }
+
+    /**
+     * @return true if #isActiveVersion may already take the lease for #isMaster. a slave that must not take the mastership yet then skips the version check too
+     */
+    default boolean isLeaseTakenByVersionCheck() {
+        return false;
+    }
+
+    /**
+     * called after #isMaster made this instance master
+     * @return how long after the lease of the previous master expired it was taken over, in milliseconds. -1 if the elector can't tell
+     */
+    default long getTakeoverDelay() {
+        return -1;
+    }
+
+    /**
+     * called after #isMaster returned true
+     * @return the fencing epoch of the mastership this instance holds. it grows every time the mastership of the job is acquired, by any instance. -1 if the elector can't tell
+     */
+    default long getEpoch() {
+        return -1;
+    }
+
+    /**
+     * called at any time while this instance is master, from any thread
+     * @return milliseconds until the lease of this instance expires on the backend, counted from its last confirmed renewal - e.g. the last renewal of a session.
+     * the local lease (see #MasterSlaveRegistry.isMaster) never outlives it. -1 if every successful #isMaster renews the lease
+     */
+    default long getLeaseRemaining() {
+        return -1;
+    }
+
+    /**
+     * called after #isMaster returned false
+     * @return milliseconds until the lease of the current master expires. 0 if the master announced a handoff, -1 if the elector can't tell
+     */
+    default long getMasterLeaseRemaining() {
+        return -1;
+    }
+
+    /**
+     * called on a master that is about to hand off the mastership, before its listener is told it is slave and before the lease is released.
+     * lets the standbys see the handoff coming on their next tick
+     */
+    default void announceHandoff() {
+    }
 }
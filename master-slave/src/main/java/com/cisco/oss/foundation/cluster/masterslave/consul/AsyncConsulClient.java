@@ -0,0 +1,203 @@
+package com.cisco.oss.foundation.cluster.masterslave.consul;
+
+import com.cisco.oss.foundation.cluster.jfr.BackendCallEvent;
+import com.cisco.oss.foundation.configuration.ConfigurationFactory;
+import org.apache.commons.configuration.Configuration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Non blocking consul client built on the JDK http client (java.net.http).
+ * Every call returns a future that is completed by the http client, no thread waits for consul.
+ * Only the consul endpoints used for mastership election are exposed.
+ */
+public class AsyncConsulClient {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AsyncConsulClient.class);
+
+    private final HttpClient httpClient;
+    private final URI baseUri;
+    private final Duration requestTimeout;
+
+    public AsyncConsulClient(URI baseUri, Duration connectTimeout, Duration requestTimeout) {
+        this.baseUri = baseUri;
+        this.requestTimeout = requestTimeout;
+        this.httpClient = HttpClient.newBuilder()
+                .connectTimeout(connectTimeout)
+                .followRedirects(HttpClient.Redirect.NEVER)
+                .build();
+    }
+
+    /**
+     * create a client pointing at the first server of a foundation http client configuration. e.g. 'consulClient.1.host', 'consulClient.1.port' and 'consulClient.http.readTimeout'.
+     * @param clientName the http client configuration prefix
+     * @return the new client
+     */
+    public static AsyncConsulClient fromConfiguration(String clientName) {
+        Configuration configuration = ConfigurationFactory.getConfiguration();
+        String host = configuration.getString(clientName + ".1.host", "127.0.0.1");
+        int port = configuration.getInt(clientName + ".1.port", 8500);
+        int connectTimeout = configuration.getInt(clientName + ".http.connectTimeout", 5000);
+        int readTimeout = configuration.getInt(clientName + ".http.readTimeout", 5000);
+        return new AsyncConsulClient(URI.create("http://" + host + ":" + port), Duration.ofMillis(connectTimeout), Duration.ofMillis(readTimeout));
+    }
+
+    /**
+     * @return true if the local agent answered
+     */
+    public CompletableFuture<Boolean> ping() {
+        BackendCallEvent event = BackendCallEvent.start(ConsulSession.BACKEND, "ping agent", baseUri.getHost());
+        return event.endWhenDone(send("GET", "/v1/agent/self", null).thenApply(response -> isSuccess(response)));
+    }
+
+    /**
+     * @param key the consul key
+     * @return the key state. #ConsulKeyState.ABSENT if the key does not exist
+     */
+    public CompletableFuture<ConsulKeyState> getKey(String key) {
+        BackendCallEvent event = BackendCallEvent.start(ConsulSession.BACKEND, "get key", key);
+        return event.endWhenDone(send("GET", "/v1/kv/" + key, null).thenApply(response -> {
+            if (response.statusCode() == 404) {
+                return ConsulKeyState.ABSENT;
+            }
+            checkSuccess(response, "get value from KV store for key: " + key);
+            return readKeyState(response.body());
+        }));
+    }
+
+    /**
+     * @param key the consul key
+     * @param sessionId the session that should hold the lock
+     * @return true if the session holds the lock. fails with #ConsulInvalidSessionException if consul does not know the session
+     */
+    public CompletableFuture<Boolean> acquire(String key, String sessionId) {
+        return acquire(key, sessionId, "");
+    }
+
+    /**
+     * @param key the consul key
+     * @param sessionId the session that should hold the lock
+     * @param value the new value of the key. a session that already holds the lock only updates the value
+     * @return true if the session holds the lock. fails with #ConsulInvalidSessionException if consul does not know the session
+     */
+    public CompletableFuture<Boolean> acquire(String key, String sessionId, String value) {
+        BackendCallEvent event = BackendCallEvent.start(ConsulSession.BACKEND, "acquire lock", key);
+        return event.endWhenDone(send("PUT", "/v1/kv/" + key + "?acquire=" + encode(sessionId), value).thenApply(response -> {
+            if (!isSuccess(response) && isInvalidSession(response)) {
+                throw new ConsulInvalidSessionException(sessionId);
+            }
+            checkSuccess(response, "acquire lock for key: " + key);
+            return Boolean.valueOf(response.body().trim());
+        }));
+    }
+
+    /**
+     * @param key the consul key
+     * @param sessionId the session holding the lock
+     * @return true if the lock was released
+     */
+    public CompletableFuture<Boolean> release(String key, String sessionId) {
+        BackendCallEvent event = BackendCallEvent.start(ConsulSession.BACKEND, "release lock", key);
+        return event.endWhenDone(send("PUT", "/v1/kv/" + key + "?release=" + encode(sessionId), "").thenApply(response -> {
+            checkSuccess(response, "release lock for key: " + key);
+            return Boolean.valueOf(response.body().trim());
+        }));
+    }
+
+    /**
+     * @param name the session name
+     * @param ttl the session TTL in seconds
+     * @return the new session id
+     */
+    public CompletableFuture<String> createSession(String name, int ttl) {
+        String body = "{\"Name\": \"" + name + "\", \"TTL\": \"" + ttl + "s\"}";
+        BackendCallEvent event = BackendCallEvent.start(ConsulSession.BACKEND, "create session", name);
+        return event.endWhenDone(send("PUT", "/v1/session/create", body).thenApply(response -> {
+            checkSuccess(response, "create session");
+            return ConsulJsonReader.readString(response.body(), "ID");
+        }));
+    }
+
+    /**
+     * @param sessionId the session
+     * @return true if the session was renewed and false if consul does not know it anymore
+     */
+    public CompletableFuture<Boolean> renewSession(String sessionId) {
+        BackendCallEvent event = BackendCallEvent.start(ConsulSession.BACKEND, "renew session", sessionId);
+        return event.endWhenDone(send("PUT", "/v1/session/renew/" + sessionId, "").thenApply(response -> {
+            if (response.statusCode() == 404 || (!isSuccess(response) && response.body().contains("not found"))) {
+                return false;
+            }
+            checkSuccess(response, "renew session");
+            return true;
+        }));
+    }
+
+    /**
+     * @param sessionId the session. its locks are released
+     */
+    public CompletableFuture<Void> destroySession(String sessionId) {
+        BackendCallEvent event = BackendCallEvent.start(ConsulSession.BACKEND, "destroy session", sessionId);
+        return event.endWhenDone(send("PUT", "/v1/session/destroy/" + sessionId, "").thenAccept(response -> checkSuccess(response, "destroy session")));
+    }
+
+    private CompletableFuture<HttpResponse<String>> send(String method, String path, String body) {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(baseUri.resolve(path)).timeout(requestTimeout);
+        if (body == null) {
+            builder.method(method, HttpRequest.BodyPublishers.noBody());
+        } else {
+            builder.method(method, HttpRequest.BodyPublishers.ofString(body));
+        }
+        return httpClient.sendAsync(builder.build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    /**
+     * read the single entry of a KV read. only the fields of #ConsulKeyState are looked at
+     */
+    private static ConsulKeyState readKeyState(String json) {
+        if (json == null || json.indexOf('{') < 0) {
+            return ConsulKeyState.ABSENT;
+        }
+        int entry = ConsulJsonReader.firstObject(json);
+        return new ConsulKeyState(true, ConsulJsonReader.readBase64(json, entry, "Value"), ConsulJsonReader.readString(json, "Session"), ConsulJsonReader.readLong(json, "ModifyIndex"), ConsulJsonReader.readLong(json, "LockIndex"));
+    }
+
+    private static boolean isSuccess(HttpResponse<String> response) {
+        return response.statusCode() >= 200 && response.statusCode() < 300;
+    }
+
+    private static boolean isInvalidSession(HttpResponse<String> response) {
+        String body = response.body();
+        return body != null && (body.contains("invalid session") || body.contains("Invalid session"));
+    }
+
+    private static void checkSuccess(HttpResponse<String> response, String opName) {
+        if (!isSuccess(response)) {
+            LOGGER.debug("failed to {}. got response: {}, error response: {}", opName, response.statusCode(), response.body());
+            throw new ConsulException("failed to " + opName + ". status: " + response.statusCode());
+        }
+    }
+
+    private static String encode(String value) {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * thrown when consul rejects a lock request because it does not know the session
+     */
+    public static class ConsulInvalidSessionException extends ConsulException {
+
+        public ConsulInvalidSessionException(String sessionId) {
+            super("invalid session: " + sessionId);
+        }
+    }
+}
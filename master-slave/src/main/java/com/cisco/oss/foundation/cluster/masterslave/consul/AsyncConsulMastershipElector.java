@@ -0,0 +1,264 @@
+package com.cisco.oss.foundation.cluster.masterslave.consul;
+
+import com.cisco.oss.foundation.cluster.masterslave.AsyncMastershipElector;
+import com.cisco.oss.foundation.cluster.utils.MasterSlaveConfigurationUtil;
+import com.cisco.oss.foundation.configuration.CcpConstants;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Consul implementation for logic for electing new masters built on the non blocking #AsyncConsulClient.
+ * Uses the same keys as #ConsulMastershipElector: the lock 'master-slave/&lt;component&gt;/&lt;job&gt;', the version key '&lt;component&gt;-version' and the datacenter key 'primaryDatacenter'.
+ * The lock key is read together with the version key, so a tick costs the latency of one read and at most one lock acquire.
+ * Session renewals run in the background through #AsyncConsulSession.
+ */
+public class AsyncConsulMastershipElector implements AsyncMastershipElector {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AsyncConsulMastershipElector.class);
+
+    private final AsyncConsulSession consulSession;
+    private final AsyncConsulClient consulClient;
+    private String activeVersionKey = "";
+    private String mastershipKey = "";
+    private String jobName;
+    private volatile boolean sessionOpened = false;
+    private volatile boolean ready = false;
+    //the lock key read started with the version check of this tick
+    private volatile CompletableFuture<ConsulKeyState> lockRead = null;
+    //the LockIndex of the lock we hold - consul increments it every time another session acquires the lock
+    private volatile long epoch = -1;
+    //0 if the master that holds the lock announced a handoff, -1 otherwise
+    private volatile long masterLeaseRemaining = -1;
+
+    public AsyncConsulMastershipElector() {
+        this(AsyncConsulSession.getSharedSession());
+    }
+
+    public AsyncConsulMastershipElector(AsyncConsulSession consulSession) {
+        this.consulSession = consulSession;
+        this.consulClient = consulSession.getConsulClient();
+    }
+
+    @Override
+    public void init(String id, String jobName) {
+        initAsync(id, jobName).join();
+    }
+
+    @Override
+    public CompletableFuture<Void> initAsync(String id, String jobName) {
+        this.mastershipKey = getMastershipKeyPrefix() + jobName;
+        this.jobName = jobName;
+        this.activeVersionKey = getActiveVersionKey();
+
+        int ttlPeriod = MasterSlaveConfigurationUtil.getMasterSlaveLeaseTime(jobName);
+        if (ttlPeriod < 10) {
+            LOGGER.error("Lease time must be at least 10 seconds. For {} the value is: {}. Exiting the application", jobName, ttlPeriod);
+            System.exit(-1);
+        }
+
+        sessionOpened = true;
+        return track(consulSession.open(ttlPeriod)).thenAccept(sessionId -> LOGGER.debug("job: {} uses consul session: {}", jobName, sessionId));
+    }
+
+    /**
+     * never blocks. the readiness is the result of the last consul call, and a failed agent is pinged in the background.
+     */
+    @Override
+    public boolean isReady() {
+        if (!ready) {
+            track(consulClient.ping().thenApply(alive -> {
+                if (!alive) {
+                    throw new ConsulException("consul agent is not available");
+                }
+                return alive;
+            }));
+        }
+        return ready;
+    }
+
+    @Override
+    public boolean isActiveVersion(String currentVersion) {
+        return join(isActiveVersionAsync(currentVersion));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> isActiveVersionAsync(String currentVersion) {
+        //start reading the lock now - #isMasterAsync follows in the same tick
+        lockRead = track(consulClient.getKey(mastershipKey));
+        return isActiveKeyValue(activeVersionKey, currentVersion);
+    }
+
+    @Override
+    public boolean isActiveDataCenter(String currentDataCenter) {
+        return join(isActiveDataCenterAsync(currentDataCenter));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> isActiveDataCenterAsync(String currentDataCenter) {
+        return isActiveKeyValue(ConsulMastershipElector.ACTIVE_DATACENTER, currentDataCenter);
+    }
+
+    private CompletableFuture<Boolean> isActiveKeyValue(String key, String currentValue) {
+        return track(consulClient.getKey(key)).thenApply(keyState -> {
+            String consulValue = keyState.getValue();
+            if (StringUtils.isNotEmpty(consulValue) && !consulValue.equals(currentValue)) {
+                LOGGER.warn("Env variable and consul value are not identical - check consul for possible error. This MAY be a problem (and maybe not).  env value: {}, consul key: {}, consul value: {}", currentValue, key, consulValue);
+                return false;
+            }
+            LOGGER.debug("isActive: true, env value: {}, consul key: {}, consul value: {}", currentValue, key, consulValue);
+            return true;
+        });
+    }
+
+    @Override
+    public boolean isMaster() {
+        return join(isMasterAsync());
+    }
+
+    @Override
+    public CompletableFuture<Boolean> isMasterAsync() {
+        CompletableFuture<ConsulKeyState> currentLockRead = lockRead;
+        lockRead = null;
+        if (currentLockRead == null) {
+            currentLockRead = track(consulClient.getKey(mastershipKey));
+        }
+
+        return currentLockRead.thenCompose(lockState -> {
+            String sessionId = consulSession.getSessionId();
+            masterLeaseRemaining = ConsulMastershipElector.HANDOFF.equals(lockState.getValue()) ? 0 : -1;
+            if (StringUtils.isNotBlank(lockState.getSession())) {
+                LOGGER.trace("Lock is by session: {}", lockState.getSession());
+                return CompletableFuture.completedFuture(isLockOwner(lockState, sessionId));
+            }
+            return acquire(sessionId, true).thenCompose(lockAcquired -> lockAcquired ? readEpoch() : CompletableFuture.completedFuture(false));
+        });
+    }
+
+    /**
+     * the acquire response is only true or false - read the lock to learn the LockIndex of our acquisition
+     * @return a future completed with false if our session does not hold the lock anymore
+     */
+    private CompletableFuture<Boolean> readEpoch() {
+        return track(consulClient.getKey(mastershipKey)).thenApply(lockState -> isLockOwner(lockState, consulSession.getSessionId()));
+    }
+
+    private boolean isLockOwner(ConsulKeyState lockState, String sessionId) {
+        epoch = lockState.getLockIndex();
+        return lockState.getSession().equals(sessionId);
+    }
+
+    @Override
+    public long getEpoch() {
+        return epoch;
+    }
+
+    @Override
+    public long getLeaseRemaining() {
+        //the lock lives as long as the session - the ticks only read it
+        return consulSession.getLeaseRemaining();
+    }
+
+    @Override
+    public long getMasterLeaseRemaining() {
+        return masterLeaseRemaining;
+    }
+
+    @Override
+    public void announceHandoff() {
+        join(announceHandoffAsync());
+    }
+
+    /**
+     * acquire our lock again with the handoff value. consul keeps the LockIndex when the holder acquires again
+     */
+    @Override
+    public CompletableFuture<Void> announceHandoffAsync() {
+        return track(consulClient.acquire(mastershipKey, consulSession.getSessionId(), ConsulMastershipElector.HANDOFF)).thenApply(acquired -> null);
+    }
+
+    private CompletableFuture<Boolean> acquire(String sessionId, boolean retryOnInvalidSession) {
+        return track(consulClient.acquire(mastershipKey, sessionId)).handle((lockAcquired, e) -> {
+            if (e == null) {
+                LOGGER.debug("lock acquired: {}. reason: Successful response from consul with response for acquire lock: {}", lockAcquired, lockAcquired);
+                return CompletableFuture.completedFuture(lockAcquired);
+            }
+            if (retryOnInvalidSession && unwrap(e) instanceof AsyncConsulClient.ConsulInvalidSessionException) {
+                return consulSession.recreate(sessionId).thenCompose(newSessionId -> acquire(newSessionId, false));
+            }
+            LOGGER.error("failed to acquire lock for key: {}. error is: {}", mastershipKey, e.toString());
+            return CompletableFuture.completedFuture(false);
+        }).thenCompose(future -> future);
+    }
+
+    @Override
+    public void close() {
+        join(closeAsync());
+    }
+
+    @Override
+    public CompletableFuture<Void> closeAsync() {
+        if (!sessionOpened) {
+            return CompletableFuture.completedFuture(null);
+        }
+        sessionOpened = false;
+        return releaseLock().handle((released, e) -> null).thenCompose(ignore -> consulSession.close());
+    }
+
+    @Override
+    public void cleanupMaster() {
+        releaseLock().whenComplete((released, e) -> {
+            if (e != null) {
+                LOGGER.error("instance is turning into slave but can't release lock. error: {}", e.toString());
+            }
+        });
+    }
+
+    private CompletableFuture<Boolean> releaseLock() {
+        String sessionId = consulSession.getSessionId();
+        if (StringUtils.isBlank(sessionId)) {
+            return CompletableFuture.completedFuture(false);
+        }
+        LOGGER.trace("going to release lock");
+        return track(consulClient.release(mastershipKey, sessionId));
+    }
+
+    /**
+     * keep the readiness in sync with the outcome of every consul call
+     */
+    private <T> CompletableFuture<T> track(CompletableFuture<T> future) {
+        return future.whenComplete((result, e) -> ready = e == null || !(unwrap(e) instanceof java.io.IOException));
+    }
+
+    private static Throwable unwrap(Throwable e) {
+        return e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+    }
+
+    private static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            Throwable cause = unwrap(e);
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new ConsulException(cause.toString(), cause);
+        }
+    }
+
+    protected String getMastershipKeyPrefix() {
+        return "master-slave/" + MasterSlaveConfigurationUtil.COMPONENT_NAME + "/";
+    }
+
+    protected String getActiveVersionKey() {
+        return MasterSlaveConfigurationUtil.COMPONENT_NAME + "-version";
+    }
+
+    @Override
+    public String getActiveVersion() {
+        return System.getenv(CcpConstants.ARTIFACT_VERSION);
+    }
+}
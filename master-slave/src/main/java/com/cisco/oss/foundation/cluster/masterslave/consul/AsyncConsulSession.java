@@ -0,0 +1,176 @@
+package com.cisco.oss.foundation.cluster.masterslave.consul;
+
+import com.cisco.oss.foundation.cluster.utils.MasterSlaveConfigurationUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Consul session shared by the #AsyncConsulMastershipElector instances using the same #AsyncConsulClient.
+ * Same lifecycle as #ConsulSession - created by the first job, destroyed by the last one - but without any dedicated thread:
+ * the renewals are delayed tasks that only send a request and the session is created and recreated through futures.
+ */
+public class AsyncConsulSession {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AsyncConsulSession.class);
+    private static volatile AsyncConsulSession sharedSession;
+
+    private final AsyncConsulClient consulClient;
+    private final ReentrantLock sessionLock = new ReentrantLock();
+    private CompletableFuture<String> session = null;
+    private volatile String sessionId = "";
+    private volatile int ttlPeriod;
+    //System.nanoTime() when the last successful create or renew of the session was sent. consul keeps the session at least the TTL after it
+    private volatile long renewedAt;
+    private int references = 0;
+    //bumped on every new session so renewals of an old session stop
+    private volatile long generation = 0;
+
+    public AsyncConsulSession(AsyncConsulClient consulClient) {
+        this.consulClient = consulClient;
+    }
+
+    /**
+     * @return the session shared by all the async consul electors of this process. its client is configured by the 'consulClient' configuration.
+     */
+    public static AsyncConsulSession getSharedSession() {
+        if (sharedSession == null) {
+            synchronized (AsyncConsulSession.class) {
+                if (sharedSession == null) {
+                    sharedSession = new AsyncConsulSession(AsyncConsulClient.fromConfiguration("consulClient"));
+                }
+            }
+        }
+        return sharedSession;
+    }
+
+    public AsyncConsulClient getConsulClient() {
+        return consulClient;
+    }
+
+    /**
+     * @return the current session id. empty if the session is not created yet
+     */
+    public String getSessionId() {
+        return sessionId;
+    }
+
+    /**
+     * @return milliseconds until the session (and the locks it holds) may expire, counted from its last successful renewal. 0 if there is no session
+     */
+    public long getLeaseRemaining() {
+        if (sessionId.isEmpty()) {
+            return 0;
+        }
+        return Math.max(0, ttlPeriod * 1000L - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - renewedAt));
+    }
+
+    /**
+     * register a job with the session. the first job creates it.
+     * @param leaseTime the lease time of the registering job in seconds. used as the session TTL unless 'masterSlave.consul.sessionTtl' is set
+     * @return the session id
+     */
+    public CompletableFuture<String> open(int leaseTime) {
+        sessionLock.lock();
+        try {
+            references++;
+            if (session == null || session.isCompletedExceptionally()) {
+                int configuredTtl = MasterSlaveConfigurationUtil.getConsulSessionTtl();
+                ttlPeriod = configuredTtl > 0 ? configuredTtl : leaseTime;
+                session = createSession();
+            }
+            return session;
+        } finally {
+            sessionLock.unlock();
+        }
+    }
+
+    /**
+     * unregister a job from the session. the last job destroys it.
+     */
+    public CompletableFuture<Void> close() {
+        sessionLock.lock();
+        try {
+            if (references == 0 || --references > 0) {
+                return CompletableFuture.completedFuture(null);
+            }
+            generation++;
+            CompletableFuture<String> closedSession = session;
+            session = null;
+            sessionId = "";
+            if (closedSession == null) {
+                return CompletableFuture.completedFuture(null);
+            }
+            return closedSession.thenCompose(consulClient::destroySession).exceptionally(e -> {
+                LOGGER.warn("failed to destroy consul session. error is: {}", e.toString());
+                return null;
+            });
+        } finally {
+            sessionLock.unlock();
+        }
+    }
+
+    /**
+     * replace an invalid session. if another job already replaced it, the current session is returned.
+     * @param staleSessionId the session id the caller found to be invalid
+     * @return the current session id
+     */
+    public CompletableFuture<String> recreate(String staleSessionId) {
+        sessionLock.lock();
+        try {
+            if (references > 0 && (sessionId.equals(staleSessionId) || session == null || session.isCompletedExceptionally())) {
+                LOGGER.info("replacing invalid consul session: {}", staleSessionId);
+                session = createSession();
+            }
+            return session != null ? session : CompletableFuture.completedFuture("");
+        } finally {
+            sessionLock.unlock();
+        }
+    }
+
+    private CompletableFuture<String> createSession() {
+        long sessionGeneration = ++generation;
+        sessionId = "";
+        long sent = System.nanoTime();
+        return consulClient.createSession(MasterSlaveConfigurationUtil.INSTANCE_ID, ttlPeriod).thenApply(newSessionId -> {
+            LOGGER.info("new Session Id is: {}", newSessionId);
+            sessionLock.lock();
+            try {
+                if (sessionGeneration == generation) {
+                    renewedAt = sent;
+                    sessionId = newSessionId;
+                    scheduleRenew(newSessionId, sessionGeneration);
+                }
+            } finally {
+                sessionLock.unlock();
+            }
+            return newSessionId;
+        });
+    }
+
+    private void scheduleRenew(String renewedSessionId, long sessionGeneration) {
+        CompletableFuture.delayedExecutor(Math.max(1, ttlPeriod / 3), TimeUnit.SECONDS).execute(() -> {
+            if (sessionGeneration != generation) {
+                return;
+            }
+            long sent = System.nanoTime();
+            consulClient.renewSession(renewedSessionId).whenComplete((renewed, e) -> {
+                if (e != null) {
+                    LOGGER.warn("problem in heartbeat: {}", e.toString());
+                } else if (!renewed) {
+                    LOGGER.warn("consul session: {} is not found. creating a new one", renewedSessionId);
+                    recreate(renewedSessionId);
+                    return;
+                } else if (sessionGeneration == generation) {
+                    renewedAt = sent;
+                }
+                if (sessionGeneration == generation) {
+                    scheduleRenew(renewedSessionId, sessionGeneration);
+                }
+            });
+        });
+    }
+}
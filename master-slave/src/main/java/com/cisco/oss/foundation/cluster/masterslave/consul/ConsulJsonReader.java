@@ -0,0 +1,366 @@
+package com.cisco.oss.foundation.cluster.masterslave.consul;
+
+import com.google.common.io.BaseEncoding;
+
+/**
+ * Reads single fields out of the small consul responses without building a JSON tree.
+ * Without an object position only the top level fields of the first object in the response are looked at - the one entry of a single key KV read (an array of one object)
+ * or a session create response (a plain object). The objects of a longer array - a recursive KV read or the errors of a transaction - are walked with
+ * #firstObject and #nextObject. The field positions are found by scanning the response in place, so checking a field against a known value does not allocate.
+ */
+final class ConsulJsonReader {
+
+    private static final int NOT_FOUND = -1;
+
+    private ConsulJsonReader() {
+    }
+
+    /**
+     * @param json the response body
+     * @param field the field name
+     * @return the string value of the field. null if the field is missing or not a string
+     */
+    static String readString(String json, String field) {
+        return readString(json, firstObject(json), field);
+    }
+
+    /**
+     * @param json the response body
+     * @param object the position of the object in the response
+     * @param field the field name
+     * @return the string value of the field. null if the field is missing or not a string
+     */
+    static String readString(String json, int object, String field) {
+        int start = findString(json, object, field);
+        if (start == NOT_FOUND) {
+            return null;
+        }
+        int end = endOfString(json, start);
+        String value = json.substring(start, end);
+        return value.indexOf('\\') < 0 ? value : unescape(value);
+    }
+
+    /**
+     * @param json the response body
+     * @param field the field name
+     * @param expected the expected value. never matches an escaped value
+     * @return true if the field is a string equal to the expected value
+     */
+    static boolean stringEquals(String json, String field, String expected) {
+        int start = findString(json, firstObject(json), field);
+        if (start == NOT_FOUND || expected == null) {
+            return false;
+        }
+        int end = endOfString(json, start);
+        return end - start == expected.length() && json.regionMatches(start, expected, 0, expected.length());
+    }
+
+    /**
+     * @param json the response body
+     * @param field the field name
+     * @return true if the field is a non empty string
+     */
+    static boolean hasString(String json, String field) {
+        int start = findString(json, firstObject(json), field);
+        return start != NOT_FOUND && json.charAt(start) != '"';
+    }
+
+    /**
+     * @param json the response body
+     * @param field the field name
+     * @return the numeric value of the field. 0 if the field is missing or not a number
+     */
+    static long readLong(String json, String field) {
+        return readLong(json, firstObject(json), field, 0);
+    }
+
+    /**
+     * @param json the response body
+     * @param object the position of the object in the response
+     * @param field the field name
+     * @param missing the value to return if the field is missing or not a number
+     * @return the numeric value of the field
+     */
+    static long readLong(String json, int object, String field, long missing) {
+        int start = findValue(json, object, field);
+        if (start == NOT_FOUND || json.charAt(start) < '0' || json.charAt(start) > '9') {
+            return missing;
+        }
+        long value = 0;
+        for (int i = start; i < json.length(); i++) {
+            char c = json.charAt(i);
+            if (c < '0' || c > '9') {
+                break;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    /**
+     * @param json the response body
+     * @param object the position of the object in the response
+     * @param field the field name
+     * @return the base64 value of the field, decoded. empty if the field is missing or empty
+     */
+    static String readBase64(String json, int object, String field) {
+        int start = findString(json, object, field);
+        if (start == NOT_FOUND) {
+            return "";
+        }
+        int end = endOfString(json, start);
+        return end == start ? "" : new String(BaseEncoding.base64().decode(json.substring(start, end)));
+    }
+
+    /**
+     * @param json the response body
+     * @return the position of the first object in the response - the response itself or the first entry of an array. -1 if there is none
+     */
+    static int firstObject(String json) {
+        return json == null ? NOT_FOUND : json.indexOf('{');
+    }
+
+    /**
+     * @param json the response body
+     * @param field the name of a top level field whose value is an array of objects
+     * @return the position of the first object in the array. -1 if the field is missing or the array is empty
+     */
+    static int firstObject(String json, String field) {
+        int start = findValue(json, firstObject(json), field);
+        if (start == NOT_FOUND || json.charAt(start) != '[') {
+            return NOT_FOUND;
+        }
+        int i = skipWhitespace(json, start + 1);
+        return i < json.length() && json.charAt(i) == '{' ? i : NOT_FOUND;
+    }
+
+    /**
+     * @param json the response body
+     * @param object the position of an object in an array
+     * @return the position of the object that follows it in the array. -1 if it is the last one
+     */
+    static int nextObject(String json, int object) {
+        int i = skipWhitespace(json, skipValue(json, object));
+        if (i >= json.length() || json.charAt(i) != ',') {
+            return NOT_FOUND;
+        }
+        i = skipWhitespace(json, i + 1);
+        return i < json.length() && json.charAt(i) == '{' ? i : NOT_FOUND;
+    }
+
+    /**
+     * @return the position right after the opening quote of the field value. -1 if the field is missing or not a string
+     */
+    private static int findString(String json, int object, String field) {
+        int start = findValue(json, object, field);
+        if (start == NOT_FOUND || json.charAt(start) != '"') {
+            return NOT_FOUND;
+        }
+        return start + 1;
+    }
+
+    /**
+     * @param object the position of the opening brace of the object
+     * @return the position of the first character of the field value. -1 if the field is missing
+     */
+    private static int findValue(String json, int object, String field) {
+        if (json == null || object < 0) {
+            return NOT_FOUND;
+        }
+        int i = object + 1;
+        int length = json.length();
+        while (i < length) {
+            i = skipWhitespace(json, i);
+            if (i >= length || json.charAt(i) == '}') {
+                return NOT_FOUND;
+            }
+            if (json.charAt(i) == ',') {
+                i++;
+                continue;
+            }
+            if (json.charAt(i) != '"') {
+                return NOT_FOUND;
+            }
+            int nameStart = i + 1;
+            int nameEnd = endOfString(json, nameStart);
+            boolean match = nameEnd - nameStart == field.length() && json.regionMatches(nameStart, field, 0, field.length());
+            i = skipWhitespace(json, nameEnd + 1);
+            if (i >= length || json.charAt(i) != ':') {
+                return NOT_FOUND;
+            }
+            i = skipWhitespace(json, i + 1);
+            if (match) {
+                return i < length ? i : NOT_FOUND;
+            }
+            i = skipValue(json, i);
+        }
+        return NOT_FOUND;
+    }
+
+    /**
+     * @param start the position right after the opening quote
+     * @return the position of the closing quote
+     */
+    private static int endOfString(String json, int start) {
+        int i = start;
+        while (i < json.length()) {
+            char c = json.charAt(i);
+            if (c == '\\') {
+                i += 2;
+            } else if (c == '"') {
+                return i;
+            } else {
+                i++;
+            }
+        }
+        return json.length();
+    }
+
+    private static int skipValue(String json, int i) {
+        int depth = 0;
+        while (i < json.length()) {
+            char c = json.charAt(i);
+            if (c == '"') {
+                i = endOfString(json, i + 1) + 1;
+                if (depth == 0) {
+                    return i;
+                }
+                continue;
+            }
+            if (c == '{' || c == '[') {
+                depth++;
+            } else if (c == '}' || c == ']') {
+                if (depth == 0) {
+                    return i;
+                }
+                depth--;
+            } else if (c == ',' && depth == 0) {
+                return i;
+            }
+            i++;
+        }
+        return i;
+    }
+
+    private static int skipWhitespace(String json, int i) {
+        while (i < json.length() && Character.isWhitespace(json.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * @param value a string to put between quotes in a request body
+     * @return the value with the characters JSON requires escaped - the reverse of the unescaping of #readString
+     */
+    static String escape(String value) {
+        StringBuilder escaped = null;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            String replacement;
+            switch (c) {
+                case '"':
+                    replacement = "\\\"";
+                    break;
+                case '\\':
+                    replacement = "\\\\";
+                    break;
+                case '\n':
+                    replacement = "\\n";
+                    break;
+                case '\t':
+                    replacement = "\\t";
+                    break;
+                case '\r':
+                    replacement = "\\r";
+                    break;
+                case '\b':
+                    replacement = "\\b";
+                    break;
+                case '\f':
+                    replacement = "\\f";
+                    break;
+                default:
+                    replacement = c < ' ' ? String.format("\\u%04x", (int) c) : null;
+            }
+            if (replacement == null) {
+                if (escaped != null) {
+                    escaped.append(c);
+                }
+                continue;
+            }
+            if (escaped == null) {
+                //the common case - nothing to escape, no copy
+                escaped = new StringBuilder(value.length() + 8).append(value, 0, i);
+            }
+            escaped.append(replacement);
+        }
+        return escaped == null ? value : escaped.toString();
+    }
+
+    private static String unescape(String value) {
+        StringBuilder unescaped = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c != '\\' || i + 1 >= value.length()) {
+                unescaped.append(c);
+                continue;
+            }
+            char escaped = value.charAt(++i);
+            switch (escaped) {
+                case 'n':
+                    unescaped.append('\n');
+                    break;
+                case 't':
+                    unescaped.append('\t');
+                    break;
+                case 'r':
+                    unescaped.append('\r');
+                    break;
+                case 'b':
+                    unescaped.append('\b');
+                    break;
+                case 'f':
+                    unescaped.append('\f');
+                    break;
+                case 'u':
+                    if (i + 4 < value.length()) {
+                        unescaped.append((char) Integer.parseInt(value.substring(i + 1, i + 5), 16));
+                        i += 4;
+                    }
+                    break;
+                default:
+                    unescaped.append(escaped);
+            }
+        }
+        return unescaped.toString();
+    }
+
+    /**
+     * Decodes the base64 'Value' of a key and keeps the last result, so an unchanged value is neither copied nor decoded again.
+     * One per key of a job.
+     */
+    static final class ValueDecoder {
+
+        private String lastValueInBase64 = "";
+        private String lastValue = "";
+
+        /**
+         * @param json the KV read response body
+         * @return the decoded value of the key. empty if the key has no value
+         */
+        synchronized String decode(String json) {
+            int start = findString(json, firstObject(json), "Value");
+            if (start == NOT_FOUND) {
+                return "";
+            }
+            int end = endOfString(json, start);
+            if (end - start == lastValueInBase64.length() && json.regionMatches(start, lastValueInBase64, 0, lastValueInBase64.length())) {
+                return lastValue;
+            }
+            lastValueInBase64 = json.substring(start, end);
+            lastValue = lastValueInBase64.isEmpty() ? "" : new String(BaseEncoding.base64().decode(lastValueInBase64));
+            return lastValue;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.cisco.oss.foundation.cluster.masterslave.consul;
+
+import java.util.Objects;
+
+/**
+ * Immutable local view of a consul KV entry as last seen by the #ConsulWatchEngine.
+ */
+public final class ConsulKeyState {
+
+    static final ConsulKeyState ABSENT = new ConsulKeyState(false, "", "", 0, 0);
+
+    private final boolean exists;
+    private final String value;
+    private final String session;
+    private final long modifyIndex;
+    private final long lockIndex;
+
+    ConsulKeyState(boolean exists, String value, String session, long modifyIndex, long lockIndex) {
+        this.exists = exists;
+        this.value = value != null ? value : "";
+        this.session = session != null ? session : "";
+        this.modifyIndex = modifyIndex;
+        this.lockIndex = lockIndex;
+    }
+
+    /**
+     * @return true if the key exists in the KV store
+     */
+    public boolean exists() {
+        return exists;
+    }
+
+    /**
+     * @return the decoded value of the key. empty if the key has no value
+     */
+    public String getValue() {
+        return value;
+    }
+
+    /**
+     * @return the session holding the lock on this key. empty if the key is not locked
+     */
+    public String getSession() {
+        return session;
+    }
+
+    public long getModifyIndex() {
+        return modifyIndex;
+    }
+
+    public long getLockIndex() {
+        return lockIndex;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        ConsulKeyState that = (ConsulKeyState) o;
+        return exists == that.exists && modifyIndex == that.modifyIndex && lockIndex == that.lockIndex && value.equals(that.value) && session.equals(that.session);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(exists, value, session, modifyIndex, lockIndex);
+    }
+
+    @Override
+    public String toString() {
+        return "ConsulKeyState{exists=" + exists + ", value='" + value + "', session='" + session + "', modifyIndex=" + modifyIndex + ", lockIndex=" + lockIndex + "}";
+    }
+}
@@ -0,0 +1,226 @@
+package com.cisco.oss.foundation.cluster.masterslave.consul;
+
+import com.cisco.oss.foundation.cluster.registry.MasterSlaveRegistry;
+import com.cisco.oss.foundation.http.HttpMethod;
+import com.cisco.oss.foundation.http.HttpRequest;
+import com.cisco.oss.foundation.http.HttpResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Acquires the mastership locks of many jobs in one request using the consul transaction endpoint (/v1/txn).
+ * Jobs that want the lock of their job but do not hold it are registered as candidates. When one of them finds its lock free, the locks of all the candidates are
+ * acquired together and the jobs that got their lock are woken up to pick up the result, so a takeover of N jobs costs one or two requests instead of 2*N.
+ * Concurrent callers are coalesced - whoever waits for a running batch picks up its result instead of starting another one.
+ * It is an enum and you access its method via the #INSTANCE member
+ */
+public enum ConsulLockBatcher {
+
+    INSTANCE;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ConsulLockBatcher.class);
+    //consul rejects transactions with more operations than this
+    private static final int MAX_TXN_OPERATIONS = 64;
+    //how long an acquired lock waits for its job to pick it up
+    private static final long RESULT_TTL = 5000;
+
+    //key to job name
+    private final ConcurrentMap<String, String> candidates = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, LockResult> acquiredLocks = new ConcurrentHashMap<>();
+    //a lock and not 'synchronized' so a virtual thread blocked on consul I/O does not pin its carrier thread
+    private final ReentrantLock batchLock = new ReentrantLock();
+
+    /**
+     * mark a job as wanting its lock. it will be included in the next batch.
+     * @param key the mastership key
+     * @param jobName the job
+     */
+    public void addCandidate(String key, String jobName) {
+        candidates.put(key, jobName);
+    }
+
+    /**
+     * remove a job from the next batches - it either holds its lock or may not hold it (e.g. not the active version).
+     * @param key the mastership key
+     * @return true if a batch already acquired this lock and the job did not pick it up. the caller is responsible for releasing it.
+     */
+    public boolean removeCandidate(String key) {
+        candidates.remove(key);
+        return acquiredLocks.remove(key) != null;
+    }
+
+    /**
+     * @param key the mastership key
+     * @param sessionId the current session
+     * @return true if a recent batch acquired this lock for the current session. the result is consumed.
+     */
+    public boolean pollAcquired(String key, String sessionId) {
+        LockResult lockResult = acquiredLocks.remove(key);
+        return lockResult != null && lockResult.sessionId.equals(sessionId) && System.currentTimeMillis() - lockResult.timestamp < RESULT_TTL;
+    }
+
+    /**
+     * acquire the lock of this job together with the locks of all the other candidates.
+     * @param key the mastership key of the calling job
+     * @param jobName the calling job
+     * @param sessionId the current session
+     * @return true if the lock was acquired, false if it is held by another session and null if the batch failed and the caller should fallback to a single acquire
+     */
+    public Boolean acquire(String key, String jobName, String sessionId) {
+        batchLock.lock();
+        try {
+            //a batch that ran while we waited may have covered us
+            if (pollAcquired(key, sessionId)) {
+                return true;
+            }
+
+            Map<String, String> batch = new LinkedHashMap<>();
+            batch.put(key, jobName);
+            batch.putAll(candidates);
+
+            List<String> keys = new ArrayList<>(batch.keySet());
+            Map<String, Boolean> results = new HashMap<>();
+            for (int from = 0; from < keys.size(); from += MAX_TXN_OPERATIONS) {
+                Map<String, Boolean> chunkResults = lockAll(keys.subList(from, Math.min(keys.size(), from + MAX_TXN_OPERATIONS)), sessionId);
+                if (chunkResults == null) {
+                    break;
+                }
+                results.putAll(chunkResults);
+            }
+
+            long now = System.currentTimeMillis();
+            for (Map.Entry<String, Boolean> result : results.entrySet()) {
+                String resultKey = result.getKey();
+                if (resultKey.equals(key) || !Boolean.TRUE.equals(result.getValue())) {
+                    continue;
+                }
+                LockResult lockResult = new LockResult(sessionId, now);
+                acquiredLocks.put(resultKey, lockResult);
+                //the job may have left while the batch ran - removeCandidate does not wait for it. either it finds the result and releases the lock or we do
+                if (!candidates.containsKey(resultKey)) {
+                    if (acquiredLocks.remove(resultKey, lockResult)) {
+                        release(resultKey, sessionId);
+                    }
+                    continue;
+                }
+                MasterSlaveRegistry.INSTANCE.triggerElection(batch.get(resultKey));
+            }
+
+            LOGGER.debug("batch lock acquisition for {} keys. results: {}", keys.size(), results);
+            return results.get(key);
+        } finally {
+            batchLock.unlock();
+        }
+    }
+
+    /**
+     * lock all the keys in one transaction. keys held by other sessions fail the whole transaction, so they are dropped and the rest is retried once.
+     */
+    private Map<String, Boolean> lockAll(List<String> keys, String sessionId) {
+        Map<String, Boolean> results = new HashMap<>();
+        List<String> remaining = new ArrayList<>(keys);
+
+        for (int attempt = 1; attempt <= 2 && !remaining.isEmpty(); attempt++) {
+
+            HttpResponse response = ConsulSession.call(ConsulSession.INSTANCE.getConsulClient(), HttpRequest.newBuilder()
+                    .httpMethod(HttpMethod.PUT)
+                    .uri("/v1/txn")
+                    .entity(buildLockTxn(remaining, sessionId))
+                    .silentLogging()
+                    .build(), "batch acquire locks", remaining.size() + " keys", false);
+
+            String responseAsString = response.getResponseAsString();
+            if (response.isSuccess()) {
+                for (String key : remaining) {
+                    results.put(key, Boolean.TRUE);
+                }
+                return results;
+            }
+
+            if (response.getStatus() != 409) {
+                LOGGER.warn("failed to acquire locks in batch. got response: {}, error response: {}", response.getStatus(), responseAsString);
+                return null;
+            }
+
+            //rolled back - find the operations that failed
+            List<String> failed = new ArrayList<>();
+            for (int error = ConsulJsonReader.firstObject(responseAsString, "Errors"); error >= 0; error = ConsulJsonReader.nextObject(responseAsString, error)) {
+                String what = String.valueOf(ConsulJsonReader.readString(responseAsString, error, "What"));
+                if (what.contains("invalid session") || what.contains("Invalid session")) {
+                    LOGGER.warn("batch lock acquisition failed on an invalid session: {}", sessionId);
+                    return null;
+                }
+                long opIndex = ConsulJsonReader.readLong(responseAsString, error, "OpIndex", -1);
+                if (opIndex >= 0 && opIndex < remaining.size()) {
+                    failed.add(remaining.get((int) opIndex));
+                }
+            }
+
+            if (failed.isEmpty()) {
+                LOGGER.warn("batch lock acquisition was rolled back without a failed operation. error response: {}", responseAsString);
+                return null;
+            }
+
+            for (String key : failed) {
+                results.put(key, Boolean.FALSE);
+            }
+            remaining.removeAll(failed);
+        }
+
+        //the locks changed hands between the two attempts - let the jobs acquire one by one
+        for (String key : remaining) {
+            results.remove(key);
+        }
+        return results;
+    }
+
+    private static String buildLockTxn(List<String> keys, String sessionId) {
+        StringBuilder body = new StringBuilder("[");
+        for (int i = 0; i < keys.size(); i++) {
+            if (i > 0) {
+                body.append(',');
+            }
+            body.append("{\"KV\":{\"Verb\":\"lock\",\"Key\":\"").append(ConsulJsonReader.escape(keys.get(i))).append("\",\"Value\":\"\",\"Session\":\"").append(ConsulJsonReader.escape(sessionId)).append("\"}}");
+        }
+        return body.append(']').toString();
+    }
+
+    /**
+     * give back a lock that no job is going to pick up. otherwise the shared session holds it until the process exits
+     */
+    private static void release(String key, String sessionId) {
+        LOGGER.debug("releasing the batch acquired lock of a job that is no longer a candidate. key: {}", key);
+        try {
+            HttpResponse response = ConsulSession.call(ConsulSession.INSTANCE.getConsulClient(), HttpRequest.newBuilder()
+                    .httpMethod(HttpMethod.PUT)
+                    .uri("/v1/kv/" + key)
+                    .queryParams("release", sessionId)
+                    .build(), "release lock", key, true);
+            if (!response.isSuccess()) {
+                LOGGER.warn("failed to release the lock of key: {}. got response: {}, error response: {}", key, response.getStatus(), response.getResponseAsString());
+            }
+        } catch (Exception e) {
+            LOGGER.warn("failed to release the lock of key: {}. error is: {}", key, e.toString());
+        }
+    }
+
+    private static final class LockResult {
+
+        private final String sessionId;
+        private final long timestamp;
+
+        private LockResult(String sessionId, long timestamp) {
+            this.sessionId = sessionId;
+            this.timestamp = timestamp;
+        }
+    }
+}
@@ -2,48 +2,67 @@ package com.cisco.oss.foundation.cluster.masterslave.consul;
 
 import com.cisco.oss.foundation.cluster.masterslave.MastershipElector;
 import com.cisco.oss.foundation.cluster.utils.MasterSlaveConfigurationUtil;
+import com.cisco.oss.foundation.cluster.utils.MasterSlaveLookupCache;
 import com.cisco.oss.foundation.configuration.CcpConstants;
 import com.cisco.oss.foundation.configuration.ConfigurationFactory;
 import com.cisco.oss.foundation.http.HttpClient;
 import com.cisco.oss.foundation.http.HttpMethod;
 import com.cisco.oss.foundation.http.HttpRequest;
 import com.cisco.oss.foundation.http.HttpResponse;
-import com.cisco.oss.foundation.http.apache.ApacheHttpClientFactory;
-import com.google.common.io.BaseEncoding;
-import com.jayway.jsonpath.Configuration;
-import com.jayway.jsonpath.JsonPath;
-import com.jayway.jsonpath.Option;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
 
 /**
  * Consul implementation for logic for electing new masters.
+ * All the electors of a process share one consul session and http client - see #ConsulSession.
+ * The requests of a job are built once and the responses are read with #ConsulJsonReader, so a tick allocates next to nothing besides the response itself.
  * Created by Yair Ogen (yaogen) on 15/02/2016.
  */
 public class ConsulMastershipElector implements MastershipElector {
 
     public static final String ACTIVE_DATACENTER = "primaryDatacenter";
+    //the value of the lock while its master is handing off. the next acquire of the lock clears it
+    static final String HANDOFF = "handoff";
     private static final Logger LOGGER = LoggerFactory.getLogger(ConsulMastershipElector.class);
+    private static final String ACQUIRE_RESPONSE_REASON = "Successful response from consul for acquire lock";
+    private static final HttpRequest PING = HttpRequest.newBuilder()
+            .httpMethod(HttpMethod.GET)
+            .uri("/v1/agent/self")
+            .silentLogging()
+            .build();
     protected HttpClient consulClient;
     protected String activeVersionKey = "";
-    protected String sessionId = "";
     protected String mastershipKey = "";
     protected String jobName;
-    protected Thread sessionTTlThread;
     //    protected String checkId;
-    protected int ttlUpdateTime;
     protected int ttlPeriod;
-    protected Configuration conf = Configuration.defaultConfiguration();
-    protected Configuration nullableConf = conf.addOptions(Option.DEFAULT_PATH_LEAF_TO_NULL);
+    private final AtomicBoolean sessionOpened = new AtomicBoolean(false);
+    protected boolean watchEnabled = false;
+    protected boolean batchAcquireEnabled = false;
+    private HttpRequest getLock;
+    private volatile LockRequests lockRequests;
+    private final Map<String, KeyRead> keyReads = new ConcurrentHashMap<>();
+    //the LockIndex of the lock we hold - consul increments it every time another session acquires the lock
+    private volatile long epoch = -1;
+    //0 if the master that holds the lock announced a handoff, -1 otherwise - a session TTL does not tell when it was last renewed
+    private volatile long masterLeaseRemaining = -1;
+    private final ConsulJsonReader.ValueDecoder lockValueDecoder = new ConsulJsonReader.ValueDecoder();
 
     @Override
     public void init(String id, String jobName) {
-        this.mastershipKey = "master-slave/" + MasterSlaveConfigurationUtil.COMPONENT_NAME + "/" + jobName;
+        this.mastershipKey = getMastershipKeyPrefix() + jobName;
         this.jobName = jobName;
         this.activeVersionKey = getActiveVersionKey();
+        this.getLock = newGetKeyRequest(mastershipKey);
+        keyReads.computeIfAbsent(activeVersionKey, KeyRead::new);
+        keyReads.computeIfAbsent(ACTIVE_DATACENTER, KeyRead::new);
 
         int numberOfInitAttempts = ConfigurationFactory.getConfiguration().getInt("consulClient.numberOfInitAttempts", 3);
         boolean success = false;
@@ -53,7 +72,6 @@ public class ConsulMastershipElector implements MastershipElector {
             LOGGER.error("Lease time must be at least 10 seconds. For {} the value is: {}. Exiting the application", jobName, ttlPeriod);
             System.exit(-1);
         }
-        ttlUpdateTime = ttlPeriod / 3;
 
         for (int attemptNumber = 1; attemptNumber <= numberOfInitAttempts && !success; attemptNumber++) {
             try {
@@ -73,144 +91,88 @@ public class ConsulMastershipElector implements MastershipElector {
                 }
             }
         }
+
+        batchAcquireEnabled = MasterSlaveConfigurationUtil.isConsulBatchAcquireEnabled();
+        watchEnabled = MasterSlaveConfigurationUtil.isConsulWatchEnabled();
+        if (watchEnabled) {
+            ConsulWatchEngine.INSTANCE.watchPrefix(getMastershipKeyPrefix(), mastershipKey, jobName);
+            ConsulWatchEngine.INSTANCE.watchKey(activeVersionKey, jobName);
+            if (MasterSlaveConfigurationUtil.isSingleAcrossMDC(jobName) && StringUtils.isNotBlank(MasterSlaveConfigurationUtil.ACTIVE_DATA_CENTER)) {
+                ConsulWatchEngine.INSTANCE.watchKey(ACTIVE_DATACENTER, jobName);
+            }
+        }
     }
 
     private void initConsul() {
 
         if (consulClient == null) {
-            consulClient = ApacheHttpClientFactory.createHttpClient("consulClient");
+            consulClient = ConsulSession.INSTANCE.getConsulClient();
         }
 
-        createSession();
+        if (!sessionOpened.get()) {
+            ConsulSession.INSTANCE.open(ttlPeriod);
+            sessionOpened.set(true);
+        }
     }
 
-    private void closeSession() {
-
-        HttpRequest destroySession = HttpRequest.newBuilder()
-                .httpMethod(HttpMethod.PUT)
-                .uri("/v1/session/destroy/" + sessionId)
-                .build();
-
-        execute(destroySession, false, "destroy session");
-    }
 
-    private synchronized void createSession() {
+    @Override
+    public boolean isReady() {
 
-        String body = "{\n" +
-                "  \"Name\": \"" + MasterSlaveConfigurationUtil.INSTANCE_ID + "\",\n" +
-                "\"TTL\": \"" + ttlPeriod + "s\"" +
-                "}";
+        //a healthy watch on our lock proves the agent is reachable - no need to ping it
+        if (watchEnabled && ConsulWatchEngine.INSTANCE.getState(mastershipKey) != null) {
+            return true;
+        }
 
-        HttpRequest createSession = HttpRequest.newBuilder()
-                .httpMethod(HttpMethod.PUT)
-                .uri("/v1/session/create")
-                .entity(body)
-                .build();
+        HttpResponse response = execute(PING, false, "ping agent");
 
-        HttpResponse response = execute(createSession, true, "create session");
+        return response.isSuccess();
 
-        String jsonId = response.getResponseAsString();
-        this.sessionId = JsonPath.parse(jsonId).read("$.ID");
-        LOGGER.info("new Session Id is: {}", sessionId);
 
-        if (sessionTTlThread == null) {
-            startSessionHeartbeatThread();
-        }
-        try {
-            TimeUnit.SECONDS.sleep(2);
-        } catch (InterruptedException e) {
-            //ignore
-        }
     }
 
-    private void startSessionHeartbeatThread() {
-        sessionTTlThread = new Thread(() -> {
-            while (true) {
-                try {
-                    HttpRequest renewSession = HttpRequest.newBuilder()
-                            .httpMethod(HttpMethod.PUT)
-                            .uri("/v1/session/renew/" + sessionId)
-                            .silentLogging()
-                            .build();
-
-                    HttpResponse response = consulClient.execute(renewSession);
-                    if (!response.isSuccess()) {
-                        String renewSessionResponse = response.getResponseAsString();
-                        LOGGER.warn("failed to pass check. got response: {}, error response: {}", response.getStatus(), renewSessionResponse);
-                        if(renewSessionResponse.contains("not found")){
-                            createSession();
-                        }
-                    }
-                } catch (Exception e) {
-                    LOGGER.warn("problem in heartbeat: {}", e.toString());
-                } finally {
-                    try {
-                        TimeUnit.SECONDS.sleep(ttlUpdateTime);
-                    } catch (InterruptedException e) {
-                        //ignore
-                    }
-                }
-            }
-        }, jobName + "-SessionRenewThread");
-        sessionTTlThread.setDaemon(true);
-        sessionTTlThread.start();
-        sessionTTlThread.setUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
-            @Override
-            public void uncaughtException(Thread t, Throwable e) {
-                LOGGER.error("Uncaught Exception for Job: {} in thread: {}. Exception is: {}", jobName, t.getName(), e);
-            }
-        });
-    }
 
+    public boolean isActiveKeyValue(String key, String currentValue) {
 
-    @Override
-    public boolean isReady() {
-        HttpRequest ping = HttpRequest.newBuilder()
-                .httpMethod(HttpMethod.GET)
-                .uri("/v1/agent/self")
-                .silentLogging()
-                .build();
+        ConsulKeyState keyState = watchEnabled ? ConsulWatchEngine.INSTANCE.getState(key) : null;
+        if (keyState != null) {
+            return isActiveValue(key, currentValue, keyState.getValue());
+        }
 
+        KeyRead keyRead = keyReads.computeIfAbsent(key, KeyRead::new);
+        String consulValue = MasterSlaveLookupCache.INSTANCE.getKeyValue(keyRead.cacheKey, keyRead.loader);
 
-        HttpResponse response = execute(ping, false, "ping agent");
+        return isActiveValue(key, currentValue, consulValue);
+    }
 
-        return response.isSuccess();
+    private String readKeyValue(KeyRead keyRead) {
 
+        HttpResponse response = ConsulSession.call(consulClient, keyRead.request, "get key", keyRead.key, false);
+        if (!response.isSuccess()) {
+            LOGGER.debug("failed to get value from KV store for key: {}. got response: {}, error response: {}", keyRead.key, response.getStatus(), response.getResponseAsString());
+            return "";
+        }
 
+        return keyRead.decoder.decode(response.getResponseAsString());
     }
 
-
-    public boolean isActiveKeyValue(String key, String currentValue) {
-
-        HttpRequest getActiveKey = HttpRequest.newBuilder()
-                .httpMethod(HttpMethod.GET)
-                .uri("/v1/kv/" + key)
-                .silentLogging()
-                .build();
+    private boolean isActiveValue(String key, String currentValue, String consulValue) {
 
         boolean isActive = true;
-        String consulValue = "";
-
-        boolean isLogged = false;
 
-        HttpResponse response = consulClient.execute(getActiveKey);
-        if (!response.isSuccess()) {
-            LOGGER.debug("failed to get value from KV store for key: {}. got response: {}, error response: {}", key, response.getStatus(), response.getResponseAsString());
-        } else {
-            String jsonKeyValue = response.getResponseAsString();
-            String valueInBase64 = JsonPath.parse(jsonKeyValue).read("$.[0].Value");
-
-            if (StringUtils.isNotEmpty(valueInBase64)) {
-                consulValue = new String(BaseEncoding.base64().decode(valueInBase64));
-                isActive = currentValue.equals(consulValue);
-                if(!isActive){
-                    LOGGER.warn("Env variable and consul value are not identical - check consul for possible error. This MAY be a problem (and maybe not).  env value: {}, consul key: {}, consul value: {}", currentValue, key, consulValue);
-                    isLogged = true;
+        if (StringUtils.isNotEmpty(consulValue)) {
+            isActive = currentValue.equals(consulValue);
+            if(!isActive){
+                LOGGER.warn("Env variable and consul value are not identical - check consul for possible error. This MAY be a problem (and maybe not).  env value: {}, consul key: {}, consul value: {}", currentValue, key, consulValue);
+                //we may not hold the lock - don't let a batch acquire it for us and give back what a batch already acquired
+                if (batchAcquireEnabled && ConsulLockBatcher.INSTANCE.removeCandidate(mastershipKey)) {
+                    releaseLock();
                 }
+                return false;
             }
         }
 
-        if (!isLogged) {
+        if (LOGGER.isDebugEnabled()) {
             LOGGER.debug("isActive: {}, env value: {}, consul key: {}, consul value: {}", isActive, currentValue, key, consulValue);
         }
 
@@ -233,87 +195,156 @@ public class ConsulMastershipElector implements MastershipElector {
     @Override
     public boolean isMaster() {
         boolean lockAcquired = false;
+        String sessionId = ConsulSession.INSTANCE.getSessionId();
+        masterLeaseRemaining = -1;
 
-        HttpRequest getSession = HttpRequest.newBuilder()
-                .httpMethod(HttpMethod.GET)
-                .uri("/v1/kv/" + mastershipKey)
-                .silentLogging()
-                .build();
+        if (batchAcquireEnabled && ConsulLockBatcher.INSTANCE.pollAcquired(mastershipKey, sessionId)) {
+            LOGGER.debug("lock acquired: true. reason: acquired in a batch with other jobs");
+            return readEpoch(sessionId);
+        }
 
-        HttpResponse getSessionResponse = consulClient.execute(getSession);
-        if (getSessionResponse.isSuccess()) {
-            String sessionOwner = JsonPath.using(nullableConf).parse(getSessionResponse.getResponseAsString()).read("$.[0].Session");
-            if (StringUtils.isNoneBlank(sessionOwner)) {
-                LOGGER.trace("Lock is by session: {}", sessionOwner);
-                return sessionId.equals(sessionOwner);
+        ConsulKeyState lockState = watchEnabled ? ConsulWatchEngine.INSTANCE.getState(mastershipKey) : null;
+        if (lockState != null) {
+            if (StringUtils.isNoneBlank(lockState.getSession())) {
+                LOGGER.trace("Lock is by session: {}", lockState.getSession());
+                epoch = lockState.getLockIndex();
+                masterLeaseRemaining = HANDOFF.equals(lockState.getValue()) ? 0 : -1;
+                return isLockOwner(sessionId, lockState.getSession());
+            }
+        } else {
+            HttpResponse getSessionResponse = ConsulSession.call(consulClient, getLock, "get lock", mastershipKey, false);
+            if (getSessionResponse.isSuccess()) {
+                String lock = getSessionResponse.getResponseAsString();
+                if (ConsulJsonReader.hasString(lock, "Session")) {
+                    if (LOGGER.isTraceEnabled()) {
+                        LOGGER.trace("Lock is by session: {}", ConsulJsonReader.readString(lock, "Session"));
+                    }
+                    epoch = ConsulJsonReader.readLong(lock, "LockIndex");
+                    masterLeaseRemaining = HANDOFF.equals(lockValueDecoder.decode(lock)) ? 0 : -1;
+                    return isLockOwner(ConsulJsonReader.stringEquals(lock, "Session", sessionId));
+                }
             }
         }
 
+        if (batchAcquireEnabled) {
+            Boolean batchLockAcquired = ConsulLockBatcher.INSTANCE.acquire(mastershipKey, jobName, sessionId);
+            if (batchLockAcquired != null) {
+                LOGGER.debug("lock acquired: {}. reason: batch acquisition", batchLockAcquired);
+                updateCandidate(batchLockAcquired);
+                return batchLockAcquired && readEpoch(sessionId);
+            }
+        }
 
-        HttpRequest acquireLock = HttpRequest.newBuilder()
-                .httpMethod(HttpMethod.PUT)
-                .uri("/v1/kv/" + mastershipKey)
-                .queryParams("acquire", sessionId)
-                .silentLogging()
-                .build();
-
-        HttpResponse response = consulClient.execute(acquireLock);
+        HttpResponse response = ConsulSession.call(consulClient, lockRequests(sessionId).acquire, "acquire lock", mastershipKey, true);
         String responseAsString = response.getResponseAsString();
         String lockResponseReason = "";
         if (!response.isSuccess()) {
             LOGGER.error("failed to acquire lock for key: {}. got response: {}, error response: {}", mastershipKey, response.getStatus(), responseAsString);
 
             if (responseAsString.contains("invalid session") || responseAsString.contains("Invalid session")) {
-                closeSession();
-                createSession();
+                sessionId = ConsulSession.INSTANCE.recreateSession(sessionId);
 
-                acquireLock = HttpRequest.newBuilder()
-                        .httpMethod(HttpMethod.PUT)
-                        .uri("/v1/kv/" + mastershipKey)
-                        .queryParams("acquire", sessionId)
-                        .silentLogging()
-                        .build();
-
-                HttpResponse acquireLockRetryResponse = execute(acquireLock, false, "acquire lock");
+                HttpResponse acquireLockRetryResponse = execute(lockRequests(sessionId).acquire, false, "acquire lock");
                 if (acquireLockRetryResponse.isSuccess()) {
-                    lockAcquired = Boolean.valueOf(acquireLockRetryResponse.getResponseAsString());
-                    lockResponseReason = "Successful response from consul with response for acquire lock: " + lockAcquired;
+                    lockAcquired = Boolean.parseBoolean(acquireLockRetryResponse.getResponseAsString());
+                    lockResponseReason = ACQUIRE_RESPONSE_REASON;
                 }else{
                     lockResponseReason = acquireLockRetryResponse.getResponseAsString();
                 }
             }
         } else {
-            lockAcquired = Boolean.valueOf(responseAsString);
-            lockResponseReason = "Successful response from consul with response for acquire lock: " + lockAcquired;
+            lockAcquired = Boolean.parseBoolean(responseAsString);
+            lockResponseReason = ACQUIRE_RESPONSE_REASON;
         }
 
         LOGGER.debug("lock acquired: {}. reason: {}", lockAcquired, lockResponseReason);
-        return lockAcquired;
+        if (batchAcquireEnabled) {
+            updateCandidate(lockAcquired);
+        }
+        return lockAcquired && readEpoch(sessionId);
+    }
+
+    /**
+     * the acquire response is only true or false - read the lock to learn the LockIndex of our acquisition
+     * @return false if our session does not hold the lock anymore
+     */
+    private boolean readEpoch(String sessionId) {
+        HttpResponse response = ConsulSession.call(consulClient, getLock, "get lock", mastershipKey, false);
+        if (!response.isSuccess()) {
+            throw new ConsulException("failed to read the epoch of lock: " + mastershipKey + ". status: " + response.getStatus());
+        }
+        String lock = response.getResponseAsString();
+        epoch = ConsulJsonReader.readLong(lock, "LockIndex");
+        return ConsulJsonReader.stringEquals(lock, "Session", sessionId);
+    }
+
+    @Override
+    public long getEpoch() {
+        return epoch;
+    }
+
+    @Override
+    public long getLeaseRemaining() {
+        //the lock lives as long as the session - the ticks only read it
+        return ConsulSession.INSTANCE.getLeaseRemaining();
+    }
+
+    @Override
+    public long getMasterLeaseRemaining() {
+        return masterLeaseRemaining;
+    }
+
+    /**
+     * acquire our lock again with the handoff value. consul keeps the LockIndex when the holder acquires again
+     */
+    @Override
+    public void announceHandoff() {
+        execute(lockRequests(ConsulSession.INSTANCE.getSessionId()).announceHandoff, true, "announce handoff");
+    }
+
+    private boolean isLockOwner(String sessionId, String sessionOwner) {
+        return isLockOwner(sessionId.equals(sessionOwner));
+    }
+
+    private boolean isLockOwner(boolean isOwner) {
+        if (batchAcquireEnabled) {
+            updateCandidate(isOwner);
+        }
+        return isOwner;
+    }
+
+    private void updateCandidate(boolean isOwner) {
+        if (isOwner) {
+            ConsulLockBatcher.INSTANCE.removeCandidate(mastershipKey);
+        } else {
+            ConsulLockBatcher.INSTANCE.addCandidate(mastershipKey, jobName);
+        }
     }
 
     @Override
     public void close() {
-        if (consulClient != null) {
+        if (watchEnabled) {
+            ConsulWatchEngine.INSTANCE.unwatch(jobName);
+        }
+        if (batchAcquireEnabled) {
+            ConsulLockBatcher.INSTANCE.removeCandidate(mastershipKey);
+        }
+        if (consulClient != null && sessionOpened.compareAndSet(true, false)) {
             releaseLock();
-            closeSession();
+            ConsulSession.INSTANCE.close();
         }
     }
 
     private void releaseLock() {
         LOGGER.trace("going to release lock");
-        HttpRequest releaseLock = HttpRequest.newBuilder()
-                .httpMethod(HttpMethod.PUT)
-                .uri("/v1/kv/" + mastershipKey)
-                .queryParams("release", sessionId)
-                .build();
-
-        HttpResponse response = execute(releaseLock, false, "release lock");
-        LOGGER.trace("release lock response: " + response.getStatus());
+        HttpResponse response = execute(lockRequests(ConsulSession.INSTANCE.getSessionId()).release, false, "release lock");
+        LOGGER.trace("release lock response: {}", response.getStatus());
 
     }
 
     private HttpResponse execute(HttpRequest request, boolean throwOnError, String opName) {
-        HttpResponse response = consulClient.execute(request);
+        //the lock acquire/release requests answer true or false
+        HttpResponse response = ConsulSession.call(consulClient, request, opName, mastershipKey, request != PING);
         String responseAsString = response.getResponseAsString();
         if (!response.isSuccess()) {
             LOGGER.error("failed to " + opName + ". got response: {}, error response: {}", response.getStatus(), responseAsString);
@@ -325,6 +356,80 @@ public class ConsulMastershipElector implements MastershipElector {
         return response;
     }
 
+    /**
+     * @return the acquire and release requests of the lock for this session. rebuilt only when the session changes
+     */
+    private LockRequests lockRequests(String sessionId) {
+        LockRequests requests = lockRequests;
+        if (requests == null || !requests.sessionId.equals(sessionId)) {
+            requests = new LockRequests(mastershipKey, sessionId);
+            lockRequests = requests;
+        }
+        return requests;
+    }
+
+    private static HttpRequest newGetKeyRequest(String key) {
+        return HttpRequest.newBuilder()
+                .httpMethod(HttpMethod.GET)
+                .uri("/v1/kv/" + key)
+                .silentLogging()
+                .build();
+    }
+
+    /**
+     * the lock requests of one session
+     */
+    private static final class LockRequests {
+
+        private final String sessionId;
+        private final HttpRequest acquire;
+        private final HttpRequest release;
+        private final HttpRequest announceHandoff;
+
+        private LockRequests(String mastershipKey, String sessionId) {
+            this.sessionId = sessionId;
+            this.acquire = HttpRequest.newBuilder()
+                    .httpMethod(HttpMethod.PUT)
+                    .uri("/v1/kv/" + mastershipKey)
+                    .queryParams("acquire", sessionId)
+                    .silentLogging()
+                    .build();
+            this.release = HttpRequest.newBuilder()
+                    .httpMethod(HttpMethod.PUT)
+                    .uri("/v1/kv/" + mastershipKey)
+                    .queryParams("release", sessionId)
+                    .build();
+            this.announceHandoff = HttpRequest.newBuilder()
+                    .httpMethod(HttpMethod.PUT)
+                    .uri("/v1/kv/" + mastershipKey)
+                    .queryParams("acquire", sessionId)
+                    .entity(HANDOFF)
+                    .build();
+        }
+    }
+
+    /**
+     * everything needed to read one key - the request, the lookup cache key and the last decoded value
+     */
+    private final class KeyRead {
+
+        private final String key;
+        private final String cacheKey;
+        private final HttpRequest request;
+        private final ConsulJsonReader.ValueDecoder decoder = new ConsulJsonReader.ValueDecoder();
+        private final Function<String, String> loader = lookupKey -> readKeyValue(this);
+
+        private KeyRead(String key) {
+            this.key = key;
+            this.cacheKey = "consul:" + key;
+            this.request = newGetKeyRequest(key);
+        }
+    }
+
+    protected String getMastershipKeyPrefix() {
+        return "master-slave/" + MasterSlaveConfigurationUtil.COMPONENT_NAME + "/";
+    }
+
     protected String getActiveVersionKey() {
         return MasterSlaveConfigurationUtil.COMPONENT_NAME + "-version";
     }
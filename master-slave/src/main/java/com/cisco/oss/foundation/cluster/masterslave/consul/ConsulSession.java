@@ -0,0 +1,264 @@
+package com.cisco.oss.foundation.cluster.masterslave.consul;
+
+import com.cisco.oss.foundation.cluster.jfr.BackendCallEvent;
+import com.cisco.oss.foundation.cluster.utils.MasterSlaveConfigurationUtil;
+import com.cisco.oss.foundation.cluster.utils.MasterSlaveThreadFactory;
+import com.cisco.oss.foundation.http.HttpClient;
+import com.cisco.oss.foundation.http.HttpMethod;
+import com.cisco.oss.foundation.http.HttpRequest;
+import com.cisco.oss.foundation.http.HttpResponse;
+import com.cisco.oss.foundation.http.apache.ApacheHttpClientFactory;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Process wide consul session shared by all the job locks of this process.
+ * Holds the single pooled consul http client, creates the session when the first job opens it, renews it from one heartbeat thread and destroys it when the last job closes it.
+ * It is an enum and you access its method via the #INSTANCE member
+ */
+public enum ConsulSession {
+
+    INSTANCE;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ConsulSession.class);
+    static final String BACKEND = "consul";
+
+    private volatile HttpClient consulClient;
+    private volatile String sessionId = "";
+    private volatile int ttlPeriod;
+    //System.nanoTime() when the last successful create or renew of the session was sent. consul keeps the session at least the TTL after it
+    private volatile long renewedAt;
+    //the current heartbeat thread. cleared when the last job closes - a thread that finds another one here exits
+    private volatile Thread sessionTTlThread;
+    private int references = 0;
+    //a lock and not 'synchronized' so a virtual thread blocked on consul I/O does not pin its carrier thread
+    private final ReentrantLock sessionLock = new ReentrantLock();
+
+    /**
+     * @return the consul http client shared by all the consul electors in this process
+     */
+    public HttpClient getConsulClient() {
+        if (consulClient == null) {
+            sessionLock.lock();
+            try {
+                if (consulClient == null) {
+                    consulClient = ApacheHttpClientFactory.createHttpClient("consulClient");
+                }
+            } finally {
+                sessionLock.unlock();
+            }
+        }
+        return consulClient;
+    }
+
+    /**
+     * @return the current session id. empty if there is no open session
+     */
+    public String getSessionId() {
+        return sessionId;
+    }
+
+    /**
+     * @return milliseconds until the session (and the locks it holds) may expire, counted from its last successful renewal. 0 if there is no open session
+     */
+    public long getLeaseRemaining() {
+        if (StringUtils.isBlank(sessionId)) {
+            return 0;
+        }
+        return Math.max(0, ttlPeriod * 1000L - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - renewedAt));
+    }
+
+    /**
+     * register a job with the shared session. the first job creates the session and starts the heartbeat.
+     * @param leaseTime the lease time of the registering job in seconds. used as the session TTL unless 'masterSlave.consul.sessionTtl' is set
+     * @return the current session id
+     */
+    public String open(int leaseTime) {
+        sessionLock.lock();
+        try {
+            if (StringUtils.isBlank(sessionId)) {
+                int configuredTtl = MasterSlaveConfigurationUtil.getConsulSessionTtl();
+                ttlPeriod = configuredTtl > 0 ? configuredTtl : leaseTime;
+                createSession();
+            } else if (leaseTime < ttlPeriod) {
+                LOGGER.warn("lease time: {} is shorter than the TTL of the shared consul session: {}. the session TTL is used", leaseTime, ttlPeriod);
+            }
+            references++;
+            return sessionId;
+        } finally {
+            sessionLock.unlock();
+        }
+    }
+
+    /**
+     * unregister a job from the shared session. the last job destroys the session.
+     */
+    public void close() {
+        sessionLock.lock();
+        try {
+            if (references > 0) {
+                references--;
+                if (references == 0) {
+                    stopSessionHeartbeatThread();
+                    destroySession();
+                }
+            }
+        } finally {
+            sessionLock.unlock();
+        }
+    }
+
+    /**
+     * replace an invalid session. if another job already replaced it, the replacement is returned as is.
+     * @param staleSessionId the session id the caller found to be invalid
+     * @return the current session id
+     */
+    public String recreateSession(String staleSessionId) {
+        sessionLock.lock();
+        try {
+            if (references > 0 && sessionId.equals(staleSessionId)) {
+                destroySession();
+                createSession();
+            }
+            return sessionId;
+        } finally {
+            sessionLock.unlock();
+        }
+    }
+
+    private void createSession() {
+
+        String body = "{\n" +
+                "  \"Name\": \"" + MasterSlaveConfigurationUtil.INSTANCE_ID + "\",\n" +
+                "\"TTL\": \"" + ttlPeriod + "s\"" +
+                "}";
+
+        HttpRequest createSession = HttpRequest.newBuilder()
+                .httpMethod(HttpMethod.PUT)
+                .uri("/v1/session/create")
+                .entity(body)
+                .build();
+
+        long sent = System.nanoTime();
+        HttpResponse response = execute(createSession, true, "create session");
+
+        String jsonId = response.getResponseAsString();
+        this.renewedAt = sent;
+        this.sessionId = ConsulJsonReader.readString(jsonId, "ID");
+        LOGGER.info("new Session Id is: {}", sessionId);
+
+        //the session is created through raft - it can be used right away
+        if (sessionTTlThread == null) {
+            startSessionHeartbeatThread();
+        }
+    }
+
+    private void destroySession() {
+
+        if (StringUtils.isBlank(sessionId)) {
+            return;
+        }
+
+        HttpRequest destroySession = HttpRequest.newBuilder()
+                .httpMethod(HttpMethod.PUT)
+                .uri("/v1/session/destroy/" + sessionId)
+                .build();
+
+        execute(destroySession, false, "destroy session");
+        sessionId = "";
+    }
+
+    private void startSessionHeartbeatThread() {
+        sessionTTlThread = MasterSlaveThreadFactory.newThread("Consul-SessionRenewThread", () -> {
+            while (sessionTTlThread == Thread.currentThread()) {
+                String currentSessionId = sessionId;
+                try {
+                    if (StringUtils.isNotBlank(currentSessionId)) {
+                        HttpRequest renewSession = HttpRequest.newBuilder()
+                                .httpMethod(HttpMethod.PUT)
+                                .uri("/v1/session/renew/" + currentSessionId)
+                                .silentLogging()
+                                .build();
+
+                        long sent = System.nanoTime();
+                        HttpResponse response = call(consulClient, renewSession, "renew session", currentSessionId, false);
+                        if (response.isSuccess() && currentSessionId.equals(sessionId)) {
+                            renewedAt = sent;
+                        } else if (!response.isSuccess()) {
+                            String renewSessionResponse = response.getResponseAsString();
+                            LOGGER.warn("failed to pass check. got response: {}, error response: {}", response.getStatus(), renewSessionResponse);
+                            if (renewSessionResponse.contains("not found")) {
+                                recreateSession(currentSessionId);
+                            }
+                        }
+                    }
+                } catch (Exception e) {
+                    LOGGER.warn("problem in heartbeat: {}", e.toString());
+                } finally {
+                    try {
+                        TimeUnit.SECONDS.sleep(Math.max(1, ttlPeriod / 3));
+                    } catch (InterruptedException e) {
+                        //interrupted by close - the loop condition tells
+                    }
+                }
+            }
+        });
+        sessionTTlThread.start();
+        sessionTTlThread.setUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
+            @Override
+            public void uncaughtException(Thread t, Throwable e) {
+                LOGGER.error("Uncaught Exception in thread: {}. Exception is: {}", t.getName(), e);
+            }
+        });
+    }
+
+    private void stopSessionHeartbeatThread() {
+        Thread heartbeatThread = sessionTTlThread;
+        sessionTTlThread = null;
+        if (heartbeatThread != null) {
+            heartbeatThread.interrupt();
+        }
+    }
+
+    /**
+     * execute a consul request and report it as a #BackendCallEvent
+     * @param operation the event operation, e.g. 'acquire lock'
+     * @param target the key or session the request is about
+     * @param booleanResponse true if the response body is true/false (lock acquire and release). it is reported as the outcome
+     */
+    static HttpResponse call(HttpClient consulClient, HttpRequest request, String operation, String target, boolean booleanResponse) {
+        BackendCallEvent event = BackendCallEvent.start(BACKEND, operation, target);
+        HttpResponse response;
+        try {
+            response = consulClient.execute(request);
+        } catch (RuntimeException e) {
+            event.fail(e);
+            throw e;
+        }
+        if (!response.isSuccess()) {
+            event.fail("status " + response.getStatus());
+        } else if (booleanResponse) {
+            event.end(BackendCallEvent.outcome(Boolean.parseBoolean(response.getResponseAsString().trim())));
+        } else {
+            event.end((String) null);
+        }
+        return response;
+    }
+
+    private HttpResponse execute(HttpRequest request, boolean throwOnError, String opName) {
+        HttpResponse response = call(getConsulClient(), request, opName, sessionId, false);
+        String responseAsString = response.getResponseAsString();
+        if (!response.isSuccess()) {
+            LOGGER.error("failed to " + opName + ". got response: {}, error response: {}", response.getStatus(), responseAsString);
+            if (throwOnError) {
+                throw new ConsulException("failed to " + opName + ". status: " + response.getStatus());
+            }
+        }
+
+        return response;
+    }
+}
@@ -0,0 +1,268 @@
+package com.cisco.oss.foundation.cluster.masterslave.consul;
+
+import com.cisco.oss.foundation.cluster.registry.MasterSlaveRegistry;
+import com.cisco.oss.foundation.cluster.utils.MasterSlaveConfigurationUtil;
+import com.cisco.oss.foundation.cluster.utils.MasterSlaveThreadFactory;
+import com.cisco.oss.foundation.http.HttpClient;
+import com.cisco.oss.foundation.http.HttpMethod;
+import com.cisco.oss.foundation.http.HttpRequest;
+import com.cisco.oss.foundation.http.HttpResponse;
+import com.cisco.oss.foundation.http.apache.ApacheHttpClientFactory;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps a local cached view of consul KV keys using consul blocking queries (long polls on /v1/kv/...?index=).
+ * There is one long poll per watched path per process: the mastership keys of all the jobs of the component are watched with a single recursive query on their common prefix,
+ * and the active version and active datacenter keys are watched once no matter how many jobs use them.
+ * When a watched key changes, the jobs that use it are asked to run an election immediately via #MasterSlaveRegistry.triggerElection.
+ * It is an enum and you access its method via the #INSTANCE member
+ */
+public enum ConsulWatchEngine {
+
+    INSTANCE;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ConsulWatchEngine.class);
+    private static final String CONSUL_INDEX_HEADER = "X-Consul-Index";
+    private static final int WATCH_RETRY_DELAY = 1;
+
+    private final ConcurrentMap<String, Watch> watches = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, ConsulKeyState> keyStates = new ConcurrentHashMap<>();
+    private volatile HttpClient watchClient;
+
+    /**
+     * watch a single key on behalf of a job.
+     * @param key the consul key
+     * @param jobName the job to wake up when the key changes
+     */
+    public void watchKey(String key, String jobName) {
+        watch(key, false, key, jobName);
+    }
+
+    /**
+     * watch a key through a recursive watch on its prefix. all keys under the same prefix share one long poll.
+     * @param prefix the prefix to watch recursively
+     * @param key the consul key under the prefix that this job cares about
+     * @param jobName the job to wake up when the key changes
+     */
+    public void watchPrefix(String prefix, String key, String jobName) {
+        watch(prefix, true, key, jobName);
+    }
+
+    /**
+     * stop watching all keys on behalf of a job. watches without any job are stopped.
+     * @param jobName the job
+     */
+    public synchronized void unwatch(String jobName) {
+        for (Watch watch : watches.values()) {
+            String key = watch.subscribers.remove(jobName);
+            if (key != null && !watch.subscribers.containsValue(key)) {
+                keyStates.remove(key);
+            }
+            if (watch.subscribers.isEmpty()) {
+                watch.running = false;
+                watches.remove(watch.path, watch);
+            }
+        }
+    }
+
+    /**
+     * @param key the consul key
+     * @return the last known state of the key, or null if the key is not watched or its watch is currently failing.
+     */
+    public ConsulKeyState getState(String key) {
+        return keyStates.get(key);
+    }
+
+    private synchronized void watch(String path, boolean recurse, String key, String jobName) {
+        Watch watch = watches.get(path);
+        if (watch == null) {
+            watch = new Watch(path, recurse);
+            watches.put(path, watch);
+            watch.subscribers.put(jobName, key);
+            watch.start();
+        } else {
+            watch.subscribers.put(jobName, key);
+        }
+    }
+
+    private HttpClient getWatchClient() {
+        if (watchClient == null) {
+            synchronized (this) {
+                if (watchClient == null) {
+                    watchClient = ApacheHttpClientFactory.createHttpClient("consulWatchClient");
+                }
+            }
+        }
+        return watchClient;
+    }
+
+    private final class Watch implements Runnable {
+
+        private final String path;
+        private final boolean recurse;
+        private final String uri;
+        //job name to the key the job cares about
+        private final ConcurrentMap<String, String> subscribers = new ConcurrentHashMap<>();
+        private volatile boolean running = true;
+        private long index = 0;
+        //the long poll only changes with the index and the wait time - most polls time out without a change and reuse it
+        private HttpRequest pollRequest;
+        private long pollRequestIndex = -1;
+        private int pollRequestWaitTime = -1;
+
+        private Watch(String path, boolean recurse) {
+            this.path = path;
+            this.recurse = recurse;
+            this.uri = "/v1/kv/" + path;
+        }
+
+        private void start() {
+            Thread watchThread = MasterSlaveThreadFactory.newThread("ConsulWatch-" + path, this);
+            watchThread.start();
+            watchThread.setUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
+                @Override
+                public void uncaughtException(Thread t, Throwable e) {
+                    LOGGER.error("Uncaught Exception in thread: {}. Exception is: {}", t.getName(), e);
+                }
+            });
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                boolean retryLater = false;
+                try {
+                    HttpResponse response = getWatchClient().execute(getPollRequest());
+                    if (!running) {
+                        break;
+                    }
+
+                    if (response.isSuccess()) {
+                        update(parse(response.getResponseAsString()));
+                    } else if (response.getStatus() == 404) {
+                        update(Collections.<String, ConsulKeyState>emptyMap());
+                    } else {
+                        LOGGER.warn("failed to watch consul path: {}. got response: {}, error response: {}", path, response.getStatus(), response.getResponseAsString());
+                        invalidate();
+                        retryLater = true;
+                    }
+
+                    long newIndex = readIndex(response);
+                    if (newIndex <= 0) {
+                        //without an index the next query would return immediately
+                        index = 0;
+                        retryLater = true;
+                    } else if (newIndex < index) {
+                        //the index went backwards (e.g. consul snapshot restore) - start over as advised by consul
+                        index = 0;
+                    } else {
+                        index = newIndex;
+                    }
+                } catch (Exception e) {
+                    LOGGER.warn("problem watching consul path: {}. error is: {}", path, e.toString());
+                    invalidate();
+                    index = 0;
+                    retryLater = true;
+                }
+
+                if (retryLater && running) {
+                    try {
+                        TimeUnit.SECONDS.sleep(WATCH_RETRY_DELAY);
+                    } catch (InterruptedException e) {
+                        //ignore
+                    }
+                }
+            }
+            LOGGER.debug("stopped watching consul path: {}", path);
+        }
+
+        private HttpRequest getPollRequest() {
+            int waitTime = MasterSlaveConfigurationUtil.getConsulWatchWaitTime();
+            if (pollRequest == null || pollRequestIndex != index || pollRequestWaitTime != waitTime) {
+                HttpRequest.Builder builder = HttpRequest.newBuilder()
+                        .httpMethod(HttpMethod.GET)
+                        .uri(uri)
+                        .queryParams("index", String.valueOf(index))
+                        .queryParams("wait", waitTime + "s")
+                        .silentLogging();
+                if (recurse) {
+                    builder.queryParams("recurse", "true");
+                }
+                pollRequest = builder.build();
+                pollRequestIndex = index;
+                pollRequestWaitTime = waitTime;
+            }
+            return pollRequest;
+        }
+
+        private void update(Map<String, ConsulKeyState> entries) {
+            Set<String> changedKeys = new HashSet<>();
+            for (String key : new HashSet<>(subscribers.values())) {
+                ConsulKeyState newState = entries.containsKey(key) ? entries.get(key) : ConsulKeyState.ABSENT;
+                ConsulKeyState oldState = keyStates.put(key, newState);
+                if (oldState != null && !oldState.equals(newState)) {
+                    LOGGER.debug("consul key: {} changed from: {} to: {}", key, oldState, newState);
+                    changedKeys.add(key);
+                }
+            }
+
+            for (Map.Entry<String, String> subscriber : subscribers.entrySet()) {
+                if (changedKeys.contains(subscriber.getValue())) {
+                    MasterSlaveRegistry.INSTANCE.triggerElection(subscriber.getKey());
+                }
+            }
+        }
+
+        private void invalidate() {
+            for (String key : subscribers.values()) {
+                keyStates.remove(key);
+            }
+        }
+    }
+
+    static Map<String, ConsulKeyState> parse(String json) {
+        Map<String, ConsulKeyState> states = new HashMap<>();
+        if (StringUtils.isBlank(json)) {
+            return states;
+        }
+
+        for (int entry = ConsulJsonReader.firstObject(json); entry >= 0; entry = ConsulJsonReader.nextObject(json, entry)) {
+            String key = ConsulJsonReader.readString(json, entry, "Key");
+            String value = ConsulJsonReader.readBase64(json, entry, "Value");
+            String session = ConsulJsonReader.readString(json, entry, "Session");
+            states.put(key, new ConsulKeyState(true, value, session, ConsulJsonReader.readLong(json, entry, "ModifyIndex", 0), ConsulJsonReader.readLong(json, entry, "LockIndex", 0)));
+        }
+        return states;
+    }
+
+    private static long readIndex(HttpResponse response) {
+        Map<String, ? extends Collection<String>> headers = response.getHeaders();
+        if (headers == null) {
+            return 0;
+        }
+        for (Map.Entry<String, ? extends Collection<String>> header : headers.entrySet()) {
+            if (CONSUL_INDEX_HEADER.equalsIgnoreCase(header.getKey()) && header.getValue() != null) {
+                for (String value : header.getValue()) {
+                    try {
+                        return Long.parseLong(value.trim());
+                    } catch (NumberFormatException e) {
+                        LOGGER.debug("unexpected consul index header value: {}", value);
+                    }
+                }
+            }
+        }
+        return 0;
+    }
+}
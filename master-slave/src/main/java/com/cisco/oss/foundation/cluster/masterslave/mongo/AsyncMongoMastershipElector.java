@@ -1,25 +1,37 @@
 package com.cisco.oss.foundation.cluster.masterslave.mongo;
 
+import com.allanbank.mongodb.Callback;
 import com.allanbank.mongodb.MongoCollection;
 import com.allanbank.mongodb.bson.Document;
+import com.allanbank.mongodb.bson.DocumentAssignable;
 import com.allanbank.mongodb.bson.Element;
+import com.allanbank.mongodb.bson.NumericElement;
 import com.allanbank.mongodb.bson.builder.DocumentBuilder;
 import com.allanbank.mongodb.bson.builder.impl.DocumentBuilderImpl;
 import com.allanbank.mongodb.builder.ConditionBuilder;
 import com.allanbank.mongodb.builder.QueryBuilder;
-import com.cisco.oss.foundation.cluster.masterslave.MastershipElector;
+import com.cisco.oss.foundation.cluster.jfr.BackendCallEvent;
+import com.cisco.oss.foundation.cluster.masterslave.AsyncMastershipElector;
 import com.cisco.oss.foundation.cluster.mongo.AsyncMongoClient;
+import com.cisco.oss.foundation.cluster.mongo.MongoConnectionListener;
+import com.cisco.oss.foundation.cluster.mongo.MongoConnectionState;
+import com.cisco.oss.foundation.cluster.registry.MasterSlaveRegistry;
 import com.cisco.oss.foundation.cluster.utils.MasterSlaveConfigurationUtil;
+import com.cisco.oss.foundation.cluster.utils.MasterSlaveLookupCache;
+import com.cisco.oss.foundation.cluster.utils.MasterSlavePolicy;
 import com.cisco.oss.foundation.configuration.CcpConstants;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.concurrent.CompletableFuture;
+
 /**
  * Mongo implementation for logic for electing new masters.
+ * All the db calls use the async operations of the allanbank driver. The blocking #MastershipElector methods wait on the matching async ones.
  * Created by Yair Ogen (yaogen) on 14/02/2016.
  */
-public class AsyncMongoMastershipElector implements MastershipElector {
+public class AsyncMongoMastershipElector implements AsyncMastershipElector {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(AsyncMongoMastershipElector.class);
     public static final String LEASE_RENEWED = "leaseRenewed";
@@ -28,67 +40,116 @@ public class AsyncMongoMastershipElector implements MastershipElector {
     public static final String MASTER_INSTANCE_ID = "masterInstanceId";
     public static final String COMPONENT = "component";
     public static final String JOB = "job";
+    public static final String EPOCH = MongoMastershipElector.EPOCH;
+    public static final String HANDOFF = MongoMastershipElector.HANDOFF;
+    private static final String BACKEND = "mongo";
 
 
     private AsyncMongoClient mongoClient = AsyncMongoClient.INSTANCE;
     public static final String ID = "_id";
     private MongoCollection masterSlaveCollection = mongoClient.getMasterSlaveCollection();
-    private Document document = null;
+    private volatile Document document = null;
     private String id = null;
     private String jobName = null;
     private int masterSlaveLeaseTime = -1;
+    private volatile boolean leaseOwned = false;
+    //fencing epoch of our mastership. incremented in the document every time the lease is taken, never when it is renewed
+    private volatile long epoch = -1;
+    //set by a failed CAS: how long the lease of the master is still valid, 0 if it is handing off, -1 if unknown
+    private volatile long masterLeaseRemaining = -1;
+    private MongoConnectionListener connectionListener = null;
 
 
     @Override
     public void init(String id, String jobName) {
+        initAsync(id, jobName).join();
+    }
+
+    @Override
+    public CompletableFuture<Void> initAsync(String id, String jobName) {
         this.id = id;
         this.jobName = jobName;
         this.masterSlaveLeaseTime = MasterSlaveConfigurationUtil.getMasterSlaveLeaseTime(jobName);
+        if (connectionListener == null) {
+            //run an election as soon as the db is back instead of on the next tick
+            connectionListener = (previous, current) -> {
+                if (current == MongoConnectionState.UP && !previous.isReady()) {
+                    MasterSlaveRegistry.INSTANCE.triggerElection(jobName);
+                }
+            };
+            AsyncMongoClient.INSTANCE.getConnectionManager().addListener(connectionListener);
+        }
         if (isReady()) {
-            document = masterSlaveCollection.findOne(QueryBuilder.where(ID).equals(this.id));
-            if (document == null) {
-                document = createNewDocument();
-            }
+            return loadDocument().thenApply(document -> null);
         }
+        return CompletableFuture.completedFuture(null);
+    }
+
+    @Override
+    public CompletableFuture<Void> whenReady() {
+        return AsyncMongoClient.INSTANCE.whenReady();
     }
 
     @Override
     public boolean isReady() {
-        return AsyncMongoClient.INSTANCE.IS_DB_UP.get();
+        return AsyncMongoClient.INSTANCE.isReady();
     }
 
     @Override
     public boolean isActiveVersion(String currentVersion) {
+        return isActiveVersionAsync(currentVersion).join();
+    }
 
-        document = masterSlaveCollection.findOne(QueryBuilder.where(ID).equals(this.id));
-        if (document == null) {
-            document = createNewDocument();
-        }
-        LOGGER.trace("document in DB: {}", document);
-        Element activeVersionField = document.get(ACTIVE_VERSION);
-        String activeVersion = activeVersionField != null ? activeVersionField.getValueAsString() : null;
+    @Override
+    public CompletableFuture<Boolean> isActiveVersionAsync(String currentVersion) {
 
-        //if we don't need to be single across versions - we don't care what is the active version
-        if (StringUtils.isNotBlank(activeVersion) && MasterSlaveConfigurationUtil.isSingleAcrossVersion(jobName)) {
-            return currentVersion != null && currentVersion.equals(activeVersion);
-        }
+        return track(loadDocument()).thenApply(document -> {
+            LOGGER.trace("document in DB: {}", document);
+            Element activeVersionField = document.get(ACTIVE_VERSION);
+            String activeVersion = activeVersionField != null ? activeVersionField.getValueAsString() : null;
 
-        return true;
+            //if we don't need to be single across versions - we don't care what is the active version
+            if (StringUtils.isNotBlank(activeVersion) && MasterSlavePolicy.forJob(jobName).isSingleAcrossVersion()) {
+                return currentVersion != null && currentVersion.equals(activeVersion);
+            }
+
+            return true;
+        });
     }
 
     @Override
     public boolean isActiveDataCenter(String currentDataCenter) {
-        //TODO do we want to prevent having multiple datacenter documents in this collection
-        MongoCollection dataCenterCollection = AsyncMongoClient.INSTANCE.getDataCenterCollection();
-        ConditionBuilder datacenterQuery = QueryBuilder.where(ACTIVE_DATACENTER).equals(currentDataCenter);
-        Document document = dataCenterCollection.findOne(datacenterQuery);
-        return document != null;
+        return isActiveDataCenterAsync(currentDataCenter).join();
+    }
+
+    @Override
+    public CompletableFuture<Boolean> isActiveDataCenterAsync(String currentDataCenter) {
+        return MasterSlaveLookupCache.INSTANCE.isActiveDataCenterAsync("async-mongo:" + currentDataCenter, key -> {
+            //TODO do we want to prevent having multiple datacenter documents in this collection
+            MongoCollection dataCenterCollection = AsyncMongoClient.INSTANCE.getDataCenterCollection();
+            ConditionBuilder datacenterQuery = QueryBuilder.where(ACTIVE_DATACENTER).equals(currentDataCenter);
+            BackendCallEvent event = BackendCallEvent.start(BACKEND, "find-datacenter", currentDataCenter);
+            return event.endWhenDone(findOne(dataCenterCollection, datacenterQuery)).thenApply(document -> document != null);
+        });
     }
 
     @Override
     public boolean isMaster() {
+        return isMasterAsync().join();
+    }
+
+    @Override
+    public CompletableFuture<Boolean> isMasterAsync() {
+        //pick up lease time changes
+        masterSlaveLeaseTime = MasterSlavePolicy.forJob(jobName).getLeaseTime();
         long leaseRenewed = System.currentTimeMillis();
+        //the document was read earlier in this tick - it still holds the lease we are about to replace
+        NumericElement previousLeaseRenewed = document.get(NumericElement.class, LEASE_RENEWED);
+        Element handoffField = document.get(HANDOFF);
+        boolean handoff = handoffField != null && Boolean.parseBoolean(handoffField.getValueAsString());
+        masterLeaseRemaining = -1;
         DocumentBuilder documentbuilder = new DocumentBuilderImpl(document);
+        documentbuilder.remove(HANDOFF);
         documentbuilder.remove(MASTER_INSTANCE_ID);
         documentbuilder.add(MASTER_INSTANCE_ID, MasterSlaveConfigurationUtil.INSTANCE_ID);
         documentbuilder.remove(LEASE_RENEWED);
@@ -106,33 +167,222 @@ public class AsyncMongoMastershipElector implements MastershipElector {
         ConditionBuilder second = QueryBuilder.where(LEASE_RENEWED).lessThanOrEqualTo(lastExpectedLeaseUpdateTime);
 
         Document query = QueryBuilder.or(first, second);
-        Document updateLeaseQuery = QueryBuilder.and(QueryBuilder.where(ID).equals(this.id), query);
+        //the replacement carries the epoch we read - don't write it back over a newer one
+        NumericElement documentEpoch = document.get(NumericElement.class, EPOCH);
+        ConditionBuilder epochCondition = documentEpoch != null ? QueryBuilder.where(EPOCH).equals(documentEpoch.getLongValue()) : QueryBuilder.where(EPOCH).exists(false);
+        Document updateLeaseQuery = QueryBuilder.and(QueryBuilder.where(ID).equals(this.id), query, epochCondition);
 
         LOGGER.trace("id: {}, leaseRenewed: {}, lease-time: {}, lastExpectedLeaseUpdateTime: {}", id, leaseRenewed, masterSlaveLeaseTime, lastExpectedLeaseUpdateTime);
-//                    long numOfRowsUpdated = masterSlaveCollection.update(updateLeaseQuery, document,false, true);
-        long numOfRowsUpdated = masterSlaveCollection.update(updateLeaseQuery, this.document);
+        BackendCallEvent event = BackendCallEvent.start(BACKEND, "lease-cas", id);
+        CompletableFuture<Long> numOfRowsUpdated = new CompletableFuture<>();
+        try {
+            masterSlaveCollection.updateAsync(toFuture(numOfRowsUpdated), updateLeaseQuery, this.document);
+        } catch (RuntimeException e) {
+            numOfRowsUpdated.completeExceptionally(e);
+        }
+
+        return track(event.endWhenDone(numOfRowsUpdated))
+                .whenComplete((rows, e) -> {
+                    if (rows != null && rows == 0) {
+                        masterLeaseRemaining = handoff ? 0 : previousLeaseRenewed != null ? Math.max(0, previousLeaseRenewed.getLongValue() + masterSlaveLeaseTime * 1000L - leaseRenewed) : -1;
+                    }
+                })
+                //a new mastership, not a renewal of ours
+                .thenCompose(rows -> rows > 0 && !leaseOwned ? incrementEpoch(leaseRenewed) : CompletableFuture.completedFuture(rows > 0))
+                .thenApply(isMaster -> {
+                    leaseOwned = isMaster;
+                    return isMaster;
+                });
+    }
+
+    /**
+     * bump the epoch of the job once we took the lease. we hold the lease, so no other instance writes the document until it expires
+     * @return a future completed with false if the lease was lost in between
+     */
+    private CompletableFuture<Boolean> incrementEpoch(long leaseRenewed) {
+        Document ownLease = QueryBuilder.and(QueryBuilder.where(ID).equals(this.id),
+                QueryBuilder.where(MASTER_INSTANCE_ID).equals(MasterSlaveConfigurationUtil.INSTANCE_ID),
+                QueryBuilder.where(LEASE_RENEWED).equals(leaseRenewed));
+        DocumentBuilder increment = new DocumentBuilderImpl();
+        increment.push("$inc").add(EPOCH, 1L);
+
+        BackendCallEvent event = BackendCallEvent.start(BACKEND, "increment-epoch", id);
+        CompletableFuture<Long> incremented = new CompletableFuture<>();
+        try {
+            masterSlaveCollection.updateAsync(toFuture(incremented), ownLease, increment);
+        } catch (RuntimeException e) {
+            incremented.completeExceptionally(e);
+        }
+        return track(event.endWhenDone(incremented)).thenCompose(rows -> {
+            if (rows == 0) {
+                LOGGER.warn("job: {} lost its lease before its epoch was incremented", jobName);
+                epoch = -1;
+                return CompletableFuture.completedFuture(false);
+            }
+            //only the lease holder writes the document, so this reads our increment
+            return track(loadDocument()).thenApply(document -> {
+                NumericElement documentEpoch = document.get(NumericElement.class, EPOCH);
+                epoch = documentEpoch != null ? documentEpoch.getLongValue() : -1;
+                LOGGER.debug("job: {} took the lease with epoch: {}", jobName, epoch);
+                return true;
+            });
+        });
+    }
+
+    @Override
+    public long getEpoch() {
+        return epoch;
+    }
 
-        return numOfRowsUpdated > 0;
+    @Override
+    public long getMasterLeaseRemaining() {
+        return masterLeaseRemaining;
+    }
+
+    @Override
+    public void announceHandoff() {
+        announceHandoffAsync().join();
+    }
+
+    /**
+     * flag our lease as handed off. the standbys see it when they read the document, before the lease is released
+     */
+    @Override
+    public CompletableFuture<Void> announceHandoffAsync() {
+        Document ownLease = QueryBuilder.and(QueryBuilder.where(ID).equals(this.id), QueryBuilder.where(MASTER_INSTANCE_ID).equals(MasterSlaveConfigurationUtil.INSTANCE_ID));
+        DocumentBuilder announce = new DocumentBuilderImpl();
+        announce.push("$set").add(HANDOFF, true);
+
+        BackendCallEvent event = BackendCallEvent.start(BACKEND, "announce-handoff", id);
+        CompletableFuture<Long> announced = new CompletableFuture<>();
+        try {
+            masterSlaveCollection.updateAsync(toFuture(announced), ownLease, announce);
+        } catch (RuntimeException e) {
+            announced.completeExceptionally(e);
+        }
+        return track(event.endWhenDone(announced)).thenApply(rows -> null);
     }
 
     @Override
     public void close() {
-        MongoCollection masterSlaveCollection = AsyncMongoClient.INSTANCE.getMasterSlaveCollection();
-        masterSlaveCollection.delete(QueryBuilder.where("instanceId").equals(MasterSlaveConfigurationUtil.INSTANCE_ID));
+        closeAsync().join();
+    }
+
+    @Override
+    public CompletableFuture<Void> closeAsync() {
+        if (connectionListener != null) {
+            AsyncMongoClient.INSTANCE.getConnectionManager().removeListener(connectionListener);
+            connectionListener = null;
+        }
         document = null;
+        return releaseLease();
+    }
+
+    /**
+     * expire our lease right away so a standby takes over on its next tick instead of waiting for the lease to run out.
+     * a lease held by another instance is left alone.
+     */
+    private CompletableFuture<Void> releaseLease() {
+        //taking the lease again is a new mastership
+        leaseOwned = false;
+        if (id == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        Document ownLease = QueryBuilder.and(QueryBuilder.where(ID).equals(this.id), QueryBuilder.where(MASTER_INSTANCE_ID).equals(MasterSlaveConfigurationUtil.INSTANCE_ID));
+        DocumentBuilder expireLease = new DocumentBuilderImpl();
+        expireLease.push("$set").add(LEASE_RENEWED, 0L);
+
+        BackendCallEvent event = BackendCallEvent.start(BACKEND, "release", id);
+        CompletableFuture<Long> released = new CompletableFuture<>();
+        try {
+            masterSlaveCollection.updateAsync(toFuture(released), ownLease, expireLease);
+        } catch (RuntimeException e) {
+            released.completeExceptionally(e);
+        }
+        return event.endWhenDone(released).handle((rows, e) -> {
+            if (e != null) {
+                LOGGER.warn("can't release the lease of job: {}. a standby takes over when it expires. error is: {}", jobName, e.toString());
+            }
+            return null;
+        });
     }
 
     public Document createNewDocument() {
-        Document document;
+        return createNewDocumentAsync().join();
+    }
+
+    private CompletableFuture<Document> createNewDocumentAsync() {
         DocumentBuilder documentbuilder = new DocumentBuilderImpl();
         documentbuilder.add(ID, this.id);
         documentbuilder.add(MASTER_INSTANCE_ID, MasterSlaveConfigurationUtil.INSTANCE_ID);
         documentbuilder.add(COMPONENT, MasterSlaveConfigurationUtil.COMPONENT_NAME);
         documentbuilder.add(JOB, jobName);
         documentbuilder.add(LEASE_RENEWED, 0);
-        document = documentbuilder.build();
-        masterSlaveCollection.insert(documentbuilder);
-        return document;
+        Document document = documentbuilder.build();
+
+        BackendCallEvent event = BackendCallEvent.start(BACKEND, "insert", id);
+        CompletableFuture<Integer> inserted = new CompletableFuture<>();
+        try {
+            masterSlaveCollection.insertAsync(toFuture(inserted), documentbuilder);
+        } catch (RuntimeException e) {
+            inserted.completeExceptionally(e);
+        }
+        event.endWhenDone(inserted);
+
+        //another instance may have inserted it first - use theirs
+        return inserted.handle((count, error) -> error == null ? CompletableFuture.completedFuture(document) : findOne(masterSlaveCollection, QueryBuilder.where(ID).equals(this.id)))
+                .thenCompose(future -> future)
+                .thenApply(existing -> existing != null ? existing : document);
+    }
+
+    private CompletableFuture<Document> loadDocument() {
+        BackendCallEvent event = BackendCallEvent.start(BACKEND, "find", id);
+        return event.endWhenDone(findOne(masterSlaveCollection, QueryBuilder.where(ID).equals(this.id)))
+                .thenCompose(document -> document != null ? CompletableFuture.completedFuture(document) : createNewDocumentAsync())
+                .thenApply(document -> {
+                    this.document = document;
+                    return document;
+                });
+    }
+
+    private static CompletableFuture<Document> findOne(MongoCollection collection, DocumentAssignable query) {
+        CompletableFuture<Document> future = new CompletableFuture<>();
+        try {
+            collection.findOneAsync(toFuture(future), query);
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * keep the connection state in sync with the outcome of the db calls. driver errors are connectivity errors (the writes are guarded updates, not inserts)
+     */
+    private static <T> CompletableFuture<T> track(CompletableFuture<T> future) {
+        return future.whenComplete((result, e) -> {
+            if (e == null) {
+                AsyncMongoClient.INSTANCE.getConnectionManager().reportSuccess();
+            } else {
+                AsyncMongoClient.INSTANCE.getConnectionManager().reportFailure(e);
+            }
+        });
+    }
+
+    /**
+     * adapt a driver callback to a future. the future is completed on the driver thread.
+     */
+    private static <V> Callback<V> toFuture(final CompletableFuture<V> future) {
+        return new Callback<V>() {
+            @Override
+            public void callback(V result) {
+                future.complete(result);
+            }
+
+            @Override
+            public void exception(Throwable thrown) {
+                future.completeExceptionally(thrown);
+            }
+        };
     }
 
     @Override
@@ -142,6 +392,6 @@ public class AsyncMongoMastershipElector implements MastershipElector {
 
     @Override
     public void cleanupMaster() {
-
+        releaseLease();
     }
 }
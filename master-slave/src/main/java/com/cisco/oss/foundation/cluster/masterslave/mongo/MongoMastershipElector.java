@@ -1,20 +1,35 @@
 package com.cisco.oss.foundation.cluster.masterslave.mongo;
 
 
+import com.cisco.oss.foundation.cluster.jfr.BackendCallEvent;
 import com.cisco.oss.foundation.cluster.masterslave.MastershipElector;
 import com.cisco.oss.foundation.cluster.mongo.MongoClient;
 import com.cisco.oss.foundation.cluster.utils.MasterSlaveConfigurationUtil;
+import com.cisco.oss.foundation.cluster.utils.MasterSlaveLookupCache;
+import com.cisco.oss.foundation.cluster.utils.MasterSlaveMultiplicity;
+import com.cisco.oss.foundation.cluster.utils.MasterSlavePolicy;
 import com.cisco.oss.foundation.configuration.CcpConstants;
+import com.cisco.oss.foundation.cluster.mongo.MongoConnectionListener;
+import com.cisco.oss.foundation.cluster.mongo.MongoConnectionState;
+import com.cisco.oss.foundation.cluster.registry.MasterSlaveRegistry;
+import com.mongodb.MongoException;
+import com.mongodb.MongoSocketException;
+import com.mongodb.MongoTimeoutException;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.model.Filters;
 import com.mongodb.client.model.FindOneAndReplaceOptions;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.Projections;
 import com.mongodb.client.model.ReturnDocument;
+import com.mongodb.client.model.Updates;
 import org.apache.commons.lang3.StringUtils;
 import org.bson.Document;
 import org.bson.conversions.Bson;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.concurrent.CompletableFuture;
+
 /**
  * Mongo implementation for logic for electing new masters.
  * Created by Yair Ogen (yaogen) on 14/02/2016.
@@ -28,15 +43,36 @@ public class MongoMastershipElector implements MastershipElector {
     public static final String MASTER_INSTANCE_ID = "masterInstanceId";
     public static final String COMPONENT = "component";
     public static final String JOB = "job";
+    public static final String EPOCH = "epoch";
+    //set by a master that is handing off the mastership. removed by the next lease write
+    public static final String HANDOFF = "handoff";
+    static final String BACKEND = "mongo";
+    private static final int DUPLICATE_KEY_ERROR = 11000;
 
 
     private MongoClient mongoClient = MongoClient.INSTANCE;
     public static final String ID = "_id";
-    private MongoCollection masterSlaveCollection = mongoClient.getMasterSlaveCollection();
+    protected MongoCollection masterSlaveCollection = mongoClient.getMasterSlaveCollection();
     private Document document = null;
-    private String id = null;
-    private String jobName = null;
-    private long masterSlaveLeaseTime = -1;
+    protected String id = null;
+    protected String jobName = null;
+    protected long masterSlaveLeaseTime = -1;
+    private boolean singleRoundTrip = false;
+    private Boolean leaseTickResult = null;
+    //the lease tick found the document of the job - from now on it only updates it
+    private boolean documentSeen = false;
+    private boolean takeoverSweep = false;
+    private boolean leaseOwned = false;
+    //set by a successful CAS that took over an expired lease, -1 otherwise
+    private long takeoverDelay = -1;
+    //the leaseRenewed we wrote in the last lease write of this instance
+    private long leaseRenewed = 0;
+    //fencing epoch of our mastership. incremented in the document every time the lease is taken, never when it is renewed
+    protected long epoch = -1;
+    //set by a failed CAS: how long the lease of the master is still valid, 0 if it is handing off, -1 if unknown
+    protected long masterLeaseRemaining = -1;
+    private String currentVersion = null;
+    private MongoConnectionListener connectionListener = null;
 
 
     @Override
@@ -44,7 +80,11 @@ public class MongoMastershipElector implements MastershipElector {
         this.id = id;
         this.jobName = jobName;
         this.masterSlaveLeaseTime = MasterSlaveConfigurationUtil.getMasterSlaveLeaseTime(jobName);
-        if (isReady()) {
+        this.singleRoundTrip = MasterSlaveConfigurationUtil.isMongoSingleRoundTrip();
+        this.takeoverSweep = MasterSlaveConfigurationUtil.isMongoTakeoverSweepEnabled();
+        watchConnection();
+        //in single round trip mode the lease tick creates the document
+        if (isReady() && !singleRoundTrip) {
             document = (Document) masterSlaveCollection.find(new Document(ID,this.id)).limit(1).first();
             if (document == null) {
                 document = createNewDocument();
@@ -52,15 +92,88 @@ public class MongoMastershipElector implements MastershipElector {
         }
     }
 
+    @Override
+    public CompletableFuture<Void> whenReady() {
+        return MongoClient.INSTANCE.whenReady();
+    }
+
     @Override
     public boolean isReady() {
-        return MongoClient.INSTANCE.IS_DB_UP.get();
+        return MongoClient.INSTANCE.isReady();
+    }
+
+    /**
+     * run an election as soon as the db is back instead of on the next tick
+     */
+    protected void watchConnection() {
+        if (connectionListener == null) {
+            connectionListener = (previous, current) -> {
+                if (current == MongoConnectionState.UP && !previous.isReady()) {
+                    MasterSlaveRegistry.INSTANCE.triggerElection(jobName);
+                }
+            };
+            MongoClient.INSTANCE.getConnectionManager().addListener(connectionListener);
+        }
+    }
+
+    protected void unwatchConnection() {
+        if (connectionListener != null) {
+            MongoClient.INSTANCE.getConnectionManager().removeListener(connectionListener);
+            connectionListener = null;
+        }
+    }
+
+    /**
+     * keep the connection state in sync with the outcome of the db calls
+     */
+    protected void reportConnectivity(MongoException e) {
+        if (e == null) {
+            MongoClient.INSTANCE.getConnectionManager().reportSuccess();
+        } else if (e instanceof MongoSocketException || e instanceof MongoTimeoutException) {
+            MongoClient.INSTANCE.getConnectionManager().reportFailure(e);
+        }
     }
 
     @Override
     public boolean isActiveVersion(String currentVersion) {
+        this.currentVersion = currentVersion;
+        //pick up lease time changes
+        this.masterSlaveLeaseTime = MasterSlavePolicy.forJob(jobName).getLeaseTime();
+        boolean isActiveVersion;
+        try {
+            isActiveVersion = checkActiveVersion(currentVersion);
+            reportConnectivity(null);
+        } catch (MongoException e) {
+            reportConnectivity(e);
+            throw e;
+        }
+        if (!isActiveVersion) {
+            lostLease();
+        }
+        return isActiveVersion;
+    }
+
+    @Override
+    public boolean isLeaseTakenByVersionCheck() {
+        return singleRoundTrip && MasterSlavePolicy.forJob(jobName).getMultiplicity() == MasterSlaveMultiplicity.SINGLE;
+    }
+
+    private boolean checkActiveVersion(String currentVersion) {
+
+        //a result of an earlier tick that never got to #isMaster must not answer it
+        leaseTickResult = null;
+        if (isLeaseTakenByVersionCheck()) {
+            return leaseTick(currentVersion);
+        }
 
-        document = (Document) masterSlaveCollection.find(new Document(ID,this.id)).limit(1).first();
+        BackendCallEvent event = BackendCallEvent.start(BACKEND, "find", id);
+        try {
+            document = (Document) masterSlaveCollection.find(new Document(ID,this.id)).limit(1).first();
+            event.end(BackendCallEvent.outcome(document));
+        } catch (RuntimeException e) {
+            event.fail(e);
+            throw e;
+        }
         if (document == null) {
             document = createNewDocument();
         }
@@ -69,7 +182,7 @@ public class MongoMastershipElector implements MastershipElector {
         String activeVersion = activeVersionField != null ? activeVersionField : null;
 
         //if we don't need to be single across versions - we don't care what is the active version
-        if (StringUtils.isNotBlank(activeVersion) && MasterSlaveConfigurationUtil.isSingleAcrossVersion(jobName)) {
+        if (StringUtils.isNotBlank(activeVersion) && MasterSlavePolicy.forJob(jobName).isSingleAcrossVersion()) {
             return currentVersion != null && currentVersion.equals(activeVersion);
         }
 
@@ -78,15 +191,163 @@ public class MongoMastershipElector implements MastershipElector {
 
     @Override
     public boolean isActiveDataCenter(String currentDataCenter) {
-        //TODO do we want to prevent having multiple datacenter documents in this collection
-        MongoCollection dataCenterCollection = MongoClient.INSTANCE.getDataCenterCollection();
-        Document document = (Document) dataCenterCollection.find(new Document(ACTIVE_DATACENTER,currentDataCenter)).limit(1).first();
-        return document != null;
+        boolean isActiveDataCenter = MasterSlaveLookupCache.INSTANCE.isActiveDataCenter("mongo:" + currentDataCenter, key -> {
+            //TODO do we want to prevent having multiple datacenter documents in this collection
+            MongoCollection dataCenterCollection = MongoClient.INSTANCE.getDataCenterCollection();
+            BackendCallEvent event = BackendCallEvent.start(BACKEND, "find-datacenter", currentDataCenter);
+            try {
+                Document document = (Document) dataCenterCollection.find(new Document(ACTIVE_DATACENTER,currentDataCenter)).limit(1).first();
+                event.end(BackendCallEvent.outcome(document));
+                return document != null;
+            } catch (RuntimeException e) {
+                event.fail(e);
+                throw e;
+            }
+        });
+        if (!isActiveDataCenter) {
+            lostLease();
+        }
+        return isActiveDataCenter;
+    }
+
+    /**
+     * version check and lease CAS in a single findOneAndUpdate, without upsert - an upsert that loses to the existing document fails with a duplicate key error.
+     * round trips per tick: 1 for the master and for a slave of a job that isn't single across versions.
+     * a slave of a job that is single across versions also reads the active version, through #MasterSlaveLookupCache - 1 more round trip when it isn't cached.
+     * the document is inserted only while we haven't seen it yet - 1 more round trip on the first tick of a new job.
+     * the result of the CAS is kept for the #isMaster call that follows in the same tick.
+     * @return true if this is the active version
+     */
+    private boolean leaseTick(String currentVersion) {
+        long leaseRenewed = System.currentTimeMillis();
+        this.leaseRenewed = leaseRenewed;
+        long lastExpectedLeaseUpdateTime = leaseRenewed - masterSlaveLeaseTime * 1000L;
+        boolean singleAcrossVersion = MasterSlavePolicy.forJob(jobName).isSingleAcrossVersion();
+
+        Bson ownLease = Filters.and(Filters.eq(MASTER_INSTANCE_ID, MasterSlaveConfigurationUtil.INSTANCE_ID), Filters.gt(LEASE_RENEWED, lastExpectedLeaseUpdateTime));
+        Bson expiredLease = Filters.lte(LEASE_RENEWED, lastExpectedLeaseUpdateTime);
+        Bson updateLeaseQuery = Filters.and(Filters.eq(ID, this.id), Filters.or(ownLease, expiredLease));
+        if (singleAcrossVersion) {
+            //eq null also matches a missing field
+            Bson activeVersionQuery = Filters.or(Filters.eq(ACTIVE_VERSION, null), Filters.eq(ACTIVE_VERSION, ""), Filters.eq(ACTIVE_VERSION, currentVersion));
+            updateLeaseQuery = Filters.and(updateLeaseQuery, activeVersionQuery);
+        }
+
+        Bson update = Updates.combine(
+                Updates.set(MASTER_INSTANCE_ID, MasterSlaveConfigurationUtil.INSTANCE_ID),
+                Updates.set(LEASE_RENEWED, leaseRenewed),
+                Updates.unset(HANDOFF));
+
+        FindOneAndUpdateOptions updateOptions = new FindOneAndUpdateOptions()
+                .returnDocument(ReturnDocument.AFTER)
+                .projection(Projections.include(MASTER_INSTANCE_ID, LEASE_RENEWED));
+
+        LOGGER.trace("id: {}, leaseRenewed: {}, lease-time: {}, lastExpectedLeaseUpdateTime: {}", id, leaseRenewed, masterSlaveLeaseTime, lastExpectedLeaseUpdateTime);
+        BackendCallEvent event = BackendCallEvent.start(BACKEND, "lease-tick", id);
+        try {
+            Object updateDoc = masterSlaveCollection.findOneAndUpdate(updateLeaseQuery, update, updateOptions);
+            LOGGER.trace("updatedDoc: {}", updateDoc);
+            event.end(BackendCallEvent.outcome(updateDoc != null));
+            if (updateDoc != null) {
+                documentSeen = true;
+                leaseTickResult = true;
+                return true;
+            }
+        } catch (RuntimeException e) {
+            event.fail(e);
+            throw e;
+        }
+
+        leaseTickResult = false;
+        if (!documentSeen && insertLease(leaseRenewed)) {
+            //a new job - the lease is ours
+            leaseTickResult = true;
+            return true;
+        }
+
+        //the document exists but we can't take the lease. find out if it is because of the version or because someone else holds the lease.
+        if (!singleAcrossVersion) {
+            return true;
+        }
+        String activeVersion = MasterSlaveLookupCache.INSTANCE.getKeyValue("mongo:" + this.id, key -> {
+            Document versionDoc = (Document) masterSlaveCollection.find(new Document(ID, this.id)).projection(Projections.include(ACTIVE_VERSION)).limit(1).first();
+            return versionDoc != null ? (String) versionDoc.get(ACTIVE_VERSION) : null;
+        });
+        return StringUtils.isBlank(activeVersion) || (currentVersion != null && currentVersion.equals(activeVersion));
+    }
+
+    /**
+     * creates the document of the job with our lease in it
+     * @return false if the document already exists
+     */
+    private boolean insertLease(long leaseRenewed) {
+        Document document = new Document();
+        document.put(ID, this.id);
+        document.put(MASTER_INSTANCE_ID, MasterSlaveConfigurationUtil.INSTANCE_ID);
+        document.put(COMPONENT, MasterSlaveConfigurationUtil.COMPONENT_NAME);
+        document.put(JOB, jobName);
+        document.put(LEASE_RENEWED, leaseRenewed);
+        BackendCallEvent event = BackendCallEvent.start(BACKEND, "insert", id);
+        boolean inserted;
+        try {
+            masterSlaveCollection.insertOne(document);
+            inserted = true;
+        } catch (MongoException e) {
+            if (e.getCode() != DUPLICATE_KEY_ERROR) {
+                event.fail(e);
+                throw e;
+            }
+            inserted = false;
+        }
+        event.end(BackendCallEvent.outcome(inserted));
+        //the document is never deleted - don't try to insert it again
+        documentSeen = true;
+        return inserted;
     }
 
     @Override
     public boolean isMaster() {
+        boolean isMaster;
+        try {
+            isMaster = casLease();
+            if (isMaster && !leaseOwned) {
+                //a new mastership, not a renewal of ours
+                isMaster = incrementEpoch();
+            }
+        } catch (MongoException e) {
+            reportConnectivity(e);
+            throw e;
+        }
+        if (isMaster) {
+            if (takeoverSweep) {
+                MongoTakeoverSweep.INSTANCE.removeCandidate(id);
+                //we just took over - the master of this job may have been the master of others
+                if (!leaseOwned) {
+                    MongoTakeoverSweep.INSTANCE.sweep(id);
+                }
+            }
+        } else if (takeoverSweep) {
+            MongoTakeoverSweep.INSTANCE.addCandidate(id, jobName, masterSlaveLeaseTime, currentVersion);
+        }
+        leaseOwned = isMaster;
+        return isMaster;
+    }
+
+    private boolean casLease() {
+        takeoverDelay = -1;
+        masterLeaseRemaining = -1;
+        if (leaseTickResult != null) {
+            boolean isMaster = leaseTickResult;
+            leaseTickResult = null;
+            return isMaster;
+        }
+
         long leaseRenewed = System.currentTimeMillis();
+        this.leaseRenewed = leaseRenewed;
+        //the document was read earlier in this tick - it still holds the lease we are about to replace
+        Object previousMaster = document.get(MASTER_INSTANCE_ID);
+        Object previousLeaseRenewed = document.get(LEASE_RENEWED);
+        boolean handoff = Boolean.TRUE.equals(document.remove(HANDOFF));
         document.put(MASTER_INSTANCE_ID, MasterSlaveConfigurationUtil.INSTANCE_ID);
         document.put(LEASE_RENEWED, leaseRenewed);
 
@@ -101,24 +362,136 @@ public class MongoMastershipElector implements MastershipElector {
 
         Bson query = Filters.or(first, second);
 
-        Bson updateLeaseQuery = Filters.and(Filters.eq(ID, this.id), query);
+        //the replacement carries the epoch we read - don't write it back over a newer one. eq null also matches a missing field
+        Bson updateLeaseQuery = Filters.and(Filters.eq(ID, this.id), query, Filters.eq(EPOCH, document.get(EPOCH)));
 
         LOGGER.trace("id: {}, leaseRenewed: {}, lease-time: {}, lastExpectedLeaseUpdateTime: {}", id, leaseRenewed, masterSlaveLeaseTime, lastExpectedLeaseUpdateTime);
         FindOneAndReplaceOptions replaceOptions = new FindOneAndReplaceOptions();
         replaceOptions.returnDocument(ReturnDocument.AFTER);
-        Object updateDoc = masterSlaveCollection.findOneAndReplace(updateLeaseQuery, this.document, replaceOptions);
+        BackendCallEvent event = BackendCallEvent.start(BACKEND, "lease-cas", id);
+        Object updateDoc;
+        try {
+            updateDoc = masterSlaveCollection.findOneAndReplace(updateLeaseQuery, this.document, replaceOptions);
+            event.end(BackendCallEvent.outcome(updateDoc != null));
+        } catch (RuntimeException e) {
+            event.fail(e);
+            throw e;
+        }
         LOGGER.trace("updatedDoc: {}", updateDoc);
 
+        //a released lease (0) was handed off, not expired
+        if (updateDoc != null && !MasterSlaveConfigurationUtil.INSTANCE_ID.equals(previousMaster)
+                && previousLeaseRenewed instanceof Number && ((Number) previousLeaseRenewed).longValue() > 0) {
+            takeoverDelay = Math.max(0, leaseRenewed - (((Number) previousLeaseRenewed).longValue() + masterSlaveLeaseTime * 1000L));
+        }
+
+        if (updateDoc == null) {
+            if (handoff) {
+                masterLeaseRemaining = 0;
+            } else if (previousLeaseRenewed instanceof Number) {
+                masterLeaseRemaining = Math.max(0, ((Number) previousLeaseRenewed).longValue() + masterSlaveLeaseTime * 1000L - leaseRenewed);
+            }
+        }
+
         return updateDoc != null;
     }
 
+    /**
+     * bump the epoch of the job once we took the lease. we hold the lease, so no other instance writes the document until it expires
+     * @return false if the lease was lost in between
+     */
+    private boolean incrementEpoch() {
+        Bson ownLease = Filters.and(Filters.eq(ID, this.id), Filters.eq(MASTER_INSTANCE_ID, MasterSlaveConfigurationUtil.INSTANCE_ID), Filters.eq(LEASE_RENEWED, leaseRenewed));
+        FindOneAndUpdateOptions updateOptions = new FindOneAndUpdateOptions()
+                .returnDocument(ReturnDocument.AFTER)
+                .projection(Projections.include(EPOCH));
+
+        BackendCallEvent event = BackendCallEvent.start(BACKEND, "increment-epoch", id);
+        Document updateDoc;
+        try {
+            updateDoc = (Document) masterSlaveCollection.findOneAndUpdate(ownLease, Updates.inc(EPOCH, 1L), updateOptions);
+            event.end(BackendCallEvent.outcome(updateDoc));
+        } catch (RuntimeException e) {
+            event.fail(e);
+            throw e;
+        }
+        if (updateDoc == null) {
+            LOGGER.warn("job: {} lost its lease before its epoch was incremented", jobName);
+            epoch = -1;
+            return false;
+        }
+        epoch = ((Number) updateDoc.get(EPOCH)).longValue();
+        if (document != null) {
+            document.put(EPOCH, epoch);
+        }
+        LOGGER.debug("job: {} took the lease with epoch: {}", jobName, epoch);
+        return true;
+    }
+
+    @Override
+    public long getEpoch() {
+        return epoch;
+    }
+
+    /**
+     * read from the document of the tick. unknown in single round trip mode - the lease tick does not return the lease of the master
+     */
+    @Override
+    public long getMasterLeaseRemaining() {
+        return masterLeaseRemaining;
+    }
+
+    /**
+     * flag our lease as handed off. the standbys see it when they read the document, before the lease is released
+     */
+    @Override
+    public void announceHandoff() {
+        BackendCallEvent event = BackendCallEvent.start(BACKEND, "announce-handoff", id);
+        try {
+            Bson ownLease = Filters.and(Filters.eq(ID, this.id), Filters.eq(MASTER_INSTANCE_ID, MasterSlaveConfigurationUtil.INSTANCE_ID));
+            event.end(BackendCallEvent.outcome(masterSlaveCollection.updateOne(ownLease, Updates.set(HANDOFF, true)).getModifiedCount()));
+        } catch (RuntimeException e) {
+            event.fail(e);
+            throw e;
+        }
+    }
+
+    /**
+     * only known when the lease is taken with a separate CAS - the single round trip lease tick does not return the previous lease
+     */
+    @Override
+    public long getTakeoverDelay() {
+        return takeoverDelay;
+    }
+
     @Override
     public void close() {
-        MongoCollection masterSlaveCollection = MongoClient.INSTANCE.getMasterSlaveCollection();
-        masterSlaveCollection.deleteOne(new Document("instanceId",MasterSlaveConfigurationUtil.INSTANCE_ID));
+        unwatchConnection();
+        lostLease();
+        releaseLease();
         document = null;
     }
 
+    /**
+     * expire our lease right away so a standby takes over on its next tick instead of waiting for the lease to run out.
+     * a lease held by another instance is left alone.
+     */
+    private void releaseLease() {
+        //taking the lease again is a new mastership
+        leaseOwned = false;
+        if (id == null) {
+            return;
+        }
+        BackendCallEvent event = BackendCallEvent.start(BACKEND, "release", id);
+        try {
+            Bson ownLease = Filters.and(Filters.eq(ID, this.id), Filters.eq(MASTER_INSTANCE_ID, MasterSlaveConfigurationUtil.INSTANCE_ID));
+            event.end(BackendCallEvent.outcome(masterSlaveCollection.updateOne(ownLease, Updates.set(LEASE_RENEWED, 0L)).getModifiedCount()));
+        } catch (Exception e) {
+            event.fail(e);
+            LOGGER.warn("can't release the lease of job: {}. a standby takes over when it expires. error is: {}", jobName, e.toString());
+        }
+    }
+
     public Document createNewDocument() {
         Document document = new Document();
         document.put(ID, this.id);
@@ -130,6 +503,13 @@ public class MongoMastershipElector implements MastershipElector {
         return document;
     }
 
+    private void lostLease() {
+        leaseOwned = false;
+        if (takeoverSweep) {
+            MongoTakeoverSweep.INSTANCE.removeCandidate(id);
+        }
+    }
+
     @Override
     public String getActiveVersion() {
         return System.getenv(CcpConstants.ARTIFACT_VERSION);
@@ -137,6 +517,6 @@ public class MongoMastershipElector implements MastershipElector {
 
     @Override
     public void cleanupMaster() {
-
+        releaseLease();
     }
 }
@@ -0,0 +1,221 @@
+package com.cisco.oss.foundation.cluster.masterslave.mongo;
+
+import com.cisco.oss.foundation.cluster.mongo.MongoClient;
+import com.cisco.oss.foundation.cluster.utils.MasterSlaveConfigurationUtil;
+import com.cisco.oss.foundation.cluster.utils.MasterSlaveThreadFactory;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.ReturnDocument;
+import com.mongodb.client.model.Updates;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Process wide liveness session for the 'mongo-session' elector - the mongo counterpart of a consul session.
+ * The process renews one heartbeat document in the masterSlave collection, and the job documents only point at the session that owns them.
+ * Steady state writes are one heartbeat per process instead of one lease renewal per job.
+ * It is an enum and you access its method via the #INSTANCE member
+ */
+public enum MongoSession {
+
+    INSTANCE;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MongoSession.class);
+    public static final String SESSION_ID_PREFIX = "session-";
+    public static final String TYPE = "type";
+    public static final String SESSION_TYPE = "session";
+    public static final String HEARTBEAT = "heartbeat";
+    public static final String INSTANCE_ID = "instanceId";
+
+    private final String sessionId = MasterSlaveConfigurationUtil.INSTANCE_ID + "-" + UUID.randomUUID().toString();
+    //a lock and not 'synchronized' so a virtual thread blocked on mongo I/O does not pin its carrier thread
+    private final ReentrantLock sessionLock = new ReentrantLock();
+    private int references = 0;
+    //the current heartbeat thread. a thread that finds another one here retires - close and reopen never leave two heartbeat writers
+    private volatile Thread heartbeatThread = null;
+    private volatile long ttlPeriod;
+    private volatile long lastHeartbeat = 0;
+    private final MongoSessionHeartbeats sessionHeartbeats = new MongoSessionHeartbeats(this::readHeartbeats, this::readHeartbeat);
+
+    /**
+     * @return the id of this process session
+     */
+    public String getSessionId() {
+        return sessionId;
+    }
+
+    /**
+     * register a job with the session. the first job writes the heartbeat document and starts the heartbeat thread.
+     */
+    public void open() {
+        sessionLock.lock();
+        try {
+            if (references == 0) {
+                ttlPeriod = MasterSlaveConfigurationUtil.getMongoSessionTtl();
+                heartbeat();
+                startHeartbeatThread();
+            }
+            references++;
+        } finally {
+            sessionLock.unlock();
+        }
+    }
+
+    /**
+     * unregister a job from the session. the last job deletes the heartbeat document so the other instances can take over at once.
+     */
+    public void close() {
+        sessionLock.lock();
+        try {
+            if (references > 0) {
+                references--;
+                if (references == 0) {
+                    stopHeartbeatThread();
+                    lastHeartbeat = 0;
+                    try {
+                        getCollection().deleteOne(new Document(MongoMastershipElector.ID, SESSION_ID_PREFIX + sessionId));
+                    } catch (Exception e) {
+                        LOGGER.warn("problem deleting the mongo session heartbeat. other instances take over once it expires. error: {}", e.toString());
+                    }
+                }
+            }
+        } finally {
+            sessionLock.unlock();
+        }
+    }
+
+    /**
+     * @return true if our last successful heartbeat is within the session TTL. when it is not, other instances may already consider us dead.
+     */
+    public boolean isAlive() {
+        return System.currentTimeMillis() - lastHeartbeat < ttlPeriod * 1000L;
+    }
+
+    /**
+     * @return milliseconds until other instances may consider our session dead, counted from our last successful heartbeat
+     */
+    public long getLeaseRemaining() {
+        return Math.max(0, ttlPeriod * 1000L - (System.currentTimeMillis() - lastHeartbeat));
+    }
+
+    /**
+     * @param otherSessionId a session id found in a job document
+     * @return true if that session renewed its heartbeat within the session TTL, on the clock of the mongo server. see #MongoSessionHeartbeats
+     */
+    public boolean isSessionAlive(String otherSessionId) {
+        if (sessionId.equals(otherSessionId)) {
+            return isAlive();
+        }
+        return sessionHeartbeats.isAlive(otherSessionId, ttlPeriod * 1000L);
+    }
+
+    private void heartbeat() {
+        long now = System.currentTimeMillis();
+        Document query = new Document(MongoMastershipElector.ID, SESSION_ID_PREFIX + sessionId);
+        //the server stamps the heartbeat with its own time and returns it in the same round trip
+        Document session = (Document) getCollection().findOneAndUpdate(query, Updates.combine(
+                Updates.currentDate(HEARTBEAT),
+                Updates.setOnInsert(TYPE, SESSION_TYPE),
+                Updates.setOnInsert(MongoMastershipElector.COMPONENT, MasterSlaveConfigurationUtil.COMPONENT_NAME),
+                Updates.setOnInsert(INSTANCE_ID, MasterSlaveConfigurationUtil.INSTANCE_ID)),
+                new FindOneAndUpdateOptions().upsert(true).returnDocument(ReturnDocument.AFTER).projection(Projections.include(HEARTBEAT)));
+        Long serverTime = heartbeatTime(session);
+        if (serverTime != null) {
+            sessionHeartbeats.heartbeatWritten(serverTime);
+        }
+        lastHeartbeat = now;
+    }
+
+    private Map<String, Long> readHeartbeats() {
+        Map<String, Long> heartbeats = new HashMap<>();
+        for (Object session : getCollection().find(Filters.and(Filters.eq(TYPE, SESSION_TYPE), Filters.eq(MongoMastershipElector.COMPONENT, MasterSlaveConfigurationUtil.COMPONENT_NAME)))
+                .projection(Projections.include(HEARTBEAT))) {
+            Document sessionDocument = (Document) session;
+            String id = (String) sessionDocument.get(MongoMastershipElector.ID);
+            Long heartbeat = heartbeatTime(sessionDocument);
+            if (id != null && heartbeat != null) {
+                heartbeats.put(id.substring(SESSION_ID_PREFIX.length()), heartbeat);
+            }
+        }
+        return heartbeats;
+    }
+
+    private Long readHeartbeat(String otherSessionId) {
+        Document session = (Document) getCollection().find(new Document(MongoMastershipElector.ID, SESSION_ID_PREFIX + otherSessionId))
+                .projection(Projections.include(HEARTBEAT)).limit(1).first();
+        return heartbeatTime(session);
+    }
+
+    private static Long heartbeatTime(Document session) {
+        Object heartbeat = session != null ? session.get(HEARTBEAT) : null;
+        if (heartbeat instanceof Date) {
+            return ((Date) heartbeat).getTime();
+        }
+        //written by an older version on its own clock
+        if (heartbeat instanceof Number) {
+            return ((Number) heartbeat).longValue();
+        }
+        return null;
+    }
+
+    private void startHeartbeatThread() {
+        Thread heartbeatThread = MasterSlaveThreadFactory.newThread("Mongo-SessionHeartbeatThread", () -> {
+            while (isHeartbeatThread()) {
+                try {
+                    TimeUnit.MILLISECONDS.sleep(Math.max(1000L, ttlPeriod * 1000L / 3));
+                } catch (InterruptedException e) {
+                    //interrupted by close - the loop condition tells
+                }
+                //under the lock so close can't delete the heartbeat document between the check and the write
+                sessionLock.lock();
+                try {
+                    if (!isHeartbeatThread()) {
+                        break;
+                    }
+                    heartbeat();
+                } catch (Exception e) {
+                    LOGGER.warn("problem in mongo session heartbeat: {}", e.toString());
+                } finally {
+                    sessionLock.unlock();
+                }
+            }
+        });
+        this.heartbeatThread = heartbeatThread;
+        heartbeatThread.start();
+        heartbeatThread.setUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
+            @Override
+            public void uncaughtException(Thread t, Throwable e) {
+                LOGGER.error("Uncaught Exception in thread: {}. Exception is: {}", t.getName(), e);
+            }
+        });
+    }
+
+    private boolean isHeartbeatThread() {
+        return heartbeatThread == Thread.currentThread();
+    }
+
+    /**
+     * called under the session lock - the heartbeat thread is sleeping or waiting for the lock, never writing
+     */
+    private void stopHeartbeatThread() {
+        Thread heartbeatThread = this.heartbeatThread;
+        this.heartbeatThread = null;
+        if (heartbeatThread != null) {
+            heartbeatThread.interrupt();
+        }
+    }
+
+    private MongoCollection getCollection() {
+        return MongoClient.INSTANCE.getMasterSlaveCollection();
+    }
+}
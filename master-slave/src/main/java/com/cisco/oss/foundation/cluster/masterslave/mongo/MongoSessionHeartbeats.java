@@ -0,0 +1,77 @@
+package com.cisco.oss.foundation.cluster.masterslave.mongo;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Decides if the #MongoSession of another process is alive, on the clock of the mongo server and never on the clocks of the processes.
+ * The heartbeats are written with $currentDate. Our own heartbeat returns the server time it was written at, and the server time
+ * is estimated from there with the local monotonic clock - it runs a little behind the server, so other sessions look alive a little longer, never shorter.
+ * The heartbeats of all the sessions are read in one query and cached for a third of the TTL. A session that is missing or expired
+ * in the cache is read again on its own before it is declared dead - it may be younger than the cache or have renewed since.
+ */
+public class MongoSessionHeartbeats {
+
+    private final Supplier<Map<String, Long>> readAll;
+    private final Function<String, Long> readOne;
+    private volatile long serverTime = 0;
+    private volatile long serverTimeNanos = 0;
+    private volatile Map<String, Long> heartbeats = Collections.emptyMap();
+    private volatile long heartbeatsReadNanos = 0;
+    private volatile boolean heartbeatsRead = false;
+
+    /**
+     * @param readAll reads the server time of the last heartbeat of every session, by session id
+     * @param readOne reads the server time of the last heartbeat of one session. null if it has no heartbeat document
+     */
+    public MongoSessionHeartbeats(Supplier<Map<String, Long>> readAll, Function<String, Long> readOne) {
+        this.readAll = readAll;
+        this.readOne = readOne;
+    }
+
+    /**
+     * @param heartbeatServerTime the server time our own heartbeat was written at, as returned by the heartbeat update
+     */
+    public void heartbeatWritten(long heartbeatServerTime) {
+        serverTimeNanos = System.nanoTime();
+        serverTime = heartbeatServerTime;
+    }
+
+    /**
+     * @return the estimated time on the mongo server. 0 until our first heartbeat was written
+     */
+    public long serverNow() {
+        long anchor = serverTime;
+        return anchor == 0 ? 0 : anchor + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - serverTimeNanos);
+    }
+
+    /**
+     * @param sessionId the session to check
+     * @param ttl the session TTL, in milliseconds
+     * @return true if the session renewed its heartbeat within the TTL, on the server clock
+     */
+    public boolean isAlive(String sessionId, long ttl) {
+        if (serverTime == 0) {
+            //we never heard from the server - we can't tell, and we don't take over
+            return true;
+        }
+
+        long now = System.nanoTime();
+        if (!heartbeatsRead || now - heartbeatsReadNanos > TimeUnit.MILLISECONDS.toNanos(ttl / 3)) {
+            heartbeats = readAll.get();
+            heartbeatsReadNanos = now;
+            heartbeatsRead = true;
+        }
+
+        Long heartbeat = heartbeats.get(sessionId);
+        if (heartbeat != null && heartbeat > serverNow() - ttl) {
+            return true;
+        }
+
+        heartbeat = readOne.apply(sessionId);
+        return heartbeat != null && heartbeat > serverNow() - ttl;
+    }
+}
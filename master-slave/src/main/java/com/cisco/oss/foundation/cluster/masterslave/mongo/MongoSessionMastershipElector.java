@@ -0,0 +1,189 @@
+package com.cisco.oss.foundation.cluster.masterslave.mongo;
+
+import com.cisco.oss.foundation.cluster.jfr.BackendCallEvent;
+import com.cisco.oss.foundation.cluster.utils.MasterSlaveConfigurationUtil;
+import com.cisco.oss.foundation.cluster.utils.MasterSlavePolicy;
+import com.mongodb.MongoException;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.ReturnDocument;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.Updates;
+import org.apache.commons.lang3.StringUtils;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Mongo implementation for electing new masters using the process wide #MongoSession instead of a lease per job.
+ * The job document only holds the session id of its master and is written only when the mastership changes hands.
+ * A job is taken over when the heartbeat document of its master session expires.
+ */
+public class MongoSessionMastershipElector extends MongoMastershipElector {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MongoSessionMastershipElector.class);
+    public static final String MASTER_SESSION_ID = "masterSessionId";
+
+    private Document document = null;
+    private boolean sessionOpened = false;
+
+    @Override
+    public void init(String id, String jobName) {
+        this.id = id;
+        this.jobName = jobName;
+        this.masterSlaveLeaseTime = MasterSlaveConfigurationUtil.getMasterSlaveLeaseTime(jobName);
+        watchConnection();
+        if (isReady()) {
+            openSession();
+        }
+    }
+
+    @Override
+    public boolean isActiveVersion(String currentVersion) {
+        try {
+            openSession();
+
+            BackendCallEvent event = BackendCallEvent.start(BACKEND, "find", id);
+            try {
+                document = (Document) masterSlaveCollection.find(new Document(ID, this.id)).limit(1).first();
+                event.end(BackendCallEvent.outcome(document));
+            } catch (MongoException e) {
+                event.fail(e);
+                throw e;
+            }
+            if (document == null) {
+                document = createNewDocument();
+            }
+            reportConnectivity(null);
+        } catch (MongoException e) {
+            reportConnectivity(e);
+            throw e;
+        }
+        LOGGER.trace("document in DB: {}", document);
+        String activeVersion = (String) document.get(ACTIVE_VERSION);
+
+        //if we don't need to be single across versions - we don't care what is the active version
+        if (StringUtils.isNotBlank(activeVersion) && MasterSlavePolicy.forJob(jobName).isSingleAcrossVersion()) {
+            return currentVersion != null && currentVersion.equals(activeVersion);
+        }
+
+        return true;
+    }
+
+    @Override
+    public boolean isMaster() {
+        MongoSession session = MongoSession.INSTANCE;
+        String sessionId = session.getSessionId();
+        masterLeaseRemaining = -1;
+
+        //others may already consider our session dead
+        if (!session.isAlive()) {
+            LOGGER.debug("mongo session: {} did not renew its heartbeat in time. job: {} can't be master", sessionId, jobName);
+            return false;
+        }
+
+        String masterSessionId = document != null ? (String) document.get(MASTER_SESSION_ID) : null;
+        if (sessionId.equals(masterSessionId)) {
+            Object documentEpoch = document.get(EPOCH);
+            epoch = documentEpoch instanceof Number ? ((Number) documentEpoch).longValue() : -1;
+            return true;
+        }
+
+        if (StringUtils.isNotBlank(masterSessionId) && session.isSessionAlive(masterSessionId)) {
+            //the heartbeat of the master session is not per job - only a handoff is seen
+            if (Boolean.TRUE.equals(document.get(HANDOFF))) {
+                masterLeaseRemaining = 0;
+            }
+            return false;
+        }
+
+        //the master session is gone - take over, unless someone else got here first
+        Bson takeoverQuery = Filters.and(Filters.eq(ID, this.id), Filters.eq(MASTER_SESSION_ID, masterSessionId));
+        Bson update = Updates.combine(
+                Updates.set(MASTER_SESSION_ID, sessionId),
+                Updates.set(MASTER_INSTANCE_ID, MasterSlaveConfigurationUtil.INSTANCE_ID),
+                Updates.set(LEASE_RENEWED, System.currentTimeMillis()),
+                Updates.unset(HANDOFF),
+                Updates.inc(EPOCH, 1L));
+        FindOneAndUpdateOptions updateOptions = new FindOneAndUpdateOptions()
+                .returnDocument(ReturnDocument.AFTER)
+                .projection(Projections.include(EPOCH));
+        BackendCallEvent event = BackendCallEvent.start(BACKEND, "takeover", id);
+        Document updateDoc;
+        try {
+            updateDoc = (Document) masterSlaveCollection.findOneAndUpdate(takeoverQuery, update, updateOptions);
+            event.end(BackendCallEvent.outcome(updateDoc != null));
+        } catch (RuntimeException e) {
+            event.fail(e);
+            throw e;
+        }
+        LOGGER.trace("id: {}, previous master session: {}, takeover result: {}", id, masterSessionId, updateDoc);
+
+        boolean isMaster = updateDoc != null;
+        if (isMaster) {
+            epoch = ((Number) updateDoc.get(EPOCH)).longValue();
+            LOGGER.info("job: {} taken over by mongo session: {} from session: {} with epoch: {}", jobName, sessionId, masterSessionId, epoch);
+            document.put(MASTER_SESSION_ID, sessionId);
+            document.put(EPOCH, epoch);
+            document.remove(HANDOFF);
+        }
+        return isMaster;
+    }
+
+    @Override
+    public long getLeaseRemaining() {
+        //the job is held by the session - a tick does not renew it
+        return MongoSession.INSTANCE.getLeaseRemaining();
+    }
+
+    @Override
+    public void cleanupMaster() {
+        releaseMastership();
+    }
+
+    @Override
+    public void close() {
+        unwatchConnection();
+        releaseMastership();
+        document = null;
+        if (sessionOpened) {
+            sessionOpened = false;
+            MongoSession.INSTANCE.close();
+        }
+    }
+
+    @Override
+    public Document createNewDocument() {
+        Bson update = Updates.combine(
+                Updates.setOnInsert(COMPONENT, MasterSlaveConfigurationUtil.COMPONENT_NAME),
+                Updates.setOnInsert(JOB, jobName));
+        //upsert so instances starting together don't fail on a duplicate key
+        masterSlaveCollection.updateOne(new Document(ID, this.id), update, new UpdateOptions().upsert(true));
+        return (Document) masterSlaveCollection.find(new Document(ID, this.id)).limit(1).first();
+    }
+
+    /**
+     * give up the mastership of this job so the other instances don't wait for the session to expire
+     */
+    private void releaseMastership() {
+        if (!isReady() || document == null || !MongoSession.INSTANCE.getSessionId().equals(document.get(MASTER_SESSION_ID))) {
+            return;
+        }
+        try {
+            Bson ownedQuery = Filters.and(Filters.eq(ID, this.id), Filters.eq(MASTER_SESSION_ID, MongoSession.INSTANCE.getSessionId()));
+            masterSlaveCollection.updateOne(ownedQuery, Updates.unset(MASTER_SESSION_ID));
+            document.remove(MASTER_SESSION_ID);
+        } catch (Exception e) {
+            LOGGER.warn("failed to release mastership of job: {}. error is: {}", jobName, e.toString());
+        }
+    }
+
+    private void openSession() {
+        if (!sessionOpened) {
+            MongoSession.INSTANCE.open();
+            sessionOpened = true;
+        }
+    }
+}
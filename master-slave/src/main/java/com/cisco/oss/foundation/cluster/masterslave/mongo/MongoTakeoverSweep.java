@@ -0,0 +1,147 @@
+package com.cisco.oss.foundation.cluster.masterslave.mongo;
+
+import com.cisco.oss.foundation.cluster.mongo.MongoClient;
+import com.cisco.oss.foundation.cluster.registry.MasterSlaveRegistry;
+import com.cisco.oss.foundation.cluster.utils.MasterSlaveConfigurationUtil;
+import com.cisco.oss.foundation.cluster.utils.MasterSlavePolicy;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.Updates;
+import com.mongodb.client.model.WriteModel;
+import org.apache.commons.lang3.StringUtils;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Claims all the expired leases of the jobs of this process in one pass.
+ * Jobs that may be master (active datacenter and version) but don't hold their lease are registered as candidates. When one of them takes over an expired lease,
+ * the expired leases of all the other candidates are claimed with a single bulk write and their jobs are woken up, so their next CAS renews the claimed lease and
+ * they go master in the same cycle instead of one by one over the next ticks.
+ * It is an enum and you access its method via the #INSTANCE member
+ */
+public enum MongoTakeoverSweep {
+
+    INSTANCE;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MongoTakeoverSweep.class);
+    //a takeover of many jobs triggers at most one sweep
+    private static final long MIN_SWEEP_INTERVAL = 1000;
+
+    //document id to candidate
+    private final ConcurrentMap<String, Candidate> candidates = new ConcurrentHashMap<>();
+    //a lock and not 'synchronized' so a virtual thread blocked on mongo I/O does not pin its carrier thread
+    private final ReentrantLock sweepLock = new ReentrantLock();
+    private volatile long lastSweep = 0;
+
+    /**
+     * mark a job as eligible for mastership without holding its lease. its lease will be claimed by the next sweep if expired.
+     * @param id the job document id
+     * @param jobName the job
+     * @param leaseTime the job lease time in seconds
+     * @param currentVersion the version of this instance
+     */
+    public void addCandidate(String id, String jobName, long leaseTime, String currentVersion) {
+        candidates.put(id, new Candidate(jobName, leaseTime, currentVersion, MasterSlavePolicy.forJob(jobName).isSingleAcrossVersion()));
+    }
+
+    /**
+     * remove a job from the next sweeps - it either holds its lease or may not hold it (e.g. not the active version).
+     * @param id the job document id
+     */
+    public void removeCandidate(String id) {
+        candidates.remove(id);
+    }
+
+    /**
+     * claim the expired leases of all the candidates except the caller.
+     * @param callerId the document id of the job that just took over its own lease
+     */
+    public void sweep(String callerId) {
+        if (candidates.isEmpty() || !sweepLock.tryLock()) {
+            return;
+        }
+        try {
+            long now = System.currentTimeMillis();
+            if (now - lastSweep < MIN_SWEEP_INTERVAL) {
+                return;
+            }
+            lastSweep = now;
+
+            Map<String, Candidate> sweepCandidates = new HashMap<>(candidates);
+            sweepCandidates.remove(callerId);
+            if (sweepCandidates.isEmpty()) {
+                return;
+            }
+
+            MongoCollection masterSlaveCollection = MongoClient.INSTANCE.getMasterSlaveCollection();
+            List<WriteModel<Document>> claims = new ArrayList<>();
+            List<String> claimedJobs = new ArrayList<>();
+            for (Object found : masterSlaveCollection.find(Filters.in(MongoMastershipElector.ID, sweepCandidates.keySet()))
+                    .projection(Projections.include(MongoMastershipElector.LEASE_RENEWED, MongoMastershipElector.ACTIVE_VERSION))) {
+                Document document = (Document) found;
+                Candidate candidate = sweepCandidates.get(document.get(MongoMastershipElector.ID));
+                Object leaseRenewed = document.get(MongoMastershipElector.LEASE_RENEWED);
+                if (candidate == null || !(leaseRenewed instanceof Number) || !candidate.isClaimable(((Number) leaseRenewed).longValue(), (String) document.get(MongoMastershipElector.ACTIVE_VERSION), now)) {
+                    continue;
+                }
+
+                //guarded on the lease we saw so a lease renewed or claimed in the meantime is left alone
+                claims.add(new UpdateOneModel<Document>(
+                        Filters.and(Filters.eq(MongoMastershipElector.ID, document.get(MongoMastershipElector.ID)), Filters.eq(MongoMastershipElector.LEASE_RENEWED, leaseRenewed)),
+                        Updates.combine(Updates.set(MongoMastershipElector.MASTER_INSTANCE_ID, MasterSlaveConfigurationUtil.INSTANCE_ID), Updates.set(MongoMastershipElector.LEASE_RENEWED, now), Updates.unset(MongoMastershipElector.HANDOFF))));
+                claimedJobs.add(candidate.jobName);
+            }
+
+            if (claims.isEmpty()) {
+                return;
+            }
+
+            BulkWriteResult result = masterSlaveCollection.bulkWrite(claims, new BulkWriteOptions().ordered(false));
+            LOGGER.info("takeover sweep claimed {} of {} expired leases", result.getModifiedCount(), claims.size());
+
+            //jobs that lost the race to another instance just fail their next CAS
+            for (String jobName : claimedJobs) {
+                MasterSlaveRegistry.INSTANCE.triggerElection(jobName);
+            }
+        } catch (Exception e) {
+            LOGGER.warn("takeover sweep failed. the jobs will take over on their own. error is: {}", e.toString());
+        } finally {
+            sweepLock.unlock();
+        }
+    }
+
+    private static final class Candidate {
+
+        private final String jobName;
+        private final long leaseTime;
+        private final String currentVersion;
+        private final boolean singleAcrossVersion;
+
+        private Candidate(String jobName, long leaseTime, String currentVersion, boolean singleAcrossVersion) {
+            this.jobName = jobName;
+            this.leaseTime = leaseTime;
+            this.currentVersion = currentVersion;
+            this.singleAcrossVersion = singleAcrossVersion;
+        }
+
+        private boolean isClaimable(long leaseRenewed, String activeVersion, long now) {
+            if (leaseRenewed > now - leaseTime * 1000L) {
+                return false;
+            }
+            return !singleAcrossVersion || StringUtils.isBlank(activeVersion) || (currentVersion != null && currentVersion.equals(activeVersion));
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package com.cisco.oss.foundation.cluster.metrics;
+
+/**
+ * The timed steps of an election tick.
+ * TICK - the whole tick, including the retry after an error.
+ * IS_ACTIVE_DATA_CENTER, IS_ACTIVE_VERSION, IS_MASTER - the backend calls of the elector. a tick makes the ones it needs.
+ */
+public enum ElectionOperation {
+
+    TICK,
+    IS_ACTIVE_DATA_CENTER,
+    IS_ACTIVE_VERSION,
+    IS_MASTER
+}
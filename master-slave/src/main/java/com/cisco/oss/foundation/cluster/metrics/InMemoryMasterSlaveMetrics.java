@@ -0,0 +1,227 @@
+package com.cisco.oss.foundation.cluster.metrics;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * #MasterSlaveMetrics kept in memory per job, for applications without a metrics library or to export from a health endpoint.
+ * The latencies are kept in power of two histograms, so recording never allocates once a job is known.
+ */
+public class InMemoryMasterSlaveMetrics implements MasterSlaveMetrics {
+
+    private final ConcurrentMap<String, JobMetrics> jobs = new ConcurrentHashMap<>();
+
+    /**
+     * @param jobName the job
+     * @return the metrics of the job. null if nothing was recorded for it yet
+     */
+    public JobMetrics getJobMetrics(String jobName) {
+        return jobs.get(jobName);
+    }
+
+    /**
+     * @return the metrics of all the jobs by job name
+     */
+    public Map<String, JobMetrics> getAllJobMetrics() {
+        return Collections.unmodifiableMap(jobs);
+    }
+
+    @Override
+    public void recordOperation(String jobName, ElectionOperation operation, long durationNanos, boolean success) {
+        job(jobName).getLatency(operation).record(durationNanos, success);
+    }
+
+    @Override
+    public void recordLeaseRenewal(String jobName, boolean success) {
+        JobMetrics job = job(jobName);
+        (success ? job.leaseRenewals : job.leaseRenewalFailures).increment();
+    }
+
+    @Override
+    public void recordTransition(String jobName, boolean master) {
+        JobMetrics job = job(jobName);
+        (master ? job.masterTransitions : job.slaveTransitions).increment();
+    }
+
+    @Override
+    public void recordMastershipDuration(String jobName, long durationMillis) {
+        job(jobName).masterTimeMillis.add(durationMillis);
+    }
+
+    @Override
+    public void recordTakeover(String jobName, long delayMillis) {
+        JobMetrics job = job(jobName);
+        job.lastTakeoverDelay.set(delayMillis);
+        job.maxTakeoverDelay.accumulateAndGet(delayMillis, Math::max);
+    }
+
+    @Override
+    public void recordSlaveReason(String jobName, SlaveReason reason) {
+        job(jobName).slaveReasons.get(reason).increment();
+    }
+
+    private JobMetrics job(String jobName) {
+        JobMetrics job = jobs.get(jobName);
+        return job != null ? job : jobs.computeIfAbsent(jobName, name -> new JobMetrics());
+    }
+
+    /**
+     * The metrics of one job.
+     */
+    public static class JobMetrics {
+
+        private final Map<ElectionOperation, LatencyHistogram> latencies = new EnumMap<>(ElectionOperation.class);
+        private final Map<SlaveReason, LongAdder> slaveReasons = new EnumMap<>(SlaveReason.class);
+        private final LongAdder leaseRenewals = new LongAdder();
+        private final LongAdder leaseRenewalFailures = new LongAdder();
+        private final LongAdder masterTransitions = new LongAdder();
+        private final LongAdder slaveTransitions = new LongAdder();
+        private final LongAdder masterTimeMillis = new LongAdder();
+        private final AtomicLong lastTakeoverDelay = new AtomicLong(-1);
+        private final AtomicLong maxTakeoverDelay = new AtomicLong(-1);
+
+        JobMetrics() {
+            //filled up front and never changed, so the maps can be read without locking
+            for (ElectionOperation operation : ElectionOperation.values()) {
+                latencies.put(operation, new LatencyHistogram());
+            }
+            for (SlaveReason reason : SlaveReason.values()) {
+                slaveReasons.put(reason, new LongAdder());
+            }
+        }
+
+        public LatencyHistogram getLatency(ElectionOperation operation) {
+            return latencies.get(operation);
+        }
+
+        public long getLeaseRenewals() {
+            return leaseRenewals.sum();
+        }
+
+        public long getLeaseRenewalFailures() {
+            return leaseRenewalFailures.sum();
+        }
+
+        public long getMasterTransitions() {
+            return masterTransitions.sum();
+        }
+
+        public long getSlaveTransitions() {
+            return slaveTransitions.sum();
+        }
+
+        /**
+         * @return the total time the job was master in milliseconds. a mastership is added when it ends
+         */
+        public long getMasterTimeMillis() {
+            return masterTimeMillis.sum();
+        }
+
+        /**
+         * @return the delay of the last takeover in milliseconds. -1 if none was reported
+         */
+        public long getLastTakeoverDelay() {
+            return lastTakeoverDelay.get();
+        }
+
+        /**
+         * @return the longest takeover delay in milliseconds. -1 if none was reported
+         */
+        public long getMaxTakeoverDelay() {
+            return maxTakeoverDelay.get();
+        }
+
+        public long getSlaveReasonCount(SlaveReason reason) {
+            return slaveReasons.get(reason).sum();
+        }
+    }
+
+    /**
+     * Latency histogram with power of two buckets: bucket i counts the durations from 2^i up to 2^(i+1) microseconds, bucket 0 also counts anything shorter.
+     */
+    public static class LatencyHistogram {
+
+        private static final int BUCKETS = 32;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final LongAdder failures = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        void record(long durationNanos, boolean success) {
+            long micros = Math.max(1, TimeUnit.NANOSECONDS.toMicros(durationNanos));
+            int bucket = Math.min(BUCKETS - 1, 63 - Long.numberOfLeadingZeros(micros));
+            buckets.incrementAndGet(bucket);
+            totalNanos.add(durationNanos);
+            if (!success) {
+                failures.increment();
+            }
+            long max = maxNanos.get();
+            while (durationNanos > max && !maxNanos.compareAndSet(max, durationNanos)) {
+                max = maxNanos.get();
+            }
+        }
+
+        public long getCount() {
+            long count = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                count += buckets.get(i);
+            }
+            return count;
+        }
+
+        public long getFailures() {
+            return failures.sum();
+        }
+
+        public long getTotalNanos() {
+            return totalNanos.sum();
+        }
+
+        public long getMaxNanos() {
+            return maxNanos.get();
+        }
+
+        /**
+         * @return the count of every bucket
+         */
+        public long[] getBuckets() {
+            long[] counts = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] = buckets.get(i);
+            }
+            return counts;
+        }
+
+        /**
+         * @param percentile between 0 and 100
+         * @return the upper bound in microseconds of the bucket holding the percentile. 0 if nothing was recorded
+         */
+        public long getPercentileMicros(double percentile) {
+            long[] counts = getBuckets();
+            long count = 0;
+            for (long bucketCount : counts) {
+                count += bucketCount;
+            }
+            if (count == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(count * Math.max(0, Math.min(100, percentile)) / 100);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts[i];
+                if (seen >= rank && seen > 0) {
+                    return 1L << (i + 1);
+                }
+            }
+            return 1L << BUCKETS;
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.cisco.oss.foundation.cluster.metrics;
+
+/**
+ * Receives the measurements of the mastership loop of every job. Plug in an implementation with #MasterSlaveRegistry.setMetrics,
+ * e.g. one that records into a Micrometer or Dropwizard registry, or use #InMemoryMasterSlaveMetrics.
+ * The methods are called on the mastership loop of the job (or a backend driver thread for async electors) and must not block.
+ * All the methods do nothing by default.
+ */
+public interface MasterSlaveMetrics {
+
+    /**
+     * the default - records nothing
+     */
+    MasterSlaveMetrics NOOP = new MasterSlaveMetrics() {
+    };
+
+    /**
+     * @param jobName the job
+     * @param operation a whole tick or one backend call of the elector
+     * @param durationNanos how long it took
+     * @param success false if it failed with an error
+     */
+    default void recordOperation(String jobName, ElectionOperation operation, long durationNanos, boolean success) {
+    }
+
+    /**
+     * a tick of a master tried to renew its lease
+     * @param jobName the job
+     * @param success false if the lease was lost or could not be renewed
+     */
+    default void recordLeaseRenewal(String jobName, boolean success) {
+    }
+
+    /**
+     * @param jobName the job
+     * @param master true if the job became master, false if it became slave
+     */
+    default void recordTransition(String jobName, boolean master) {
+    }
+
+    /**
+     * the job stopped being master
+     * @param jobName the job
+     * @param durationMillis how long it was master
+     */
+    default void recordMastershipDuration(String jobName, long durationMillis) {
+    }
+
+    /**
+     * the job took over a lease that expired. only reported by electors that know when it expired - see #MastershipElector.getTakeoverDelay
+     * @param jobName the job
+     * @param delayMillis time from the expiry of the previous lease to the takeover
+     */
+    default void recordTakeover(String jobName, long delayMillis) {
+    }
+
+    /**
+     * @param jobName the job
+     * @param reason why the job became slave
+     */
+    default void recordSlaveReason(String jobName, SlaveReason reason) {
+    }
+}
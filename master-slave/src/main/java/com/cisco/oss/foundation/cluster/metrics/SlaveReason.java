@@ -0,0 +1,31 @@
+package com.cisco.oss.foundation.cluster.metrics;
+
+/**
+ * Why a job became slave.
+ * NOT_ACTIVE_DATA_CENTER - the job is single across data centers and this is not the active one.
+ * NOT_ACTIVE_VERSION - the job is single across versions and this is not the active one.
+ * NOT_MASTER - another instance holds the lease.
+ * ERROR - the tick failed, even after a retry.
+ * STOPPED - the job was removed or the process is shutting down.
+ */
+public enum SlaveReason {
+
+    NOT_ACTIVE_DATA_CENTER("Not Active DC"),
+    NOT_ACTIVE_VERSION("Not Active Version"),
+    NOT_MASTER("is-master logic returned false"),
+    ERROR("Error"),
+    STOPPED("Stopped");
+
+    private final String description;
+
+    SlaveReason(String description) {
+        this.description = description;
+    }
+
+    /**
+     * @return the reason as it appears in the logs
+     */
+    public String description() {
+        return description;
+    }
+}
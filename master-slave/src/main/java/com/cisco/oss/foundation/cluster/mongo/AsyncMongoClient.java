@@ -12,7 +12,7 @@ import com.allanbank.mongodb.MongoDatabase;
 import com.allanbank.mongodb.MongoFactory;
 
 import java.util.List;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
@@ -27,7 +27,6 @@ public enum AsyncMongoClient {
 
 	private Logger logger = null;
 	private static final String DATA_CENTER_COLLECTION = "dataCenter";
-	private static final int DB_RETRY_DELAY = 10;
 	private static final String MASTER_SLAVE_COLLECTION = "masterSlave";
 	public AtomicBoolean IS_DB_UP = new AtomicBoolean(false);
 
@@ -36,6 +35,7 @@ public enum AsyncMongoClient {
 
     private MongoCollection masterSlave;
 
+	private final MongoConnectionManager connectionManager;
 
 
 
@@ -43,20 +43,18 @@ public enum AsyncMongoClient {
 
 		logger = LoggerFactory.getLogger(AsyncMongoClient.class);
 
-		try {
-			database = connect();
-		} catch (MissingMongoConfigException e) {
-			throw e;
-		} catch (Exception e) {
-			infiniteConnect();
-		}
+		connectionManager = new MongoConnectionManager("async-mongo", this::ping);
+		connectionManager.addListener((previous, current) -> IS_DB_UP.set(current.isReady()));
 
+		//the collections are set before the first probe so they are never read before the db is connected
+		database = createClient().getDatabase(MasterSlaveConfigurationUtil.getMongodbName());
 		dataCenter	= database.getCollection(DATA_CENTER_COLLECTION);
 		masterSlave		= database.getCollection(MASTER_SLAVE_COLLECTION);
+		connectionManager.start();
 	}
 
 
-	private MongoDatabase connect(){
+	private com.allanbank.mongodb.MongoClient createClient(){
 		MongoClientConfiguration config = new MongoClientConfiguration();
 		List<Pair<String, Integer>> mongodbServers = MasterSlaveConfigurationUtil.getMongodbServers();
 		for (Pair<String, Integer> mongodbServer : mongodbServers) {
@@ -77,51 +75,38 @@ public enum AsyncMongoClient {
 			config.addCredential(credentials);
 		}
 
-    	
-    	com.allanbank.mongodb.MongoClient mongoClient = MongoFactory.createClient(config);
-    	
-    	database = mongoClient.getDatabase(dbName);
-    	
-		//Check Authentication
+		//the driver connects lazily and reconnects on its own - one client for the life of the process
+		return MongoFactory.createClient(config);
+	}
+
+	private void ping() {
+		//will raise an error if authentication fails or if server is down
 		try {
-			database.getCollection(DATA_CENTER_COLLECTION).count();
-			IS_DB_UP.set(true);
-		} catch (Exception e) { //will raise an error if authentication fails or if server is down
-			String message = "Can't connect to '" + dbName + "' mongoDB. Please check connection and configuration. MongoDB error message: " + e.toString();
-//			logger.error(message, e);
-			throw new RuntimeException(message);
+			dataCenter.count();
+		} catch (Exception e) {
+			throw new RuntimeException("Can't connect to '" + MasterSlaveConfigurationUtil.getMongodbName() + "' mongoDB. Please check connection and configuration. MongoDB error message: " + e.toString());
 		}
-    	
-		return database;
 	}
 
-	private void infiniteConnect() {
-		Thread reConnectThread = new Thread(new Runnable() {
-			@Override
-			public void run() {
-				while (!IS_DB_UP.get()) {
-					try {
-						connect();
-						IS_DB_UP.set(true);
-						logger.info("dc reconnect is successful");
-					} catch (Exception e) {
-						logger.warn("db reconnect failed. retrying in {} seconds. error: {}", DB_RETRY_DELAY, e);
-						try {
-							TimeUnit.SECONDS.sleep(DB_RETRY_DELAY);
-						} catch (InterruptedException e1) {
-							//ignore
-						}
-					}
-				}
-			}
-		}, "Infinite-Reconnect");
-		reConnectThread.start();
-		reConnectThread.setUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
-			@Override
-			public void uncaughtException(Thread t, Throwable e) {
-				LOGGER.error("Uncaught Exception in thread: {}. Exception is: {}", t.getName(), e);
-			}
-		});
+	/**
+	 * @return the connectivity state of this client. see #MongoConnectionManager
+	 */
+	public MongoConnectionManager getConnectionManager() {
+		return connectionManager;
+	}
+
+	/**
+	 * @return true if the db is reachable as far as we know. no I/O
+	 */
+	public boolean isReady() {
+		return connectionManager.isReady();
+	}
+
+	/**
+	 * @return a future completed once the db is reachable. the electors wait for it before their first election
+	 */
+	public CompletableFuture<Void> whenReady() {
+		return connectionManager.whenReady();
 	}
 
 	/**
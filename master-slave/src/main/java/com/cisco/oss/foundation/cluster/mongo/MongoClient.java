@@ -1,7 +1,6 @@
 package com.cisco.oss.foundation.cluster.mongo;
 
 
-import com.allanbank.mongodb.Credential;
 import com.cisco.oss.foundation.cluster.utils.MasterSlaveConfigurationUtil;
 import com.mongodb.MongoClientOptions;
 import com.mongodb.MongoCredential;
@@ -15,7 +14,7 @@ import org.slf4j.LoggerFactory;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
@@ -30,7 +29,6 @@ public enum MongoClient {
 
 	private Logger logger = null;
 	private static final String DATA_CENTER_COLLECTION = "dataCenter";
-	private static final int DB_RETRY_DELAY = 10;
 	private static final String MASTER_SLAVE_COLLECTION = "masterSlave";
 	public AtomicBoolean IS_DB_UP = new AtomicBoolean(false);
 
@@ -39,6 +37,7 @@ public enum MongoClient {
 
     private MongoCollection masterSlave;
 
+	private final MongoConnectionManager connectionManager;
 
 
 
@@ -46,22 +45,16 @@ public enum MongoClient {
 
 		logger = LoggerFactory.getLogger(MongoClient.class);
 
+		connectionManager = new MongoConnectionManager("mongo", this::ping);
+		connectionManager.addListener((previous, current) -> IS_DB_UP.set(current.isReady()));
+
 		if (MasterSlaveConfigurationUtil.isMongoAutoStart()) {
-			try {
-                database = connect();
-            } catch (MissingMongoConfigException e) {
-                throw e;
-            } catch (Exception e) {
-                infiniteConnect();
-            }
-
-			dataCenter	= database.getCollection(DATA_CENTER_COLLECTION);
-			masterSlave		= database.getCollection(MASTER_SLAVE_COLLECTION);
+			connect(createClient());
 		}
 	}
 
 
-	private MongoDatabase connect(){
+	private com.mongodb.MongoClient createClient(){
 		List<Pair<String, Integer>> mongodbServers = MasterSlaveConfigurationUtil.getMongodbServers();
 		List<ServerAddress> addresses = new ArrayList<>(mongodbServers.size());
 		for (Pair<String, Integer> mongodbServer : mongodbServers) {
@@ -74,64 +67,26 @@ public enum MongoClient {
 //				.readPreference(readPreference)
 				.build();
 
-		com.mongodb.MongoClient mongoDBClient = null;
 		String dbName = MasterSlaveConfigurationUtil.getMongodbName();
 
+		//the driver connects lazily and reconnects on its own - one client for the life of the process
 		if (MasterSlaveConfigurationUtil.isMongoAuthenticationEnabled()) {
 
 			Pair<String, String> mongoUserCredentials = MasterSlaveConfigurationUtil.getMongoUserCredentials();
 			MongoCredential credential = MongoCredential.createCredential(mongoUserCredentials.getLeft(), dbName, mongoUserCredentials.getRight().toCharArray());
-			mongoDBClient = new com.mongodb.MongoClient(addresses, Arrays.asList(credential), options);
+			return new com.mongodb.MongoClient(addresses, Arrays.asList(credential), options);
 		}else{
-			mongoDBClient = new com.mongodb.MongoClient(addresses, options);
+			return new com.mongodb.MongoClient(addresses, options);
 		}
+	}
 
-
-
-
-    	
-    	database = mongoDBClient.getDatabase(dbName);
-    	
-		//Check Authentication
+	private void ping() {
+		//will raise an error if authentication fails or if server is down
 		try {
-			database.getCollection(DATA_CENTER_COLLECTION).count();
-			IS_DB_UP.set(true);
-		} catch (Exception e) { //will raise an error if authentication fails or if server is down
-			String message = "Can't connect to '" + dbName + "' mongoDB. Please check connection and configuration. MongoDB error message: " + e.toString();
-//			logger.error(message, e);
-			throw new RuntimeException(message);
+			dataCenter.count();
+		} catch (Exception e) {
+			throw new RuntimeException("Can't connect to '" + MasterSlaveConfigurationUtil.getMongodbName() + "' mongoDB. Please check connection and configuration. MongoDB error message: " + e.toString());
 		}
-    	
-		return database;
-	}
-
-	private void infiniteConnect() {
-		Thread reConnectThread = new Thread(new Runnable() {
-			@Override
-			public void run() {
-				while (!IS_DB_UP.get()) {
-					try {
-						connect();
-						IS_DB_UP.set(true);
-						logger.info("dc reconnect is successful");
-					} catch (Exception e) {
-						logger.warn("db reconnect failed. retrying in {} seconds. error: {}", DB_RETRY_DELAY, e);
-						try {
-							TimeUnit.SECONDS.sleep(DB_RETRY_DELAY);
-						} catch (InterruptedException e1) {
-							//ignore
-						}
-					}
-				}
-			}
-		}, "Infinite-Reconnect");
-		reConnectThread.start();
-		reConnectThread.setUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
-			@Override
-			public void uncaughtException(Thread t, Throwable e) {
-				LOGGER.error("Uncaught Exception in thread: {}. Exception is: {}", t.getName(), e);
-			}
-		});
 	}
 
 	public void connect(com.mongodb.MongoClient mongoDBClient){
@@ -139,6 +94,28 @@ public enum MongoClient {
 		database = mongoDBClient.getDatabase(dbName);
 		dataCenter	= database.getCollection(DATA_CENTER_COLLECTION);
 		masterSlave		= database.getCollection(MASTER_SLAVE_COLLECTION);
+		connectionManager.start();
+	}
+
+	/**
+	 * @return the connectivity state of this client. see #MongoConnectionManager
+	 */
+	public MongoConnectionManager getConnectionManager() {
+		return connectionManager;
+	}
+
+	/**
+	 * @return true if the db is reachable as far as we know. no I/O
+	 */
+	public boolean isReady() {
+		return connectionManager.isReady();
+	}
+
+	/**
+	 * @return a future completed once the db is reachable. the electors wait for it before their first election
+	 */
+	public CompletableFuture<Void> whenReady() {
+		return connectionManager.whenReady();
 	}
 
 	/**
@@ -0,0 +1,15 @@
+package com.cisco.oss.foundation.cluster.mongo;
+
+/**
+ * Implement this listener to be told when a mongo client goes up or down.
+ * Register it with #MongoConnectionManager.addListener
+ */
+public interface MongoConnectionListener {
+
+    /**
+     * callback method called on every state change. called on the thread that caused the change - don't block it
+     * @param previous the state before the change
+     * @param current the new state
+     */
+    void stateChanged(MongoConnectionState previous, MongoConnectionState current);
+}
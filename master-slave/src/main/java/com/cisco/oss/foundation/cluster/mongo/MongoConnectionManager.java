@@ -0,0 +1,205 @@
+package com.cisco.oss.foundation.cluster.mongo;
+
+import com.cisco.oss.foundation.cluster.utils.MasterSlaveConfigurationUtil;
+import com.cisco.oss.foundation.cluster.utils.MasterSlaveThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Tracks the connectivity of one mongo client and reconnects it.
+ * The state (see #MongoConnectionState) is kept in memory, so #isReady never does I/O. It is updated by a probe when the client starts or is reconnecting,
+ * and by the electors reporting the outcome of their db calls. A few failures in a row take the client DOWN and start a reconnect loop that probes with
+ * exponential backoff and jitter, so the instances don't all hit a recovering replica set together.
+ * Used by both #MongoClient and #AsyncMongoClient.
+ */
+public class MongoConnectionManager {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MongoConnectionManager.class);
+    //consecutive failures that turn a DEGRADED client DOWN
+    private static final int DOWN_THRESHOLD = 3;
+
+    private final String name;
+    private final Runnable probe;
+    private final List<MongoConnectionListener> listeners = new CopyOnWriteArrayList<>();
+    private final CompletableFuture<Void> ready = new CompletableFuture<>();
+    private final AtomicBoolean reconnecting = new AtomicBoolean(false);
+    private final Object stateLock = new Object();
+    private volatile MongoConnectionState state = MongoConnectionState.CONNECTING;
+    private int consecutiveFailures = 0;
+
+    /**
+     * @param name the client name used in the logs and the reconnect thread name
+     * @param probe a cheap db call. throws if the db can't be reached
+     */
+    public MongoConnectionManager(String name, Runnable probe) {
+        this.name = name;
+        this.probe = probe;
+    }
+
+    /**
+     * probe the db once on the calling thread. if it can't be reached, keep reconnecting in the background.
+     */
+    public void start() {
+        if (!probeOnce()) {
+            reconnect();
+        }
+    }
+
+    /**
+     * @return the current state. no I/O
+     */
+    public MongoConnectionState getState() {
+        return state;
+    }
+
+    /**
+     * @return true if the db should be used. no I/O
+     */
+    public boolean isReady() {
+        return state.isReady();
+    }
+
+    /**
+     * @return a future completed the first time the db is UP
+     */
+    public CompletableFuture<Void> whenReady() {
+        return ready;
+    }
+
+    public void addListener(MongoConnectionListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(MongoConnectionListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * a db call succeeded
+     */
+    public void reportSuccess() {
+        //the common case - nothing to change
+        if (state == MongoConnectionState.UP) {
+            return;
+        }
+        transition(MongoConnectionState.UP);
+    }
+
+    /**
+     * a db call failed
+     * @param e the failure
+     */
+    public void reportFailure(Throwable e) {
+        MongoConnectionState next;
+        int failures;
+        synchronized (stateLock) {
+            failures = ++consecutiveFailures;
+            if (consecutiveFailures >= DOWN_THRESHOLD || state == MongoConnectionState.DOWN) {
+                next = MongoConnectionState.DOWN;
+            } else if (state == MongoConnectionState.UP) {
+                next = MongoConnectionState.DEGRADED;
+            } else {
+                next = state;
+            }
+        }
+        LOGGER.debug("{} db call failed. failures in a row: {}. error is: {}", name, failures, e.toString());
+        transition(next);
+        if (!next.isReady()) {
+            reconnect();
+        }
+    }
+
+    private boolean probeOnce() {
+        try {
+            probe.run();
+            reportSuccess();
+            return true;
+        } catch (MissingMongoConfigException e) {
+            throw e;
+        } catch (Exception e) {
+            if (state == MongoConnectionState.CONNECTING) {
+                LOGGER.warn("can't connect to {} db. error is: {}", name, e.toString());
+            } else {
+                reportFailure(e);
+            }
+            return false;
+        }
+    }
+
+    /**
+     * start the reconnect loop unless it is already running. the loop ends once the db is UP.
+     */
+    private void reconnect() {
+        if (!reconnecting.compareAndSet(false, true)) {
+            return;
+        }
+        Thread reconnectThread = MasterSlaveThreadFactory.newThread(name + "-Reconnect", () -> {
+            do {
+                try {
+                    reconnectLoop();
+                } finally {
+                    reconnecting.set(false);
+                }
+                //a failure between the end of the loop and the reset of the flag lost its compareAndSet to us - take its place
+            } while (!state.isReady() && reconnecting.compareAndSet(false, true));
+        });
+        reconnectThread.setUncaughtExceptionHandler((t, e) -> LOGGER.error("Uncaught Exception in thread: {}. Exception is: {}", t.getName(), e));
+        reconnectThread.start();
+    }
+
+    private void reconnectLoop() {
+        for (int attempt = 0; !state.isReady(); attempt++) {
+            long delay = backoff(attempt);
+            LOGGER.info("{} db is {}. reconnecting in {} ms", name, state, delay);
+            try {
+                TimeUnit.MILLISECONDS.sleep(delay);
+            } catch (InterruptedException e) {
+                //ignore
+            }
+            probeOnce();
+        }
+        LOGGER.info("{} db reconnect is successful", name);
+    }
+
+    /**
+     * exponential backoff with 'equal jitter' - half of the delay is fixed, the other half random
+     */
+    private static long backoff(int attempt) {
+        long minDelay = Math.max(1, MasterSlaveConfigurationUtil.getMongoReconnectMinDelay());
+        long maxDelay = Math.max(minDelay, MasterSlaveConfigurationUtil.getMongoReconnectMaxDelay());
+        long cap = Math.min(maxDelay, minDelay << Math.min(attempt, 20));
+        return cap / 2 + ThreadLocalRandom.current().nextLong(cap / 2 + 1);
+    }
+
+    private void transition(MongoConnectionState next) {
+        MongoConnectionState previous;
+        synchronized (stateLock) {
+            previous = state;
+            if (next == MongoConnectionState.UP) {
+                consecutiveFailures = 0;
+            }
+            if (previous == next) {
+                return;
+            }
+            state = next;
+        }
+        if (next == MongoConnectionState.UP) {
+            ready.complete(null);
+        }
+        LOGGER.info("{} db state changed from {} to {}", name, previous, next);
+        for (MongoConnectionListener listener : listeners) {
+            try {
+                listener.stateChanged(previous, next);
+            } catch (Exception e) {
+                LOGGER.error("problem in mongo connection listener. error is: {}", e, e);
+            }
+        }
+    }
+}
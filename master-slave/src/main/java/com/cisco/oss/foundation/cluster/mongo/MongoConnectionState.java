@@ -0,0 +1,31 @@
+package com.cisco.oss.foundation.cluster.mongo;
+
+/**
+ * Connectivity state of a mongo client as tracked by #MongoConnectionManager.
+ */
+public enum MongoConnectionState {
+
+    /**
+     * not connected yet
+     */
+    CONNECTING,
+    /**
+     * the last probe or db call succeeded
+     */
+    UP,
+    /**
+     * db calls started failing but the db may still be reachable. the electors keep using it
+     */
+    DEGRADED,
+    /**
+     * the db is unreachable. the electors wait until it is reconnected
+     */
+    DOWN;
+
+    /**
+     * @return true if the electors should use the db in this state
+     */
+    public boolean isReady() {
+        return this == UP || this == DEGRADED;
+    }
+}
@@ -11,9 +11,28 @@ public interface MasterSlaveListener {
      */
     void goMaster();
 
+    /**
+     * callback method to indicate this running instance is now master, with the fencing epoch of the mastership.
+     * override it to tag the writes of this master with the epoch, so a store can reject the writes of a stale master with a compare.
+     * the default calls #goMaster()
+     * @param epoch grows every time the mastership of the job is acquired. -1 if the mastership elector does not support epochs
+     */
+    default void goMaster(long epoch) {
+        goMaster();
+    }
+
     /**
      * callback method to indicate this running instance is now slave
      */
     void goSlave();
 
+    /**
+     * callback method to indicate this standby may turn into master soon: the lease of the master is about to expire or the master is handing off.
+     * override it to warm up caches and connections ahead of #goMaster. it is only a hint - another standby may take the mastership.
+     * called once per expiring lease or handoff, and only when 'masterSlave.standby.prepareTime' is set
+     * @param masterLeaseRemaining milliseconds until the lease of the master expires. 0 if the master is handing off
+     */
+    default void prepareForMastership(long masterLeaseRemaining) {
+    }
+
 }
@@ -0,0 +1,188 @@
+package com.cisco.oss.foundation.cluster.registry;
+
+import com.cisco.oss.foundation.cluster.jfr.ListenerCallbackEvent;
+import com.cisco.oss.foundation.cluster.utils.MasterSlaveConfigurationUtil;
+import com.cisco.oss.foundation.cluster.utils.MasterSlavePolicy;
+import com.cisco.oss.foundation.cluster.utils.MasterSlaveThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Delivers the goMaster/goSlave/prepareForMastership callbacks of one job away from the mastership loop, so a slow listener can't delay the lease renewal.
+ * Callbacks of the same job run one at a time and in the order they were dispatched. Callbacks of different jobs run in parallel on a shared pool.
+ * Each callback is timed. A callback that runs longer than 'masterSlave.listener.timeout' is reported and interrupted - the next callback of the job still waits for it to return.
+ * When 'masterSlave.listener.async.enabled' is false the callbacks are called on the mastership loop like before.
+ */
+class MasterSlaveListenerDispatcher {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MasterSlaveListenerDispatcher.class);
+    private static final AtomicInteger THREAD_NUMBER = new AtomicInteger(1);
+    //threads only live while callbacks are running
+    private static final ExecutorService CALLBACK_EXECUTOR = Executors.newCachedThreadPool(runnable -> MasterSlaveThreadFactory.newThread("MasterSlaveListener-" + THREAD_NUMBER.getAndIncrement(), runnable));
+    private static final ScheduledThreadPoolExecutor TIMEOUT_TIMER = newTimeoutTimer();
+
+    private final String jobName;
+    private final MasterSlaveListener masterSlaveListener;
+    private final boolean async;
+    private final Queue<Callback> pending = new ArrayDeque<>();
+    private boolean running = false;
+    private volatile long lastCallbackDuration = 0;
+
+    MasterSlaveListenerDispatcher(String jobName, MasterSlaveListener masterSlaveListener) {
+        this.jobName = jobName;
+        this.masterSlaveListener = masterSlaveListener;
+        this.async = MasterSlaveConfigurationUtil.isListenerAsyncEnabled();
+    }
+
+    /**
+     * @param epoch the fencing epoch of the mastership
+     * @return a future completed when the callback returns
+     */
+    CompletableFuture<Void> goMaster(long epoch) {
+        return dispatch(new Callback("goMaster", () -> masterSlaveListener.goMaster(epoch)));
+    }
+
+    /**
+     * @return a future completed when the callback returns
+     */
+    CompletableFuture<Void> goSlave() {
+        return dispatch(new Callback("goSlave", masterSlaveListener::goSlave));
+    }
+
+    /**
+     * @param masterLeaseRemaining milliseconds until the lease of the master expires
+     * @return a future completed when the callback returns
+     */
+    CompletableFuture<Void> prepareForMastership(long masterLeaseRemaining) {
+        return dispatch(new Callback("prepareForMastership", () -> masterSlaveListener.prepareForMastership(masterLeaseRemaining)));
+    }
+
+    /**
+     * @return how long the last completed callback took, in milliseconds
+     */
+    long getLastCallbackDuration() {
+        return lastCallbackDuration;
+    }
+
+    private CompletableFuture<Void> dispatch(Callback callback) {
+        if (!async) {
+            callback.run();
+            return callback.done;
+        }
+        synchronized (pending) {
+            pending.add(callback);
+            if (running) {
+                //delivered when the running callback returns
+                return callback.done;
+            }
+            running = true;
+        }
+        CALLBACK_EXECUTOR.execute(this::drain);
+        return callback.done;
+    }
+
+    private void drain() {
+        while (true) {
+            Callback callback;
+            synchronized (pending) {
+                callback = pending.poll();
+                if (callback == null) {
+                    running = false;
+                    return;
+                }
+            }
+            callback.run();
+        }
+    }
+
+    /**
+     * @return the time in milliseconds a callback may run before it is reported and interrupted
+     */
+    long getTimeout() {
+        int timeout = MasterSlaveConfigurationUtil.getListenerTimeout();
+        //0 means the lease time of the job - a callback running longer than that outlives the mastership it was called for
+        return (timeout > 0 ? timeout : MasterSlavePolicy.forJob(jobName).getLeaseTime()) * 1000L;
+    }
+
+    private static ScheduledThreadPoolExecutor newTimeoutTimer() {
+        ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "MasterSlaveListenerTimeout");
+            thread.setDaemon(true);
+            return thread;
+        });
+        //most callbacks return in time - drop their timeouts instead of keeping them until they are due
+        timer.setRemoveOnCancelPolicy(true);
+        return timer;
+    }
+
+    private final class Callback implements Runnable {
+
+        private final String name;
+        private final Runnable body;
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+        //guarded by this - the timeout interrupts the callback thread only while the body runs on it
+        private boolean bodyRunning;
+        private boolean timedOut;
+        private ScheduledFuture<?> timeoutTask;
+
+        private Callback(String name, Runnable body) {
+            this.name = name;
+            this.body = body;
+        }
+
+        @Override
+        public void run() {
+            long start = System.currentTimeMillis();
+            ListenerCallbackEvent event = ListenerCallbackEvent.start(jobName, name);
+            boolean success = false;
+            if (async) {
+                Thread callbackThread = Thread.currentThread();
+                long timeout = getTimeout();
+                synchronized (this) {
+                    bodyRunning = true;
+                    timeoutTask = TIMEOUT_TIMER.schedule(() -> timeout(callbackThread, timeout), timeout, TimeUnit.MILLISECONDS);
+                }
+            }
+            try {
+                body.run();
+                success = true;
+            } catch (Exception e) {
+                LOGGER.error("{} callback of job: {} failed. error is: {}", name, jobName, e, e);
+            } finally {
+                boolean callbackTimedOut = false;
+                if (async) {
+                    synchronized (this) {
+                        bodyRunning = false;
+                        timeoutTask.cancel(false);
+                        callbackTimedOut = timedOut;
+                    }
+                    //the body may have ignored the interrupt - don't leak it into the next callback
+                    Thread.interrupted();
+                }
+                event.end(success, callbackTimedOut);
+                done.complete(null);
+                lastCallbackDuration = System.currentTimeMillis() - start;
+                LOGGER.debug("{} callback of job: {} took {} ms", name, jobName, lastCallbackDuration);
+            }
+        }
+
+        private synchronized void timeout(Thread callbackThread, long timeout) {
+            if (!bodyRunning) {
+                return;
+            }
+            timedOut = true;
+            LOGGER.error("{} callback of job: {} did not return within {} ms. interrupting it. the next callbacks of the job wait for it to return", name, jobName, timeout);
+            callbackThread.interrupt();
+        }
+    }
+}
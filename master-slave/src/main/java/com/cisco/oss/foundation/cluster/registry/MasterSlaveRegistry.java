@@ -1,12 +1,24 @@
 package com.cisco.oss.foundation.cluster.registry;
 
+import com.cisco.oss.foundation.cluster.metrics.MasterSlaveMetrics;
+import com.cisco.oss.foundation.cluster.utils.MasterSlaveConfigurationUtil;
+import com.cisco.oss.foundation.cluster.utils.MasterSlaveExecutionMode;
+import com.cisco.oss.foundation.cluster.utils.MasterSlaveThreadFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Register your #MasterSlaveListener instances with this class.
@@ -22,6 +34,10 @@ public enum MasterSlaveRegistry {
     private ConcurrentMap<String, MasterSlaveListener> listeners = new ConcurrentHashMap<>();
     ConcurrentMap<String, Boolean> threadController = new ConcurrentHashMap<>();
     ConcurrentMap<String, Thread> masterSlaveThreads = new ConcurrentHashMap<>();
+    ConcurrentMap<String, MasterSlaveRunnable> masterSlaveRunnables = new ConcurrentHashMap<>();
+    private final AtomicBoolean shutdownHookRegistered = new AtomicBoolean(false);
+    private volatile ScheduledExecutorService scheduler;
+    private volatile MasterSlaveMetrics metrics = MasterSlaveMetrics.NOOP;
 
     public Map<String, MasterSlaveListener> getListeners(){
         return Collections.unmodifiableMap(listeners);
@@ -30,6 +46,8 @@ public enum MasterSlaveRegistry {
 
     /**
      * starts a new thread to control master/slave state.
+     * when 'masterSlave.executionMode' is set to 'scheduler' no thread is created and the job is ticked on a shared scheduler instead.
+     * when it is set to 'virtual' the thread is a virtual thread (if supported by the JVM).
      * this method is idempotent and if you call it over and over with the same jobName - nothing will happen
      * @param jobName - logical jobName of the work unit. you can call this method multiple times with different jobNames and listener and each unique call will create a new thread
      * @param masterSlaveListener - the listener you implement to get callbacks
@@ -43,23 +61,120 @@ public enum MasterSlaveRegistry {
 
     /**
      * @param jobName - the jobName
-     * @return true if there is a thread associated with this jobName and it is alive
+     * @return true if there is a thread associated with this jobName and it is alive, or if the job is ticked on the shared scheduler
      */
     public boolean isAlive(String jobName) {
         if(masterSlaveThreads.containsKey(jobName)){
             return masterSlaveThreads.get(jobName).isAlive();
+        }else if(masterSlaveRunnables.containsKey(jobName)){
+            return masterSlaveRunnables.get(jobName).isScheduled();
         }else{
             return false;
         }
     }
 
+    /**
+     * ask the job to run its next mastership election now instead of waiting for the lease based interval.
+     * mastership electors call this when their backend notifies them that a lock or an active key has changed.
+     * @param jobName - the jobName
+     */
+    public void triggerElection(String jobName) {
+        MasterSlaveRunnable masterSlaveRunnable = masterSlaveRunnables.get(jobName);
+        if (masterSlaveRunnable != null) {
+            masterSlaveRunnable.wakeUp();
+        }
+    }
+
+    /**
+     * wait for a job to know if it is master without polling. e.g. a short lived worker that should only start working as master.
+     * @param jobName - the jobName
+     * @return a future completed with the first mastership decision of the job - true for master, false for slave. it completes when the decision is made,
+     * the listener callback may still be running. cancelled if the job is removed before deciding, failed if the job is not registered
+     */
+    public CompletableFuture<Boolean> firstDecision(String jobName) {
+        MasterSlaveRunnable masterSlaveRunnable = masterSlaveRunnables.get(jobName);
+        if (masterSlaveRunnable == null) {
+            CompletableFuture<Boolean> notRegistered = new CompletableFuture<>();
+            notRegistered.completeExceptionally(new IllegalArgumentException("no master slave listener is registered for job: " + jobName));
+            return notRegistered;
+        }
+        //a copy so callers can't complete the job's own future
+        return masterSlaveRunnable.getFirstDecision().copy();
+    }
+
+    /**
+     * @param jobName - the jobName
+     * @return how long the last goMaster/goSlave callback of the job took in milliseconds, or -1 if the job is not registered
+     */
+    public long getLastCallbackDuration(String jobName) {
+        MasterSlaveRunnable masterSlaveRunnable = masterSlaveRunnables.get(jobName);
+        return masterSlaveRunnable != null ? masterSlaveRunnable.getLastCallbackDuration() : -1;
+    }
+
+    /**
+     * answered from the lease the job tracks locally, without a call to the backend, so it can be checked on every request or before a critical section.
+     * unlike a flag set by the goMaster/goSlave callbacks it turns false once the lease expires, even if the job could not reach the backend to learn it lost the mastership.
+     * @param jobName - the jobName
+     * @return true if the job is master and its last lease renewal did not expire yet. false if the job is not registered
+     */
+    public boolean isMaster(String jobName) {
+        MasterSlaveRunnable masterSlaveRunnable = masterSlaveRunnables.get(jobName);
+        return masterSlaveRunnable != null && masterSlaveRunnable.getLeaseRemaining() > 0;
+    }
+
+    /**
+     * the lease is counted on the monotonic clock from the moment the last successful renewal was sent, so it ends no later than the lease the backend holds.
+     * for a session based elector (consul, mongo-session) the renewal is the last session renewal, not the last tick - see #MastershipElector.getLeaseRemaining.
+     * @param jobName - the jobName
+     * @return the time left on the lease of the job in milliseconds, or 0 if it is not master or not registered
+     */
+    public long leaseRemaining(String jobName) {
+        MasterSlaveRunnable masterSlaveRunnable = masterSlaveRunnables.get(jobName);
+        return masterSlaveRunnable != null ? TimeUnit.NANOSECONDS.toMillis(masterSlaveRunnable.getLeaseRemaining()) : 0;
+    }
+
+    /**
+     * the epoch is the fencing token of the mastership: it grows every time any instance acquires the mastership of the job.
+     * tag the writes of the master with it and have the store reject a write with a lower epoch than one it already saw - the write of a stale master.
+     * it may also grow while the job stays master, when the lock was lost and taken back between two ticks - read it from here before writing instead of keeping the one goMaster got.
+     * @param jobName - the jobName
+     * @return the epoch of the current mastership of the job. -1 if it is not master, not registered or its mastership elector does not support epochs
+     */
+    public long getEpoch(String jobName) {
+        MasterSlaveRunnable masterSlaveRunnable = masterSlaveRunnables.get(jobName);
+        return masterSlaveRunnable != null ? masterSlaveRunnable.getEpoch() : -1;
+    }
+
+    /**
+     * report the tick latencies, lease renewals and transitions of all the jobs to a metrics implementation. e.g. an adapter to the metrics library of the application
+     * @param metrics - the metrics implementation. null restores the default that records nothing
+     */
+    public void setMetrics(MasterSlaveMetrics metrics) {
+        this.metrics = metrics != null ? metrics : MasterSlaveMetrics.NOOP;
+    }
+
+    /**
+     * @return the metrics implementation all the jobs report to
+     */
+    public MasterSlaveMetrics getMetrics() {
+        return metrics;
+    }
+
     private void startMasterSlaveThread(final String jobName, final MasterSlaveListener masterSlaveListener) {
-        Thread masterSlaveThread = new Thread(new MasterSlaveRunnable(jobName, masterSlaveListener), jobName + "_MasterSlaveThread");
-        masterSlaveThread.setDaemon(true);
+        registerShutdownHook();
+        MasterSlaveRunnable masterSlaveRunnable = new MasterSlaveRunnable(jobName, masterSlaveListener);
+        masterSlaveRunnables.put(jobName, masterSlaveRunnable);
+        threadController.put(jobName, Boolean.TRUE);
+
+        if (MasterSlaveConfigurationUtil.getMasterSlaveExecutionMode() == MasterSlaveExecutionMode.SCHEDULER) {
+            masterSlaveRunnable.schedule(getScheduler());
+            return;
+        }
+
+        Thread masterSlaveThread = MasterSlaveThreadFactory.newThread(jobName + "_MasterSlaveThread", masterSlaveRunnable);
         masterSlaveThread.start();
 
         masterSlaveThreads.put(jobName,masterSlaveThread);
-        threadController.put(jobName, Boolean.TRUE);
 
         masterSlaveThread.setUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
             @Override
@@ -70,19 +185,78 @@ public enum MasterSlaveRegistry {
 
     }
 
+    private ScheduledExecutorService getScheduler() {
+        if (scheduler == null) {
+            synchronized (this) {
+                if (scheduler == null) {
+                    int poolSize = MasterSlaveConfigurationUtil.getMasterSlaveSchedulerPoolSize();
+                    AtomicInteger threadNumber = new AtomicInteger(1);
+                    ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(poolSize, runnable -> {
+                        Thread thread = new Thread(runnable, "MasterSlaveScheduler-" + threadNumber.getAndIncrement());
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                    executor.setRemoveOnCancelPolicy(true);
+                    LOGGER.info("started shared master slave scheduler with {} threads", poolSize);
+                    scheduler = executor;
+                }
+            }
+        }
+        return scheduler;
+    }
+
+    private void registerShutdownHook() {
+        if (shutdownHookRegistered.compareAndSet(false, true)) {
+            //hand the mastership off so the standbys don't wait for our leases to expire. one hook for all jobs instead of a hook thread per job.
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                List<CompletableFuture<Void>> handoffs = new ArrayList<>();
+                for (String jobName : masterSlaveRunnables.keySet()) {
+                    threadController.put(jobName, Boolean.FALSE);
+                }
+                for (MasterSlaveRunnable masterSlaveRunnable : masterSlaveRunnables.values()) {
+                    handoffs.add(masterSlaveRunnable.stop());
+                }
+                try {
+                    CompletableFuture.allOf(handoffs.toArray(new CompletableFuture[0])).get(MasterSlaveConfigurationUtil.getHandoffTimeout(), TimeUnit.SECONDS);
+                } catch (Exception e) {
+                    LOGGER.error("problem handing off the mastership on shutdown. the standbys take over when the leases expire. error is: {}", e.toString());
+                }
+            }, "MasterSlaveShutdownHook"));
+        }
+    }
+
 
 
     /**
      * remove a listener and stop its thread. calling this method will revert the work done in the #addMasterSlaveListener method
+     * the job stops right away: if it is master, the listener gets a goSlave callback and the lease is released so a standby can take over without waiting for it to expire.
+     * use #removeMasterSlaveListenerAsync to wait for the handoff to complete.
      * @param jobName logical jobName of the work unit
      * @return true if successful. will return false if this method was called without a prior listener being added to the registry or if this moethod is called more than once.
      */
     public boolean removeMasterSlaveListener(String jobName) {
         threadController.put(jobName, Boolean.FALSE);
         masterSlaveThreads.remove(jobName);
+        MasterSlaveRunnable masterSlaveRunnable = masterSlaveRunnables.remove(jobName);
+        if (masterSlaveRunnable != null) {
+            masterSlaveRunnable.stop();
+        }
         return listeners.remove(jobName) != null;
     }
 
+    /**
+     * same as #removeMasterSlaveListener
+     * @param jobName logical jobName of the work unit
+     * @return a future completed once the mastership was handed off and the lease released. completed right away if the job is not registered
+     */
+    public CompletableFuture<Void> removeMasterSlaveListenerAsync(String jobName) {
+        threadController.put(jobName, Boolean.FALSE);
+        masterSlaveThreads.remove(jobName);
+        MasterSlaveRunnable masterSlaveRunnable = masterSlaveRunnables.remove(jobName);
+        listeners.remove(jobName);
+        return masterSlaveRunnable != null ? masterSlaveRunnable.stop() : CompletableFuture.completedFuture(null);
+    }
+
 
 }
 
@@ -1,20 +1,37 @@
 package com.cisco.oss.foundation.cluster.registry;
 
+import com.cisco.oss.foundation.cluster.jfr.ElectionTickEvent;
+import com.cisco.oss.foundation.cluster.jfr.MastershipTransitionEvent;
+import com.cisco.oss.foundation.cluster.masterslave.AsyncMastershipElector;
 import com.cisco.oss.foundation.cluster.masterslave.MastershipElector;
+import com.cisco.oss.foundation.cluster.masterslave.consul.AsyncConsulMastershipElector;
 import com.cisco.oss.foundation.cluster.masterslave.consul.ConsulMastershipElector;
 import com.cisco.oss.foundation.cluster.masterslave.consul.OpenstackConsulMastershipElector;
 import com.cisco.oss.foundation.cluster.masterslave.mongo.AsyncMongoMastershipElector;
 import com.cisco.oss.foundation.cluster.masterslave.mongo.MongoMastershipElector;
+import com.cisco.oss.foundation.cluster.masterslave.mongo.MongoSessionMastershipElector;
+import com.cisco.oss.foundation.cluster.metrics.ElectionOperation;
+import com.cisco.oss.foundation.cluster.metrics.MasterSlaveMetrics;
+import com.cisco.oss.foundation.cluster.metrics.SlaveReason;
 import com.cisco.oss.foundation.cluster.utils.MasterSlaveConfigurationUtil;
+import com.cisco.oss.foundation.cluster.utils.MasterSlaveMultiplicity;
+import com.cisco.oss.foundation.cluster.utils.MasterSlavePolicy;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Runnable to do all the logic of acquiring mastership.
  * There will be an instance per logical jobName invoked by #MasterSlaveRegistry.addMasterSlaveListener
+ * The runnable either owns a dedicated thread (see #run) or is ticked on a shared scheduler (see #schedule)
  * The runnable will query mongo and try to acquire a lock based on the componet-jobName, the logical jobName and the timestamp
  * Created by Yair Ogen (yaogen) on 24/01/2016.
  */
@@ -22,10 +39,29 @@ public class MasterSlaveRunnable implements Runnable {
     private static final Logger LOGGER = LoggerFactory.getLogger(MasterSlaveRunnable.class);
     private final String jobName;
     private MasterSlaveListener masterSlaveListener;
+    private final MasterSlaveListenerDispatcher listenerDispatcher;
+    private final MasterSlaveTickScheduler tickScheduler;
     private final String id;
-    static final ThreadLocal<Boolean> masterNextTimeInvoke = new ThreadLocal<>();
-    static final ThreadLocal<Boolean> slaveNextTimeInvoke = new ThreadLocal<>();
+    private final MasterSlaveState state = new MasterSlaveState();
     private final MastershipElector mastershipElector;
+    private String currentVersion;
+    private ScheduledExecutorService scheduler;
+    private volatile ScheduledFuture<?> nextTick;
+    private volatile boolean initialized = false;
+    //the fields below are guarded by this. a tick (or the init) runs from the moment it starts until it schedules the next one
+    private boolean wakeUpRequested = false;
+    private volatile boolean tickInFlight = false;
+    //a tick that was replaced by a wake-up while it was starting finds a newer generation and does nothing
+    private long tickGeneration = 0;
+    private final Semaphore wakeUpSignal = new Semaphore(0);
+    //completed once the elector is closed after the job was stopped
+    private final CompletableFuture<Void> closed = new CompletableFuture<>();
+    private final CompletableFuture<Void> stopRequested = new CompletableFuture<>();
+    private final AtomicBoolean handedOff = new AtomicBoolean(false);
+    //true for master, false for slave
+    private final CompletableFuture<Boolean> firstDecision = new CompletableFuture<>();
+    //when the job last became master
+    private volatile long masterSince = 0;
 
     private MastershipElector createElector() {
         String mastershipElectorImpl = MasterSlaveConfigurationUtil.getMasterSlaveImpl();
@@ -37,12 +73,18 @@ public class MasterSlaveRunnable implements Runnable {
             case "consul-openstack":{
                 return new OpenstackConsulMastershipElector();
             }
+            case "consul-async":{
+                return new AsyncConsulMastershipElector();
+            }
             case "async-mongo":{
                 return new AsyncMongoMastershipElector();
             }
             case "mongo":{
                 return new MongoMastershipElector();
             }
+            case "mongo-session":{
+                return new MongoSessionMastershipElector();
+            }
             default:{
                 try {
                     Class mastershipElectorImplClass = Class.forName(mastershipElectorImpl);
@@ -59,66 +101,556 @@ public class MasterSlaveRunnable implements Runnable {
         this.jobName = jobName;
         mastershipElector = createElector();
         this.masterSlaveListener = masterSlaveListener;
+        this.listenerDispatcher = new MasterSlaveListenerDispatcher(jobName, masterSlaveListener);
+        this.tickScheduler = new MasterSlaveTickScheduler(jobName);
         this.id = MasterSlaveConfigurationUtil.COMPONENT_NAME + "-" + jobName;
-
-        //cleanup so we don't keep zombie masters registered
-        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
-            @Override
-            public void run() {
-                mastershipElector.close();
-            }
-        }));
     }
 
     @Override
     public void run() {
 
-        masterNextTimeInvoke.set(Boolean.TRUE);
-        slaveNextTimeInvoke.set(Boolean.TRUE);
+        state.reset();
 
-        //sleep a bit until the async load and connection to DB is finished.
         try {
-            TimeUnit.SECONDS.sleep(2);
+            readyOrStopped().thenCompose(ready -> startJitter()).get();
         } catch (InterruptedException e) {
             LOGGER.error("INTERRUPTED");
+        } catch (ExecutionException e) {
+            //not reachable - readyOrStopped never fails
         }
 
-        Boolean runThread = MasterSlaveRegistry.INSTANCE.threadController.getOrDefault(jobName, Boolean.TRUE);
-        String currentVersion = mastershipElector.getActiveVersion();
-        mastershipElector.init(id, jobName);
+        Boolean runThread = isRunning();
+        initElector();
 
         while (runThread) {
 
-            int masterSlaveLeaseTime = MasterSlaveConfigurationUtil.getMasterSlaveLeaseTime(jobName);
-
             try {
 
-                chooseMaster(currentVersion);
+                electionTick();
 
-            } catch (Exception e) {
-                LOGGER.warn("problem running master slave thread for: {}. RETRYING ONCE. error is: {}", jobName, e, e);
-                try {
-                    chooseMaster(currentVersion);
-                } catch (Exception e1) {
-                    LOGGER.error("problem running master slave thread for: {}. error is: {}", jobName, e1, e1);
-                    if (slaveNextTimeInvoke.get()) {
-                        String message = e.getMessage();
-                        goSlave("Error: " + message != null ? message : e.getClass().getSimpleName());
-                    }
-                }
             } finally {
                 try {
-                    TimeUnit.MILLISECONDS.sleep(masterSlaveLeaseTime * 1000/2);
+                    //sleep until the next tick is due or until someone asks for an immediate election
+                    wakeUpSignal.tryAcquire(tickScheduler.nextDelay(), TimeUnit.MILLISECONDS);
+                    wakeUpSignal.drainPermits();
                 } catch (InterruptedException e) {
                     //ignore
                 }
-                runThread = MasterSlaveRegistry.INSTANCE.threadController.getOrDefault(jobName, Boolean.TRUE);
+                runThread = isRunning();
             }
 
         }
 
         //if we get here, we were stopped. we should clean-up
-        mastershipElector.close();
+        handoff();
+    }
+
+    /**
+     * run the mastership loop as a sequence of ticks on a shared scheduler instead of a dedicated thread.
+     * a pool thread is only held while a tick is actually running.
+     * @param scheduler the process wide scheduler
+     */
+    void schedule(ScheduledExecutorService scheduler) {
+        this.scheduler = scheduler;
+        state.reset();
+
+        //wait for the backend without holding a pool thread
+        synchronized (this) {
+            tickInFlight = true;
+        }
+        readyOrStopped().thenCompose(ready -> startJitter()).whenCompleteAsync((result, e) -> scheduledInit(), scheduler);
+    }
+
+    /**
+     * @return a future completed when the elector backend is ready or the job is stopped, whichever comes first.
+     * the ticks check readiness anyway, so it does not wait longer than a tick interval. it never completes exceptionally
+     */
+    private CompletableFuture<Void> readyOrStopped() {
+        return CompletableFuture.anyOf(mastershipElector.whenReady(), stopRequested)
+                .handle((result, e) -> (Void) null)
+                .completeOnTimeout(null, policy().getTickInterval(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return a future completed after the start jitter of the first tick, or earlier if the job is stopped. it never completes exceptionally
+     */
+    private CompletableFuture<Void> startJitter() {
+        CompletableFuture<Void> jitter = new CompletableFuture<Void>().completeOnTimeout(null, tickScheduler.initialDelay(), TimeUnit.MILLISECONDS);
+        return CompletableFuture.anyOf(jitter, stopRequested).handle((result, e) -> (Void) null);
+    }
+
+    /**
+     * a backend that got ready after we stopped waiting for it is used right away instead of on the next tick
+     */
+    private void wakeUpWhenReady() {
+        CompletableFuture<Void> ready = mastershipElector.whenReady();
+        if (!ready.isDone()) {
+            ready.thenRun(this::wakeUp);
+        }
+    }
+
+    private void scheduledInit() {
+        if (mastershipElector instanceof AsyncMastershipElector) {
+            currentVersion = mastershipElector.getActiveVersion();
+            ((AsyncMastershipElector) mastershipElector).initAsync(id, jobName).whenCompleteAsync((result, e) -> {
+                if (e != null) {
+                    LOGGER.error("problem initializing mastership elector for job: {}. error is: {}", jobName, e, e);
+                }
+                initialized = true;
+                wakeUpWhenReady();
+                tick();
+            }, scheduler);
+            return;
+        }
+
+        try {
+            initElector();
+        } catch (Exception e) {
+            LOGGER.error("problem initializing mastership elector for job: {}. error is: {}", jobName, e, e);
+        }
+        tick();
+    }
+
+    /**
+     * schedule the tick of the given generation. the caller holds the lock
+     */
+    private void scheduleTick(long delay) {
+        long generation = ++tickGeneration;
+        nextTick = scheduler.schedule(() -> scheduledTick(generation), delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void scheduledTick(long generation) {
+        synchronized (this) {
+            if (generation != tickGeneration || tickInFlight) {
+                return;
+            }
+            tickInFlight = true;
+        }
+        tick();
+    }
+
+    /**
+     * one tick on the scheduler. only called while tickInFlight is set, so ticks of the job never overlap
+     */
+    private void tick() {
+
+        if (!isRunning()) {
+            //we were stopped. we should clean-up
+            synchronized (this) {
+                tickInFlight = false;
+            }
+            handoffAsync();
+            return;
+        }
+
+        if (mastershipElector instanceof AsyncMastershipElector) {
+            //the pool thread is released as soon as the first db call is sent. the next tick is scheduled when the chain completes.
+            tickScheduler.tickStarted();
+            long start = System.nanoTime();
+            ElectionTickEvent event = ElectionTickEvent.start(jobName);
+            electionTickAsync((AsyncMastershipElector) mastershipElector).whenCompleteAsync((success, e) -> {
+                tickScheduler.tickEnded();
+                recordOperation(ElectionOperation.TICK, start, e == null && success);
+                event.end(e == null && success, state.isMaster());
+                if (e != null) {
+                    LOGGER.error("Error running master slave tick for Job: {} . error is: {}", jobName, e, e);
+                }
+                scheduleNextTick();
+            }, scheduler);
+            return;
+        }
+
+        try {
+            electionTick();
+        } catch (Throwable e) {
+            LOGGER.error("Error running master slave tick for Job: {} . error is: {}", jobName, e, e);
+        } finally {
+            scheduleNextTick();
+        }
+    }
+
+    private void scheduleNextTick() {
+        boolean running;
+        synchronized (this) {
+            //read under the lock - a stop either sees this tick in flight or the tick scheduled here
+            running = isRunning();
+            if (running) {
+                scheduleTick(wakeUpRequested ? 0 : tickScheduler.nextDelay());
+                wakeUpRequested = false;
+            }
+            tickInFlight = false;
+        }
+        if (!running) {
+            handoffAsync();
+        }
+    }
+
+    /**
+     * give up the mastership on the mastership loop: tell the listener it is slave, wait (up to the listener timeout) for the callback to return
+     * and release the lease/lock so a standby can take over right away instead of waiting for the lease to expire.
+     */
+    private void handoff() {
+        if (!handedOff.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            handoffListener().get();
+        } catch (Exception e) {
+            LOGGER.warn("problem handing off the mastership of job: {}. error is: {}", jobName, e.toString());
+        }
+        try {
+            mastershipElector.close();
+        } catch (Exception e) {
+            LOGGER.warn("problem closing mastership elector for job: {}. error is: {}", jobName, e.toString());
+        }
+        firstDecision.cancel(false);
+        closed.complete(null);
+    }
+
+    /**
+     * same as #handoff without blocking a scheduler thread
+     */
+    private void handoffAsync() {
+        if (!handedOff.compareAndSet(false, true)) {
+            return;
+        }
+        handoffListener().handle((result, e) -> {
+            if (mastershipElector instanceof AsyncMastershipElector) {
+                return ((AsyncMastershipElector) mastershipElector).closeAsync();
+            }
+            mastershipElector.close();
+            return CompletableFuture.<Void>completedFuture(null);
+        }).thenCompose(future -> future).whenComplete((result, e) -> {
+            if (e != null) {
+                LOGGER.warn("problem closing mastership elector for job: {}. error is: {}", jobName, e.toString());
+            }
+            firstDecision.cancel(false);
+            closed.complete(null);
+        });
+    }
+
+    private CompletableFuture<Void> handoffListener() {
+        if (!state.isMaster()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        LOGGER.info("job: {} is stopping - handing off the mastership", jobName);
+        state.markSlave();
+        recordSlave(SlaveReason.STOPPED, true, null);
+        //the lease is released by close. don't let a slow listener keep the standbys waiting forever
+        return announceHandoff().thenCompose(announced -> listenerDispatcher.goSlave()).completeOnTimeout(null, listenerDispatcher.getTimeout(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * let the standbys prepare for the mastership while the listener winds down
+     * @return a future completed once the handoff was announced. it never completes exceptionally
+     */
+    private CompletableFuture<Void> announceHandoff() {
+        if (policy().getStandbyPrepareTime() == 0) {
+            return CompletableFuture.completedFuture(null);
+        }
+        try {
+            if (scheduler != null && mastershipElector instanceof AsyncMastershipElector) {
+                //the listener is called on a scheduler thread and never on a driver thread
+                return ((AsyncMastershipElector) mastershipElector).announceHandoffAsync()
+                        .handleAsync((result, e) -> {
+                            if (e != null) {
+                                LOGGER.warn("problem announcing the handoff of job: {}. error is: {}", jobName, e.toString());
+                            }
+                            return (Void) null;
+                        }, scheduler);
+            }
+            mastershipElector.announceHandoff();
+        } catch (Exception e) {
+            LOGGER.warn("problem announcing the handoff of job: {}. error is: {}", jobName, e.toString());
+        }
+        return CompletableFuture.completedFuture(null);
+    }
+
+    /**
+     * stop the mastership loop now instead of after the current sleep. the loop hands the mastership off and closes the elector once, after its last tick.
+     * @return a future completed once the elector is closed
+     */
+    CompletableFuture<Void> stop() {
+        stopRequested.complete(null);
+        if (scheduler == null) {
+            wakeUpSignal.release();
+        } else {
+            synchronized (this) {
+                //a running tick (or the init) hands off once it is done, so the handoff always comes after the last tick
+                ScheduledFuture<?> scheduledTick = nextTick;
+                if (!tickInFlight && scheduledTick != null && scheduledTick.cancel(false)) {
+                    //a pending tick (or the initial delay) - run the stop now
+                    scheduleTick(0);
+                }
+            }
+        }
+        return closed;
+    }
+
+    /**
+     * run the next election tick now instead of waiting for the lease based interval.
+     * used when a backend notifies us that the mastership state may have changed.
+     */
+    void wakeUp() {
+        if (!initialized) {
+            return;
+        }
+        if (scheduler == null) {
+            if (wakeUpSignal.availablePermits() == 0) {
+                wakeUpSignal.release();
+            }
+            return;
+        }
+        synchronized (this) {
+            if (tickInFlight) {
+                //a tick is running right now - the next one will be scheduled immediately
+                wakeUpRequested = true;
+                return;
+            }
+            //cancel only tells whether the pending tick is done. one that already started finds a newer generation
+            ScheduledFuture<?> scheduledTick = nextTick;
+            if (scheduledTick != null && scheduledTick.cancel(false)) {
+                scheduleTick(0);
+            }
+        }
+    }
+
+    /**
+     * @return true if this job has a pending or running tick on the shared scheduler
+     */
+    boolean isScheduled() {
+        ScheduledFuture<?> scheduledTick = nextTick;
+        return tickInFlight || (scheduledTick != null && !scheduledTick.isDone());
+    }
+
+    /**
+     * @return a future completed with the first mastership decision of this job - true for master, false for slave. cancelled if the job stops before deciding
+     */
+    CompletableFuture<Boolean> getFirstDecision() {
+        return firstDecision;
+    }
+
+    /**
+     * @return how long the last goMaster/goSlave callback of this job took, in milliseconds
+     */
+    long getLastCallbackDuration() {
+        return listenerDispatcher.getLastCallbackDuration();
+    }
+
+    /**
+     * @return the time left on the lease of this job in nanoseconds. 0 if it is not master or its lease expired.
+     * the lease confirmed by the last tick, and never longer than the lease the elector holds on the backend right now
+     */
+    long getLeaseRemaining() {
+        long leaseRemaining = state.leaseRemaining();
+        if (leaseRemaining > 0) {
+            //a session based elector renews the session on its own heartbeat - a tick that only read the lock does not extend it
+            long backendLease = mastershipElector.getLeaseRemaining();
+            if (backendLease >= 0) {
+                leaseRemaining = Math.min(leaseRemaining, TimeUnit.MILLISECONDS.toNanos(backendLease));
+            }
+        }
+        return leaseRemaining;
+    }
+
+    /**
+     * @return the fencing epoch of the mastership of this job. -1 if it is not master or the elector does not support epochs
+     */
+    long getEpoch() {
+        return state.getEpoch();
+    }
+
+    /**
+     * @return the current configuration snapshot of this job. replaced when the configuration changes
+     */
+    private MasterSlavePolicy policy() {
+        return MasterSlavePolicy.forJob(jobName);
+    }
+
+    private boolean isRunning() {
+        return MasterSlaveRegistry.INSTANCE.threadController.getOrDefault(jobName, Boolean.TRUE);
+    }
+
+    private void initElector() {
+        currentVersion = mastershipElector.getActiveVersion();
+        mastershipElector.init(id, jobName);
+        initialized = true;
+        wakeUpWhenReady();
+    }
+
+    private void electionTick() {
+        tickScheduler.tickStarted();
+        long start = System.nanoTime();
+        ElectionTickEvent event = ElectionTickEvent.start(jobName);
+        boolean success = true;
+        try {
+
+            chooseMaster(currentVersion);
+
+        } catch (Exception e) {
+            LOGGER.warn("problem running master slave thread for: {}. RETRYING ONCE. error is: {}", jobName, e, e);
+            try {
+                chooseMaster(currentVersion);
+            } catch (Exception e1) {
+                success = false;
+                LOGGER.error("problem running master slave thread for: {}. error is: {}", jobName, e1, e1);
+                onTickFailed(e1);
+            }
+        } finally {
+            if (success) {
+                state.tickSucceeded();
+            }
+            tickScheduler.tickEnded();
+            recordOperation(ElectionOperation.TICK, start, success);
+            event.end(success, state.isMaster());
+        }
+    }
+
+    /**
+     * @return a future completed with false if the tick failed even after the retry. it never completes exceptionally
+     */
+    private CompletableFuture<Boolean> electionTickAsync(AsyncMastershipElector elector) {
+        return chooseMasterAsync(elector).handleAsync((result, e) -> {
+            if (e == null) {
+                state.tickSucceeded();
+                return CompletableFuture.completedFuture(true);
+            }
+            LOGGER.warn("problem running master slave tick for: {}. RETRYING ONCE. error is: {}", jobName, e, e);
+            return chooseMasterAsync(elector).handleAsync((retryResult, e1) -> {
+                if (e1 != null) {
+                    LOGGER.error("problem running master slave tick for: {}. error is: {}", jobName, e1, e1);
+                    onTickFailed(e1);
+                    return false;
+                }
+                state.tickSucceeded();
+                return true;
+            }, scheduler);
+        }, scheduler).thenCompose(future -> future);
+    }
+
+    private static String errorMessage(Throwable e) {
+        String message = e.getMessage();
+        return message != null ? message : e.getClass().getSimpleName();
+    }
+
+    /**
+     * same decisions as #chooseMaster. the listener is always called on a scheduler thread and never on a driver thread.
+     */
+    private CompletableFuture<Void> chooseMasterAsync(AsyncMastershipElector elector) {
+
+        return isActiveDCAsync(elector).thenComposeAsync(isActiveDC -> {
+
+            if (!isActiveDC) {
+                //Not active Datacenter
+                demote(SlaveReason.NOT_ACTIVE_DATA_CENTER, null);
+                return CompletableFuture.<Void>completedFuture(null);
+            }
+
+            if (!elector.isReady() || (elector.isLeaseTakenByVersionCheck() && holdSlave())) {
+                return CompletableFuture.<Void>completedFuture(null);
+            }
+
+            long versionStart = System.nanoTime();
+            return recordWhenDone(ElectionOperation.IS_ACTIVE_VERSION, versionStart, elector.isActiveVersionAsync(currentVersion)).thenComposeAsync(isActiveVersion -> {
+
+                if (!isActiveVersion) {
+                    //Not active version
+                    demote(SlaveReason.NOT_ACTIVE_VERSION, null);
+                    return CompletableFuture.<Void>completedFuture(null);
+                }
+
+                if (policy().getMultiplicity() == MasterSlaveMultiplicity.MULTI) {
+                    onMultiMaster();
+                    return CompletableFuture.<Void>completedFuture(null);
+                }
+
+                if (holdSlave()) {
+                    return CompletableFuture.<Void>completedFuture(null);
+                }
+
+                long masterStart = System.nanoTime();
+                return recordWhenDone(ElectionOperation.IS_MASTER, masterStart, elector.isMasterAsync()).thenAcceptAsync(isMaster -> onMasterResult(isMaster, masterStart), scheduler);
+            }, scheduler);
+        }, scheduler);
+    }
+
+    private CompletableFuture<Boolean> isActiveDCAsync(AsyncMastershipElector elector) {
+
+        //if we don't need to be single across datacetners we're in active DC for all we care.
+        String currentDC = MasterSlaveConfigurationUtil.ACTIVE_DATA_CENTER;
+        if (!policy().isSingleAcrossMDC() || StringUtils.isBlank(currentDC)) {
+            return CompletableFuture.completedFuture(true);
+        }
+
+        CompletableFuture<Boolean> isActiveDataCenter;
+        long start = System.nanoTime();
+        try {
+            isActiveDataCenter = elector.isActiveDataCenterAsync(currentDC);
+        } catch (Exception e) {
+            isActiveDataCenter = new CompletableFuture<>();
+            isActiveDataCenter.completeExceptionally(e);
+        }
+        return recordWhenDone(ElectionOperation.IS_ACTIVE_DATA_CENTER, start, isActiveDataCenter).exceptionally(e -> {
+            //if this fails  for any reason we treat this as a non DC supported environment.
+            LOGGER.error("problem reading datacenter collection - assuming in active DC");
+            return true;
+        });
+    }
+
+    /**
+     * @param masterStart System.nanoTime() before the elector was asked
+     */
+    private void onMasterResult(boolean isMaster, long masterStart) {
+        if (state.isMaster()) {
+            metrics().recordLeaseRenewal(jobName, isMaster);
+        }
+        if (isMaster) {
+            state.renewLease(masterStart, TimeUnit.SECONDS.toNanos(policy().getLeaseTime()));
+            long previousEpoch = state.setEpoch(mastershipElector.getEpoch());
+            if (state.isMasterNextTimeInvoke()) {
+                goMaster();
+            } else if (previousEpoch != state.getEpoch()) {
+                //the lock was lost and taken back between two ticks
+                LOGGER.info("job: {} is still master with a new epoch: {}. previous epoch: {}", jobName, state.getEpoch(), previousEpoch);
+            }
+        } else {
+            if (state.isSlaveNextTimeInvoke()) {
+                goSlave(SlaveReason.NOT_MASTER, null);
+            }
+            prepareStandby();
+        }
+    }
+
+    /**
+     * ask the listener to prepare for the mastership once the lease of the master is about to expire or the master announced a handoff.
+     * only standbys that just tried to take the lease get here - not the ones in an inactive version or datacenter or held by 'masterSlave.minRoleTime'
+     */
+    private void prepareStandby() {
+        int prepareTime = policy().getStandbyPrepareTime();
+        if (prepareTime == 0) {
+            return;
+        }
+        long masterLeaseRemaining = mastershipElector.getMasterLeaseRemaining();
+        if (masterLeaseRemaining < 0 || masterLeaseRemaining > TimeUnit.SECONDS.toMillis(prepareTime)) {
+            state.clearPrepared();
+            return;
+        }
+        if (state.markPrepared()) {
+            LOGGER.info("job: {} is preparing for the mastership. the lease of the master expires in: {} ms", jobName, masterLeaseRemaining);
+            listenerDispatcher.prepareForMastership(masterLeaseRemaining);
+        }
+    }
+
+    /**
+     * a multi job has no lease to renew - every instance in the active version and data center is master.
+     * the local lease is extended from now so #isMaster still expires if the ticks stop confirming it.
+     */
+    private void onMultiMaster() {
+        state.renewLease(System.nanoTime(), TimeUnit.SECONDS.toNanos(policy().getLeaseTime()));
+        state.setEpoch(-1);
+        if (state.isMasterNextTimeInvoke()) {
+            goMaster();
+        }
     }
 
     private void chooseMaster(String currentVersion) {
@@ -127,50 +659,132 @@ public class MasterSlaveRunnable implements Runnable {
 
         if (isActiveDC && mastershipElector.isReady()) {
 
+            if (mastershipElector.isLeaseTakenByVersionCheck() && holdSlave()) {
+                return;
+            }
+
             //if anything fails - fallback to activeVersion is true
-            boolean isActiveVersion = mastershipElector.isActiveVersion(currentVersion);
+            boolean isActiveVersion = checkActiveVersion(currentVersion);
 
             if (isActiveVersion) {
 
-                switch (MasterSlaveConfigurationUtil.getMasterSlaveMultiplicity(jobName)) {
+                switch (policy().getMultiplicity()) {
                     case SINGLE: {
 //                        chooseMasterBasedOnLease(masterSlaveLeaseTime, leaseRenewed, masterSlaveCollection, document);
-                        if (mastershipElector.isMaster()) {
-                            if (masterNextTimeInvoke.get()) {
-                                goMaster();
-                            }
-                        } else {
-                            if (slaveNextTimeInvoke.get()) {
-                                goSlave("is-master logic returned false");
-                            }
-                        }
+                        electMaster();
                         break;
                     }
                     case MULTI: {
-                        if (masterNextTimeInvoke.get()) {
-                            goMaster();
-                        }
+                        onMultiMaster();
                         break;
                     }
                     default: {
-                        if (mastershipElector.isMaster()) {
-                            if (masterNextTimeInvoke.get()) {
-                                goMaster();
-                            }
-                        } else {
-                            if (slaveNextTimeInvoke.get()) {
-                                goSlave("is-master logic returned false");
-                            }
-                        }
+                        electMaster();
                     }
                 }
 
 
-            } else if (slaveNextTimeInvoke.get()) { //Not active version
-                goSlave("Not Active Version");
+            } else { //Not active version
+                demote(SlaveReason.NOT_ACTIVE_VERSION, null);
             }
-        } else if (!isActiveDC && slaveNextTimeInvoke.get()) { //Not active Datacenter
-            goSlave("Not Active DC");
+        } else if (!isActiveDC) { //Not active Datacenter
+            demote(SlaveReason.NOT_ACTIVE_DATA_CENTER, null);
+        }
+    }
+
+    private void electMaster() {
+        if (holdSlave()) {
+            return;
+        }
+        long masterStart = System.nanoTime();
+        onMasterResult(checkMaster(masterStart), masterStart);
+    }
+
+    /**
+     * @return true if this slave should not try to take the mastership yet - it turned into slave less than 'masterSlave.minRoleTime' ago
+     */
+    private boolean holdSlave() {
+        if (state.isSlave() && !roleHeld(policy())) {
+            LOGGER.trace("job: {} turned into slave {} ms ago. not taking the mastership yet", jobName, TimeUnit.NANOSECONDS.toMillis(state.roleTime()));
+            return true;
+        }
+        return false;
+    }
+
+    private boolean roleHeld(MasterSlavePolicy policy) {
+        return state.roleTime() >= TimeUnit.SECONDS.toNanos(policy.getMinRoleTime());
+    }
+
+    private void onTickFailed(Throwable e) {
+        state.tickFailed();
+        demote(SlaveReason.ERROR, errorMessage(e));
+    }
+
+    /**
+     * turn into slave unless the flap damping keeps the mastership for now. a master that lost its lock (NOT_MASTER) turns into slave right away and does not get here
+     */
+    private void demote(SlaveReason reason, String detail) {
+        if (!state.isSlaveNextTimeInvoke()) {
+            //already slave
+            return;
+        }
+        if (state.isMaster() && keepMastership(reason)) {
+            return;
+        }
+        goSlave(reason, detail);
+    }
+
+    /**
+     * @return true if the master should stay master despite the reason. never once its lease expired - another instance may hold it by now
+     */
+    private boolean keepMastership(SlaveReason reason) {
+        long leaseRemaining = getLeaseRemaining();
+        if (leaseRemaining == 0) {
+            return false;
+        }
+        MasterSlavePolicy policy = policy();
+        boolean keep = !roleHeld(policy);
+        if (reason == SlaveReason.ERROR) {
+            keep = keep || policy.isKeepMasterWhileLeaseValid() || state.getTickFailures() < policy.getFailuresBeforeSlave();
+        }
+        if (keep) {
+            LOGGER.warn("job: {} stays master although: {}. consecutive failed ticks: {}, lease remaining: {} ms", jobName, reason.description(), state.getTickFailures(), TimeUnit.NANOSECONDS.toMillis(leaseRemaining));
+        }
+        return keep;
+    }
+
+    private boolean checkActiveVersion(String currentVersion) {
+        long start = System.nanoTime();
+        boolean success = false;
+        try {
+            boolean isActiveVersion = mastershipElector.isActiveVersion(currentVersion);
+            success = true;
+            return isActiveVersion;
+        } finally {
+            recordOperation(ElectionOperation.IS_ACTIVE_VERSION, start, success);
+        }
+    }
+
+    private boolean checkMaster(long start) {
+        boolean success = false;
+        try {
+            boolean isMaster = mastershipElector.isMaster();
+            success = true;
+            return isMaster;
+        } finally {
+            recordOperation(ElectionOperation.IS_MASTER, start, success);
+        }
+    }
+
+    private boolean checkActiveDataCenter(String currentDC) {
+        long start = System.nanoTime();
+        boolean success = false;
+        try {
+            boolean isActiveDataCenter = mastershipElector.isActiveDataCenter(currentDC);
+            success = true;
+            return isActiveDataCenter;
+        } finally {
+            recordOperation(ElectionOperation.IS_ACTIVE_DATA_CENTER, start, success);
         }
     }
 
@@ -197,25 +811,81 @@ public class MasterSlaveRunnable implements Runnable {
 
     public void goMaster() {
         LOGGER.debug("{} is going to turn into master", MasterSlaveConfigurationUtil.INSTANCE_ID);
-        masterNextTimeInvoke.set(Boolean.FALSE);
-        slaveNextTimeInvoke.set(Boolean.TRUE);
-        masterSlaveListener.goMaster();
-        LOGGER.info("{} is now master", MasterSlaveConfigurationUtil.INSTANCE_ID);
+        state.markMaster();
+        masterSince = System.currentTimeMillis();
+        //recorded before the first decision completes, so whoever waits for it sees the transition
+        MasterSlaveMetrics metrics = metrics();
+        metrics.recordTransition(jobName, true);
+        MastershipTransitionEvent.emit(jobName, true, null, state.getEpoch());
+        long takeoverDelay = mastershipElector.getTakeoverDelay();
+        if (takeoverDelay >= 0) {
+            metrics.recordTakeover(jobName, takeoverDelay);
+        }
+        firstDecision.complete(true);
+        long epoch = state.getEpoch();
+        listenerDispatcher.goMaster(epoch);
+        LOGGER.info("{} is now master. epoch: {}", MasterSlaveConfigurationUtil.INSTANCE_ID, epoch);
     }
 
+    /**
+     * @param reason why the job turns into slave. a reason that isn't the description of a #SlaveReason is recorded as NOT_MASTER with the reason as its detail
+     */
     public void goSlave(String reason) {
+        for (SlaveReason slaveReason : SlaveReason.values()) {
+            if (slaveReason.description().equals(reason)) {
+                goSlave(slaveReason, null);
+                return;
+            }
+        }
+        goSlave(SlaveReason.NOT_MASTER, reason);
+    }
+
+    /**
+     * @param reason why the job turns into slave
+     * @param detail more about the reason for the log, e.g. the error message. may be null
+     */
+    public void goSlave(SlaveReason reason, String detail) {
         LOGGER.debug("{} is going to turn into slave", MasterSlaveConfigurationUtil.INSTANCE_ID);
-        slaveNextTimeInvoke.set(Boolean.FALSE);
-        masterNextTimeInvoke.set(Boolean.TRUE);
+        boolean wasMaster = state.isMaster();
+        state.markSlave();
+        recordSlave(reason, wasMaster, detail);
+        firstDecision.complete(false);
         mastershipElector.cleanupMaster();
-        masterSlaveListener.goSlave();
-        LOGGER.info("{} is now slave. Reason: {}", MasterSlaveConfigurationUtil.INSTANCE_ID, reason);
+        listenerDispatcher.goSlave();
+        LOGGER.info("{} is now slave. Reason: {}", MasterSlaveConfigurationUtil.INSTANCE_ID, detail != null ? reason.description() + ": " + detail : reason.description());
+    }
+
+    private void recordSlave(SlaveReason reason, boolean wasMaster, String detail) {
+        MasterSlaveMetrics metrics = metrics();
+        if (wasMaster) {
+            metrics.recordMastershipDuration(jobName, System.currentTimeMillis() - masterSince);
+        }
+        metrics.recordTransition(jobName, false);
+        metrics.recordSlaveReason(jobName, reason);
+        MastershipTransitionEvent.emit(jobName, false, detail != null ? reason.description() + ": " + detail : reason.description(), -1);
+    }
+
+    private void recordOperation(ElectionOperation operation, long start, boolean success) {
+        MasterSlaveMetrics metrics = metrics();
+        metrics.recordOperation(jobName, operation, System.nanoTime() - start, success);
+        if (operation == ElectionOperation.IS_MASTER && !success && state.isMaster()) {
+            //the master could not renew its lease
+            metrics.recordLeaseRenewal(jobName, false);
+        }
+    }
+
+    private <T> CompletableFuture<T> recordWhenDone(ElectionOperation operation, long start, CompletableFuture<T> future) {
+        return future.whenComplete((result, e) -> recordOperation(operation, start, e == null));
+    }
+
+    private static MasterSlaveMetrics metrics() {
+        return MasterSlaveRegistry.INSTANCE.getMetrics();
     }
 
     private boolean isActiveDC() {
 
         //if we don't need to be single across datacetners we're in active DC for all we care.
-        if (!MasterSlaveConfigurationUtil.isSingleAcrossMDC(jobName)) {
+        if (!policy().isSingleAcrossMDC()) {
             return true;
         }
 
@@ -224,7 +894,7 @@ public class MasterSlaveRunnable implements Runnable {
             return true;
         } else {
             try {
-                return mastershipElector.isActiveDataCenter(currentDC);
+                return checkActiveDataCenter(currentDC);
             } catch (Exception e) {
                 //if this fails  for any reason we treat this as a non DC supported environment.
                 LOGGER.error("problem reading datacenter collection - assuming in active DC");
@@ -0,0 +1,131 @@
+package com.cisco.oss.foundation.cluster.registry;
+
+/**
+ * Per job mastership state. Replaces the thread local flags that only worked while every job owned its thread.
+ * The state is only mutated by the job's own ticks, which never run concurrently, but may be read from other threads.
+ */
+class MasterSlaveState {
+
+    private volatile boolean masterNextTimeInvoke = true;
+    private volatile boolean slaveNextTimeInvoke = true;
+    //System.nanoTime() at which the lease of the last successful renewal expires. only meaningful while master
+    private volatile long leaseDeadline;
+    //fencing epoch of the current mastership. only meaningful while master
+    private volatile long epoch = -1;
+    //System.nanoTime() of the last transition
+    private volatile long roleSince = System.nanoTime();
+    //consecutive failed ticks. only touched by the ticks
+    private int tickFailures = 0;
+    //the listener was asked to prepare for the expiring lease of the current master
+    private volatile boolean prepared = false;
+
+    boolean isMasterNextTimeInvoke() {
+        return masterNextTimeInvoke;
+    }
+
+    boolean isSlaveNextTimeInvoke() {
+        return slaveNextTimeInvoke;
+    }
+
+    boolean isMaster() {
+        return !masterNextTimeInvoke;
+    }
+
+    /**
+     * @param renewedAt System.nanoTime() before the renewal was sent - the lease the backend holds can't be older than that
+     * @param leaseNanos the lease time
+     */
+    void renewLease(long renewedAt, long leaseNanos) {
+        leaseDeadline = renewedAt + leaseNanos;
+    }
+
+    /**
+     * @return the time left on the lease in nanoseconds. 0 if not master or the lease expired
+     */
+    long leaseRemaining() {
+        if (!isMaster()) {
+            return 0;
+        }
+        //a difference of nanoTime values, so it survives the counter wrapping around
+        return Math.max(0, leaseDeadline - System.nanoTime());
+    }
+
+    long getEpoch() {
+        return isMaster() ? epoch : -1;
+    }
+
+    /**
+     * @return the previous epoch
+     */
+    long setEpoch(long epoch) {
+        long previous = this.epoch;
+        this.epoch = epoch;
+        return previous;
+    }
+
+    /**
+     * @return true once the job turned into slave, false while master or before the first decision
+     */
+    boolean isSlave() {
+        return !slaveNextTimeInvoke;
+    }
+
+    /**
+     * @return nanoseconds since the last transition
+     */
+    long roleTime() {
+        return System.nanoTime() - roleSince;
+    }
+
+    /**
+     * @return the number of consecutive failed ticks including this one
+     */
+    int tickFailed() {
+        return ++tickFailures;
+    }
+
+    int getTickFailures() {
+        return tickFailures;
+    }
+
+    void tickSucceeded() {
+        tickFailures = 0;
+    }
+
+    /**
+     * @return true if the listener was not asked to prepare for the mastership yet. false if it was
+     */
+    boolean markPrepared() {
+        if (prepared) {
+            return false;
+        }
+        prepared = true;
+        return true;
+    }
+
+    /**
+     * the master renewed its lease - the next time it is about to expire the listener is asked again
+     */
+    void clearPrepared() {
+        prepared = false;
+    }
+
+    void markMaster() {
+        masterNextTimeInvoke = false;
+        slaveNextTimeInvoke = true;
+        roleSince = System.nanoTime();
+        prepared = false;
+    }
+
+    void markSlave() {
+        slaveNextTimeInvoke = false;
+        masterNextTimeInvoke = true;
+        roleSince = System.nanoTime();
+        prepared = false;
+    }
+
+    void reset() {
+        masterNextTimeInvoke = true;
+        slaveNextTimeInvoke = true;
+    }
+}
@@ -0,0 +1,85 @@
+package com.cisco.oss.foundation.cluster.registry;
+
+import com.cisco.oss.foundation.cluster.utils.MasterSlaveConfigurationUtil;
+import com.cisco.oss.foundation.cluster.utils.MasterSlavePolicy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides when the next election tick of one job runs.
+ * Every interval is shortened by a random jitter so the jobs of all the instances don't hit the backend in lockstep after a rolling restart.
+ * The first tick runs as soon as the backend is ready, after a small random delay bounded by #MAX_START_JITTER so the instances started together are spread
+ * while the time to the first master stays close to the backend round trip.
+ * The duration of the ticks (the backend round trips of the elector) is tracked and the interval is tightened when the backend is slow,
+ * so the lease is still renewed before it expires. It relaxes back towards half the lease time when the backend is fast again.
+ */
+class MasterSlaveTickScheduler {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MasterSlaveTickScheduler.class);
+    //weight of the newest sample in the smoothed tick duration
+    private static final double RTT_WEIGHT = 0.2;
+    //the start jitter is a fraction of the tick interval, but never more than this
+    private static final long MAX_START_JITTER = 1000;
+
+    private final String jobName;
+    private final double jitter;
+    private final boolean adaptive;
+    private volatile double smoothedRtt = -1;
+    //System.nanoTime of the start of the running tick - the round trip must not follow the wall clock
+    private volatile long tickStart = 0;
+    private volatile boolean tickStarted = false;
+
+    MasterSlaveTickScheduler(String jobName) {
+        this.jobName = jobName;
+        this.jitter = Math.max(0, Math.min(1, MasterSlaveConfigurationUtil.getTickJitter()));
+        this.adaptive = MasterSlaveConfigurationUtil.isTickAdaptive();
+    }
+
+    void tickStarted() {
+        tickStart = System.nanoTime();
+        tickStarted = true;
+    }
+
+    void tickEnded() {
+        if (!adaptive || !tickStarted) {
+            return;
+        }
+        double rtt = (System.nanoTime() - tickStart) / (double) TimeUnit.MILLISECONDS.toNanos(1);
+        double previous = smoothedRtt;
+        smoothedRtt = previous < 0 ? rtt : previous + RTT_WEIGHT * (rtt - previous);
+    }
+
+    /**
+     * @return the delay in milliseconds before the first tick, once the backend is ready
+     */
+    long initialDelay() {
+        return (long) (ThreadLocalRandom.current().nextDouble() * jitter * Math.min(policy().getTickInterval(), MAX_START_JITTER));
+    }
+
+    /**
+     * @return the delay in milliseconds before the next tick
+     */
+    long nextDelay() {
+        MasterSlavePolicy policy = policy();
+        long interval = policy.getTickInterval();
+        double rtt = smoothedRtt;
+        if (adaptive && rtt > 0) {
+            //two ticks, each with its round trip, must fit in the lease so one failed renewal is not fatal. but tick at most 4 times per lease
+            long safeInterval = (long) (interval - rtt);
+            long adaptedInterval = Math.max(policy.getLeaseTime() * 1000L / 4, Math.min(interval, safeInterval));
+            if (adaptedInterval < interval) {
+                LOGGER.debug("backend is slow for job: {} - tick took {} ms on average. ticking every {} ms instead of {} ms", jobName, (long) rtt, adaptedInterval, interval);
+            }
+            interval = adaptedInterval;
+        }
+        //only shorten the interval so the jitter never delays a renewal
+        return interval - (long) (ThreadLocalRandom.current().nextDouble() * jitter * interval);
+    }
+
+    private MasterSlavePolicy policy() {
+        return MasterSlavePolicy.forJob(jobName);
+    }
+}
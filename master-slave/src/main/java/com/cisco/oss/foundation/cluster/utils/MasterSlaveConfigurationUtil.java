@@ -3,6 +3,8 @@ package com.cisco.oss.foundation.cluster.utils;
 import com.cisco.oss.foundation.cluster.mongo.MissingMongoConfigException;
 import com.cisco.oss.foundation.configuration.CcpConstants;
 import org.apache.commons.configuration.Configuration;
+import org.apache.commons.configuration.event.ConfigurationListener;
+import org.apache.commons.configuration.event.EventSource;
 
 import com.cisco.oss.foundation.configuration.ConfigurationFactory;
 import org.apache.commons.lang3.StringUtils;
@@ -127,10 +129,81 @@ public class MasterSlaveConfigurationUtil {
         return Pair.of(mongoUserName, mongoPassword);
     }
 
+    /**
+     * register a listener for configuration changes (e.g. reload of a changed configuration file)
+     * @param listener the listener
+     * @return false if the configuration does not publish change events
+     */
+    public static boolean addConfigurationListener(ConfigurationListener listener) {
+        if (configuration instanceof EventSource) {
+            ((EventSource) configuration).addConfigurationListener(listener);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @param name the logical name used in the registry class
+     * @return the current configuration snapshot of the job. see #MasterSlavePolicy
+     */
+    public static MasterSlavePolicy getMasterSlavePolicy(String name) {
+        return MasterSlavePolicy.forJob(name);
+    }
+
     public static String getMasterSlaveImpl() {
         return configuration.getString("masterSlave.impl", "consul");
     }
 
+    /**
+     * @return how the mastership loops are executed. see #MasterSlaveExecutionMode
+     */
+    public static MasterSlaveExecutionMode getMasterSlaveExecutionMode() {
+        String executionMode = configuration.getString("masterSlave.executionMode", "thread");
+        return MasterSlaveExecutionMode.newInstance(executionMode);
+    }
+
+    /**
+     * @return the number of threads in the process wide pool used when running in 'scheduler' execution mode
+     */
+    public static int getMasterSlaveSchedulerPoolSize() {
+        return configuration.getInt("masterSlave.scheduler.poolSize", 4);
+    }
+
+    /**
+     * @return true if the goMaster/goSlave callbacks are delivered on a separate pool instead of the mastership loop, so slow listeners don't delay the lease renewal
+     */
+    public static boolean isListenerAsyncEnabled() {
+        return configuration.getBoolean("masterSlave.listener.async.enabled", true);
+    }
+
+    /**
+     * @return the time in seconds a goMaster/goSlave callback may run before it is reported and interrupted. 0 (the default) means the lease time of the job
+     */
+    public static int getListenerTimeout() {
+        return configuration.getInt("masterSlave.listener.timeout", 0);
+    }
+
+    /**
+     * @return the time in seconds the shutdown hook waits for the jobs to hand their mastership off
+     */
+    public static int getHandoffTimeout() {
+        return configuration.getInt("masterSlave.handoff.timeout", 10);
+    }
+
+    /**
+     * @return the fraction (0 to 1) of the tick interval used as random jitter, so the jobs of all the instances don't tick in lockstep
+     */
+    public static double getTickJitter() {
+        return configuration.getDouble("masterSlave.tick.jitter", 0.1);
+    }
+
+    /**
+     * @return true if the tick interval should be shortened when the backend round trips are slow, to keep the lease renewal safe
+     */
+    public static boolean isTickAdaptive() {
+        return configuration.getBoolean("masterSlave.tick.adaptive.enabled", true);
+    }
+
     /**
      * @return the mongo db name
      */
@@ -151,6 +224,84 @@ public class MasterSlaveConfigurationUtil {
         return MasterSlaveMultiplicity.newInstance(multiplicity);
     }
 
+    /**
+     * @return the TTL in seconds of the process wide consul session. 0 (the default) means the lease time of the first job that opens the session
+     */
+    public static int getConsulSessionTtl() {
+        return configuration.getInt("masterSlave.consul.sessionTtl", 0);
+    }
+
+    /**
+     * @return true if the consul electors should keep a local view of their keys using consul blocking queries instead of reading them on every tick
+     */
+    public static boolean isConsulWatchEnabled() {
+        return configuration.getBoolean("masterSlave.consul.watch.enabled", false);
+    }
+
+    /**
+     * @return the maximum time in seconds a consul blocking query waits for a change. must be lower than the 'consulWatchClient' read timeout
+     */
+    public static int getConsulWatchWaitTime() {
+        return configuration.getInt("masterSlave.consul.watch.waitTime", 60);
+    }
+
+    /**
+     * @return true if the consul electors should acquire free locks together with the other jobs of the process in one /v1/txn request
+     */
+    public static boolean isConsulBatchAcquireEnabled() {
+        return configuration.getBoolean("masterSlave.consul.batchAcquire.enabled", false);
+    }
+
+    /**
+     * @return true if the mongo elector should do the version check and lease CAS in a single findOneAndUpdate per tick
+     */
+    public static boolean isMongoSingleRoundTrip() {
+        return configuration.getBoolean("masterSlave.mongo.singleRoundTrip", false);
+    }
+
+    /**
+     * @return true if the mongo elector should claim the expired leases of all the jobs of the process in one bulk write when one of them takes over
+     */
+    public static boolean isMongoTakeoverSweepEnabled() {
+        return configuration.getBoolean("masterSlave.mongo.takeoverSweep.enabled", false);
+    }
+
+    /**
+     * @return how long in seconds the active datacenter and version lookups are cached for all the jobs of the process. 0 disables the cache
+     */
+    public static int getLookupCacheTtl() {
+        return configuration.getInt("masterSlave.lookupCache.ttl", 5);
+    }
+
+    /**
+     * @return how long in seconds negative lookups (inactive datacenter, missing key) are cached. defaults to the positive TTL
+     */
+    public static int getLookupCacheNegativeTtl() {
+        int negativeTtl = configuration.getInt("masterSlave.lookupCache.negativeTtl", -1);
+        return negativeTtl < 0 ? getLookupCacheTtl() : negativeTtl;
+    }
+
+    /**
+     * @return the first mongo reconnect delay in milliseconds. the delay doubles on every failed attempt
+     */
+    public static long getMongoReconnectMinDelay() {
+        return configuration.getLong("masterSlave.mongo.reconnect.minDelay", 1000);
+    }
+
+    /**
+     * @return the maximal mongo reconnect delay in milliseconds
+     */
+    public static long getMongoReconnectMaxDelay() {
+        return configuration.getLong("masterSlave.mongo.reconnect.maxDelay", 30000);
+    }
+
+    /**
+     * @return the TTL in seconds of the process wide mongo session used by the 'mongo-session' elector. the heartbeat is renewed every third of it
+     */
+    public static int getMongoSessionTtl() {
+        return configuration.getInt("masterSlave.mongo.sessionTtl", 30);
+    }
+
 //    public static HostAndPort getConsulHostAndPort(String name) {
 //        String consultHostAndPort = configuration.getString("consul.hostAndPort", "localhost:8500");
 //        HostAndPort hostAndPort = HostAndPort.fromString(consultHostAndPort);
@@ -165,6 +316,38 @@ public class MasterSlaveConfigurationUtil {
         return configuration.getBoolean(name + ".masterSlave.mastership.singleAcrossVersion", true);
     }
 
+    /**
+     * @param name the logical name used in the registry class
+     * @return the number of consecutive failed election ticks (after the retry) before a master turns into slave
+     */
+    public static int getFailuresBeforeSlave(String name) {
+        return Math.max(1, configuration.getInt(name + ".masterSlave.demotion.failures", 1));
+    }
+
+    /**
+     * @param name the logical name used in the registry class
+     * @return true if a master whose election ticks fail should stay master until its lease expires
+     */
+    public static boolean isKeepMasterWhileLeaseValid(String name) {
+        return configuration.getBoolean(name + ".masterSlave.demotion.keepWhileLeaseValid", false);
+    }
+
+    /**
+     * @param name the logical name used in the registry class
+     * @return the minimum time in seconds to stay master or slave before changing role for any reason but losing the lease. 0 disables it
+     */
+    public static int getMinRoleTime(String name) {
+        return Math.max(0, configuration.getInt(name + ".masterSlave.minRoleTime", 0));
+    }
+
+    /**
+     * @param name the logical name used in the registry class
+     * @return how long in seconds before the lease of the master expires a standby is asked to prepare for the mastership. 0 disables it
+     */
+    public static int getStandbyPrepareTime(String name) {
+        return Math.max(0, configuration.getInt(name + ".masterSlave.standby.prepareTime", 0));
+    }
+
     /**
      * @return the component unique name. see wiki for more info: https://github.com/foundation-runtime/cluster/wiki/Master-Slave#instance-identification
      */
@@ -0,0 +1,35 @@
+package com.cisco.oss.foundation.cluster.utils;
+
+/**
+ * The way the registry runs the mastership loop of each job.
+ * THREAD - a dedicated daemon thread per job (the default).
+ * SCHEDULER - all jobs share one scheduled thread pool per process.
+ * VIRTUAL - a dedicated virtual thread per job when the JVM supports virtual threads, otherwise same as THREAD.
+ */
+public enum MasterSlaveExecutionMode {
+
+    THREAD("thread"),
+    SCHEDULER("scheduler"),
+    VIRTUAL("virtual");
+
+    private String executionMode = "thread";
+    MasterSlaveExecutionMode(String executionMode){
+        this.executionMode = executionMode;
+    }
+
+    public String executionMode(){
+        return executionMode;
+    }
+
+    public static MasterSlaveExecutionMode newInstance(String executionMode){
+        switch (executionMode){
+            case "scheduler":
+                return SCHEDULER;
+            case "virtual":
+                return VIRTUAL;
+            default:
+                return THREAD;
+        }
+
+    }
+}
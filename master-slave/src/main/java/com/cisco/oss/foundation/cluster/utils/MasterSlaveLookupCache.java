@@ -0,0 +1,134 @@
+package com.cisco.oss.foundation.cluster.utils;
+
+import org.apache.commons.configuration.event.ConfigurationEvent;
+import org.apache.commons.configuration.event.ConfigurationListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+/**
+ * Process wide cache of the active datacenter and active version lookups.
+ * These answers are the same for all the jobs of the component, so one lookup per TTL serves all of them.
+ * The default TTL of 'masterSlave.lookupCache.ttl' is a few seconds: the jobs tick at about the same time, so they share one lookup per tick,
+ * and a switch of the active datacenter or version is seen at most that much later than without the cache.
+ * The TTLs are reloaded when the configuration changes. A change drops the cached answers.
+ * It is an enum and you access its method via the #INSTANCE member
+ */
+public enum MasterSlaveLookupCache {
+
+    INSTANCE;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MasterSlaveLookupCache.class);
+
+    private volatile Caches caches;
+
+    MasterSlaveLookupCache() {
+        caches = new Caches(MasterSlaveConfigurationUtil.getLookupCacheTtl() * 1000L, MasterSlaveConfigurationUtil.getLookupCacheNegativeTtl() * 1000L);
+        MasterSlaveConfigurationUtil.addConfigurationListener(new ConfigurationListener() {
+            @Override
+            public void configurationChanged(ConfigurationEvent event) {
+                if (!event.isBeforeUpdate()) {
+                    reload();
+                }
+            }
+        });
+    }
+
+    /**
+     * pick up the TTLs from the current configuration. called automatically on configuration change events.
+     */
+    public void reload() {
+        long ttl = MasterSlaveConfigurationUtil.getLookupCacheTtl() * 1000L;
+        long negativeTtl = MasterSlaveConfigurationUtil.getLookupCacheNegativeTtl() * 1000L;
+        Caches previous = caches;
+        if (previous.ttl != ttl || previous.negativeTtl != negativeTtl) {
+            caches = new Caches(ttl, negativeTtl);
+            LOGGER.info("lookup cache TTL changed from: {}/{} to: {}/{} ms", previous.ttl, previous.negativeTtl, ttl, negativeTtl);
+        }
+    }
+
+    /**
+     * @param key identifies the lookup - backend and datacenter
+     * @param loader queries the backend
+     * @return true if the datacenter is active
+     */
+    public boolean isActiveDataCenter(String key, Function<String, Boolean> loader) {
+        Caches caches = this.caches;
+        if (!caches.enabled) {
+            return loader.apply(key);
+        }
+        return caches.dataCenters.get(key, loader);
+    }
+
+    /**
+     * @param key identifies the lookup - backend and datacenter
+     * @param loader queries the backend
+     * @return a future of true if the datacenter is active
+     */
+    public CompletableFuture<Boolean> isActiveDataCenterAsync(String key, Function<String, CompletableFuture<Boolean>> loader) {
+        Caches caches = this.caches;
+        if (!caches.enabled) {
+            return loader.apply(key);
+        }
+        return caches.dataCenters.getAsync(key, loader);
+    }
+
+    /**
+     * @param key identifies the lookup - backend and the key holding the active version or datacenter
+     * @param loader queries the backend. returns null or empty if the key has no value
+     * @return the value of the key
+     */
+    public String getKeyValue(String key, Function<String, String> loader) {
+        Caches caches = this.caches;
+        if (!caches.enabled) {
+            return loader.apply(key);
+        }
+        return caches.keyValues.get(key, loader);
+    }
+
+    /**
+     * drop all the cached answers. e.g. after changing the active datacenter or version.
+     */
+    public void invalidate() {
+        Caches caches = this.caches;
+        caches.dataCenters.invalidateAll();
+        caches.keyValues.invalidateAll();
+    }
+
+    /**
+     * @param key the datacenter lookup to drop
+     */
+    public void invalidateDataCenter(String key) {
+        caches.dataCenters.invalidate(key);
+    }
+
+    /**
+     * @param key the key value lookup to drop
+     */
+    public void invalidateKeyValue(String key) {
+        caches.keyValues.invalidate(key);
+    }
+
+    /**
+     * the caches of one TTL configuration - replaced as a whole when it changes
+     */
+    private static final class Caches {
+
+        private final long ttl;
+        private final long negativeTtl;
+        private final boolean enabled;
+        private final TtlCache<String, Boolean> dataCenters;
+        private final TtlCache<String, String> keyValues;
+
+        private Caches(long ttl, long negativeTtl) {
+            this.ttl = ttl;
+            this.negativeTtl = negativeTtl;
+            this.enabled = ttl > 0 || negativeTtl > 0;
+            //an inactive datacenter and a missing key are the negative answers
+            this.dataCenters = new TtlCache<>(ttl, negativeTtl, isActive -> !Boolean.TRUE.equals(isActive));
+            this.keyValues = new TtlCache<>(ttl, negativeTtl, value -> value == null || value.isEmpty());
+        }
+    }
+}
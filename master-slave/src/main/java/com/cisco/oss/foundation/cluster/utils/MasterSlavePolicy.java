@@ -0,0 +1,180 @@
+package com.cisco.oss.foundation.cluster.utils;
+
+import org.apache.commons.configuration.event.ConfigurationEvent;
+import org.apache.commons.configuration.event.ConfigurationListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Immutable snapshot of the mastership configuration of one job.
+ * Built once per job and replaced as a whole when the configuration changes, so the election loop reads plain fields instead of going back to the configuration on every tick.
+ */
+public final class MasterSlavePolicy {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MasterSlavePolicy.class);
+    private static final ConcurrentMap<String, MasterSlavePolicy> POLICIES = new ConcurrentHashMap<>();
+    private static final AtomicBoolean RELOAD_LISTENER_REGISTERED = new AtomicBoolean(false);
+
+    private final String jobName;
+    private final int leaseTime;
+    private final long tickInterval;
+    private final MasterSlaveMultiplicity multiplicity;
+    private final boolean singleAcrossMDC;
+    private final boolean singleAcrossVersion;
+    private final int failuresBeforeSlave;
+    private final boolean keepMasterWhileLeaseValid;
+    private final int minRoleTime;
+    private final int standbyPrepareTime;
+
+    private MasterSlavePolicy(String jobName) {
+        this.jobName = jobName;
+        this.leaseTime = MasterSlaveConfigurationUtil.getMasterSlaveLeaseTime(jobName);
+        this.tickInterval = leaseTime * 1000L / 2;
+        this.multiplicity = MasterSlaveConfigurationUtil.getMasterSlaveMultiplicity(jobName);
+        this.singleAcrossMDC = MasterSlaveConfigurationUtil.isSingleAcrossMDC(jobName);
+        this.singleAcrossVersion = MasterSlaveConfigurationUtil.isSingleAcrossVersion(jobName);
+        this.failuresBeforeSlave = MasterSlaveConfigurationUtil.getFailuresBeforeSlave(jobName);
+        this.keepMasterWhileLeaseValid = MasterSlaveConfigurationUtil.isKeepMasterWhileLeaseValid(jobName);
+        this.minRoleTime = MasterSlaveConfigurationUtil.getMinRoleTime(jobName);
+        this.standbyPrepareTime = MasterSlaveConfigurationUtil.getStandbyPrepareTime(jobName);
+    }
+
+    /**
+     * @param jobName the logical name used in the registry class
+     * @return the current policy of the job
+     */
+    public static MasterSlavePolicy forJob(String jobName) {
+        MasterSlavePolicy policy = POLICIES.get(jobName);
+        if (policy == null) {
+            registerReloadListener();
+            policy = POLICIES.computeIfAbsent(jobName, MasterSlavePolicy::new);
+        }
+        return policy;
+    }
+
+    /**
+     * rebuild the policies of all the jobs from the current configuration. called automatically on configuration change events.
+     */
+    public static void reload() {
+        for (String jobName : POLICIES.keySet()) {
+            MasterSlavePolicy policy = new MasterSlavePolicy(jobName);
+            MasterSlavePolicy previous = POLICIES.put(jobName, policy);
+            if (previous != null && !previous.equals(policy)) {
+                LOGGER.info("mastership policy of job: {} changed from: {} to: {}", jobName, previous, policy);
+            }
+        }
+    }
+
+    private static void registerReloadListener() {
+        if (RELOAD_LISTENER_REGISTERED.compareAndSet(false, true)) {
+            boolean registered = MasterSlaveConfigurationUtil.addConfigurationListener(new ConfigurationListener() {
+                @Override
+                public void configurationChanged(ConfigurationEvent event) {
+                    if (!event.isBeforeUpdate()) {
+                        reload();
+                    }
+                }
+            });
+            if (!registered) {
+                LOGGER.info("configuration does not publish change events. mastership policy changes require a restart");
+            }
+        }
+    }
+
+    public String getJobName() {
+        return jobName;
+    }
+
+    /**
+     * @return the lease time in seconds
+     */
+    public int getLeaseTime() {
+        return leaseTime;
+    }
+
+    /**
+     * @return the time in milliseconds between two election ticks - half the lease time
+     */
+    public long getTickInterval() {
+        return tickInterval;
+    }
+
+    public MasterSlaveMultiplicity getMultiplicity() {
+        return multiplicity;
+    }
+
+    public boolean isSingleAcrossMDC() {
+        return singleAcrossMDC;
+    }
+
+    public boolean isSingleAcrossVersion() {
+        return singleAcrossVersion;
+    }
+
+    /**
+     * @return the number of consecutive failed ticks before a master turns into slave
+     */
+    public int getFailuresBeforeSlave() {
+        return failuresBeforeSlave;
+    }
+
+    /**
+     * @return true if a master whose ticks fail stays master until its lease expires
+     */
+    public boolean isKeepMasterWhileLeaseValid() {
+        return keepMasterWhileLeaseValid;
+    }
+
+    /**
+     * @return the minimum time in seconds to hold a role. 0 if disabled
+     */
+    public int getMinRoleTime() {
+        return minRoleTime;
+    }
+
+    /**
+     * @return the time in seconds before the lease of the master expires to prepare a standby for the mastership. 0 if disabled
+     */
+    public int getStandbyPrepareTime() {
+        return standbyPrepareTime;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        MasterSlavePolicy that = (MasterSlavePolicy) o;
+        return leaseTime == that.leaseTime && singleAcrossMDC == that.singleAcrossMDC && singleAcrossVersion == that.singleAcrossVersion
+                && failuresBeforeSlave == that.failuresBeforeSlave && keepMasterWhileLeaseValid == that.keepMasterWhileLeaseValid && minRoleTime == that.minRoleTime
+                && standbyPrepareTime == that.standbyPrepareTime
+                && multiplicity == that.multiplicity && jobName.equals(that.jobName);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = jobName.hashCode();
+        result = 31 * result + leaseTime;
+        result = 31 * result + (multiplicity != null ? multiplicity.hashCode() : 0);
+        result = 31 * result + (singleAcrossMDC ? 1 : 0);
+        result = 31 * result + (singleAcrossVersion ? 1 : 0);
+        result = 31 * result + failuresBeforeSlave;
+        result = 31 * result + (keepMasterWhileLeaseValid ? 1 : 0);
+        result = 31 * result + minRoleTime;
+        result = 31 * result + standbyPrepareTime;
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "MasterSlavePolicy{jobName='" + jobName + "', leaseTime=" + leaseTime + ", multiplicity=" + multiplicity + ", singleAcrossMDC=" + singleAcrossMDC + ", singleAcrossVersion=" + singleAcrossVersion
+                + ", failuresBeforeSlave=" + failuresBeforeSlave + ", keepMasterWhileLeaseValid=" + keepMasterWhileLeaseValid + ", minRoleTime=" + minRoleTime + ", standbyPrepareTime=" + standbyPrepareTime + "}";
+    }
+}
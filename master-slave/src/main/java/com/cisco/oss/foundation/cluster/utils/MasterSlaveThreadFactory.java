@@ -0,0 +1,86 @@
+package com.cisco.oss.foundation.cluster.utils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Creates the threads used by the master slave lib - mastership loops, consul heartbeats and mongo reconnect loops.
+ * When 'masterSlave.executionMode' is set to 'virtual' and the JVM supports virtual threads (java 21 and up) the threads are virtual, otherwise they are platform daemon threads.
+ * The lib is built for java 11 - virtual threads are looked up reflectively so it runs on java 11 to 20, where they don't exist.
+ */
+public final class MasterSlaveThreadFactory {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MasterSlaveThreadFactory.class);
+
+    private static final Method OF_VIRTUAL;
+    private static final Method BUILDER_NAME;
+    private static final Method BUILDER_UNSTARTED;
+    private static final AtomicBoolean FALLBACK_LOGGED = new AtomicBoolean(false);
+
+    static {
+        Method ofVirtual = null;
+        Method builderName = null;
+        Method builderUnstarted = null;
+        try {
+            ofVirtual = Thread.class.getMethod("ofVirtual");
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            builderName = builderClass.getMethod("name", String.class);
+            builderUnstarted = builderClass.getMethod("unstarted", Runnable.class);
+        } catch (Exception e) {
+            //virtual threads are not available in this JVM
+            ofVirtual = null;
+        }
+        OF_VIRTUAL = ofVirtual;
+        BUILDER_NAME = builderName;
+        BUILDER_UNSTARTED = builderUnstarted;
+    }
+
+    private MasterSlaveThreadFactory() {
+    }
+
+    /**
+     * @return true if the running JVM can create virtual threads
+     */
+    public static boolean isVirtualThreadSupported() {
+        return OF_VIRTUAL != null;
+    }
+
+    /**
+     * @return true if new threads are going to be virtual threads
+     */
+    public static boolean isVirtualThreadMode() {
+        return MasterSlaveConfigurationUtil.getMasterSlaveExecutionMode() == MasterSlaveExecutionMode.VIRTUAL && isVirtualThreadSupported();
+    }
+
+    /**
+     * create a new unstarted thread according to the configured execution mode.
+     * @param name the thread name
+     * @param runnable the thread body
+     * @return a virtual thread in 'virtual' execution mode when supported, otherwise a platform daemon thread
+     */
+    public static Thread newThread(String name, Runnable runnable) {
+        if (MasterSlaveConfigurationUtil.getMasterSlaveExecutionMode() == MasterSlaveExecutionMode.VIRTUAL) {
+            if (isVirtualThreadSupported()) {
+                try {
+                    Object builder = OF_VIRTUAL.invoke(null);
+                    builder = BUILDER_NAME.invoke(builder, name);
+                    return (Thread) BUILDER_UNSTARTED.invoke(builder, runnable);
+                } catch (Exception e) {
+                    //e.g. virtual threads are a preview feature in this JVM and preview is not enabled
+                    if (FALLBACK_LOGGED.compareAndSet(false, true)) {
+                        LOGGER.warn("can't create virtual threads. falling back to platform threads. error is: {}", e.toString());
+                    }
+                }
+            } else if (FALLBACK_LOGGED.compareAndSet(false, true)) {
+                LOGGER.warn("virtual execution mode is configured but this JVM does not support virtual threads. falling back to platform threads");
+            }
+        }
+
+        Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+}
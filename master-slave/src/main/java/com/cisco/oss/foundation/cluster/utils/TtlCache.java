@@ -0,0 +1,116 @@
+package com.cisco.oss.foundation.cluster.utils;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Small time based cache for lookups shared by many jobs.
+ * Only one load per key is in flight at a time - concurrent callers wait for the same load instead of repeating it.
+ * Negative answers (as defined by the given predicate) may be kept for a different time than positive ones. Failed loads are not cached.
+ * @param <K> the key type
+ * @param <V> the value type
+ */
+public class TtlCache<K, V> {
+
+    private final ConcurrentMap<K, Entry<V>> entries = new ConcurrentHashMap<>();
+    private final long ttl;
+    private final long negativeTtl;
+    private final Predicate<V> isNegative;
+
+    /**
+     * @param ttl how long a positive answer is kept, in milliseconds
+     * @param negativeTtl how long a negative answer is kept, in milliseconds
+     * @param isNegative decides if a loaded value is a negative answer
+     */
+    public TtlCache(long ttl, long negativeTtl, Predicate<V> isNegative) {
+        this.ttl = ttl;
+        this.negativeTtl = negativeTtl;
+        this.isNegative = isNegative;
+    }
+
+    /**
+     * @param key the key
+     * @param loader called on the calling thread when the key is missing or expired
+     * @return the cached or loaded value
+     */
+    public V get(K key, Function<? super K, ? extends V> loader) {
+        try {
+            return getAsync(key, k -> CompletableFuture.completedFuture(loader.apply(k))).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * @param key the key
+     * @param loader starts a load when the key is missing or expired
+     * @return a future of the cached or loaded value
+     */
+    public CompletableFuture<V> getAsync(K key, Function<? super K, ? extends CompletableFuture<V>> loader) {
+        while (true) {
+            Entry<V> entry = entries.get(key);
+            if (entry != null && !entry.isExpired(System.currentTimeMillis())) {
+                return entry.value;
+            }
+
+            Entry<V> loadingEntry = new Entry<>();
+            boolean loading = entry == null ? entries.putIfAbsent(key, loadingEntry) == null : entries.replace(key, entry, loadingEntry);
+            if (!loading) {
+                //another caller started a load - wait for it
+                continue;
+            }
+
+            CompletableFuture<V> loaded;
+            try {
+                loaded = loader.apply(key);
+            } catch (RuntimeException e) {
+                loaded = new CompletableFuture<>();
+                loaded.completeExceptionally(e);
+            }
+
+            loaded.whenComplete((value, e) -> {
+                if (e != null) {
+                    entries.remove(key, loadingEntry);
+                    loadingEntry.value.completeExceptionally(e);
+                } else {
+                    loadingEntry.expireAt = System.currentTimeMillis() + (isNegative.test(value) ? negativeTtl : ttl);
+                    loadingEntry.value.complete(value);
+                }
+            });
+            return loadingEntry.value;
+        }
+    }
+
+    /**
+     * drop a key. the next get loads it again.
+     * @param key the key
+     */
+    public void invalidate(K key) {
+        entries.remove(key);
+    }
+
+    /**
+     * drop all the keys
+     */
+    public void invalidateAll() {
+        entries.clear();
+    }
+
+    private static final class Entry<V> {
+
+        private final CompletableFuture<V> value = new CompletableFuture<>();
+        //a load in flight never expires
+        private volatile long expireAt = Long.MAX_VALUE;
+
+        private boolean isExpired(long now) {
+            return now >= expireAt;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.cisco.oss.foundation.cluster.masterslave.consul;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Map;
+
+/**
+ * Reads the consul responses the electors, the watches and the lock batcher get back.
+ * An exception to the tests living in com.cisco.oss.foundation.cluster.test: #ConsulJsonReader is package private and has no public surface to test it through.
+ */
+public class ConsulJsonReaderTest {
+
+    //"master" and "v1" in base64
+    private static final String LOCK = "[{\"LockIndex\":3,\"Key\":\"master-slave/comp/job\",\"Flags\":0,\"Value\":\"bWFzdGVy\",\"Session\":\"abc-123\",\"CreateIndex\":7,\"ModifyIndex\":12}]";
+    private static final String RECURSE = "[ {\"Key\":\"master-slave/comp/a\",\"Value\":\"bWFzdGVy\",\"Session\":\"abc-123\",\"LockIndex\":1,\"ModifyIndex\":10},\n"
+            + " {\"Key\":\"master-slave/comp/b\",\"Value\":null,\"Meta\":{\"Key\":\"nested\",\"List\":[{\"Session\":\"x\"}]},\"LockIndex\":0,\"ModifyIndex\":11},\n"
+            + " {\"Key\":\"master-slave/comp/c\\\"d\",\"Value\":\"djE=\",\"Session\":\"def-456\",\"LockIndex\":2,\"ModifyIndex\":12} ]";
+    private static final String TXN_ERRORS = "{\"Results\":null,\"Errors\":[{\"OpIndex\":0,\"What\":\"failed to lock key \\\"a\\\"\"},{\"OpIndex\":2,\"What\":\"failed to lock key \\\"c\\\"\"}]}";
+
+    @Test
+    public void readsTheFirstObject() {
+
+        Assert.assertEquals("master-slave/comp/job", ConsulJsonReader.readString(LOCK, "Key"));
+        Assert.assertEquals(3, ConsulJsonReader.readLong(LOCK, "LockIndex"));
+        Assert.assertEquals(12, ConsulJsonReader.readLong(LOCK, "ModifyIndex"));
+        Assert.assertTrue(ConsulJsonReader.stringEquals(LOCK, "Session", "abc-123"));
+        Assert.assertFalse(ConsulJsonReader.stringEquals(LOCK, "Session", "abc-12"));
+        Assert.assertTrue(ConsulJsonReader.hasString(LOCK, "Session"));
+        Assert.assertEquals("master", new ConsulJsonReader.ValueDecoder().decode(LOCK));
+
+        //missing fields, and fields that aren't strings
+        Assert.assertNull(ConsulJsonReader.readString(LOCK, "Missing"));
+        Assert.assertNull(ConsulJsonReader.readString(LOCK, "Flags"));
+        Assert.assertEquals(0, ConsulJsonReader.readLong(LOCK, "Missing"));
+        Assert.assertFalse(ConsulJsonReader.hasString("[{\"Session\":\"\"}]", "Session"));
+        Assert.assertNull(ConsulJsonReader.readString("[]", "Key"));
+        Assert.assertNull(ConsulJsonReader.readString(null, "Key"));
+    }
+
+    @Test
+    public void readsEscapedStrings() {
+
+        String json = "{\"ID\":\"a\\\"b\\\\c\\u0041\"}";
+        Assert.assertEquals("a\"b\\cA", ConsulJsonReader.readString(json, "ID"));
+        //an escaped value never equals the expected one
+        Assert.assertFalse(ConsulJsonReader.stringEquals(json, "ID", "a\"b\\cA"));
+    }
+
+    @Test
+    public void escapedStringsReadBack() {
+
+        Assert.assertSame("master-slave/comp/job", ConsulJsonReader.escape("master-slave/comp/job"));
+        String key = "master-slave/comp/a\"b\\c\nd\u0001";
+        String json = "{\"Key\":\"" + ConsulJsonReader.escape(key) + "\",\"Session\":\"abc\"}";
+        Assert.assertEquals(key, ConsulJsonReader.readString(json, "Key"));
+        Assert.assertEquals("abc", ConsulJsonReader.readString(json, "Session"));
+    }
+
+    @Test
+    public void walksTheObjectsOfAnArray() {
+
+        Map<String, ConsulKeyState> states = ConsulWatchEngine.parse(RECURSE);
+        Assert.assertEquals(3, states.size());
+        Assert.assertEquals(new ConsulKeyState(true, "master", "abc-123", 10, 1), states.get("master-slave/comp/a"));
+        //the nested fields are not read as fields of the entry
+        Assert.assertEquals(new ConsulKeyState(true, "", null, 11, 0), states.get("master-slave/comp/b"));
+        Assert.assertEquals(new ConsulKeyState(true, "v1", "def-456", 12, 2), states.get("master-slave/comp/c\"d"));
+        Assert.assertTrue(ConsulWatchEngine.parse("").isEmpty());
+        Assert.assertTrue(ConsulWatchEngine.parse("[]").isEmpty());
+    }
+
+    @Test
+    public void walksTheObjectsOfAField() {
+
+        int error = ConsulJsonReader.firstObject(TXN_ERRORS, "Errors");
+        Assert.assertEquals(0, ConsulJsonReader.readLong(TXN_ERRORS, error, "OpIndex", -1));
+        Assert.assertEquals("failed to lock key \"a\"", ConsulJsonReader.readString(TXN_ERRORS, error, "What"));
+        error = ConsulJsonReader.nextObject(TXN_ERRORS, error);
+        Assert.assertEquals(2, ConsulJsonReader.readLong(TXN_ERRORS, error, "OpIndex", -1));
+        Assert.assertEquals(-1, ConsulJsonReader.nextObject(TXN_ERRORS, error));
+
+        Assert.assertEquals(-1, ConsulJsonReader.firstObject(TXN_ERRORS, "Results"));
+        Assert.assertEquals(-1, ConsulJsonReader.firstObject("{\"Errors\":[]}", "Errors"));
+        Assert.assertEquals(-1, ConsulJsonReader.readLong("{\"OpIndex\":null}", 0, "OpIndex", -1));
+    }
+}
@@ -0,0 +1,117 @@
+package com.cisco.oss.foundation.cluster.registry;
+
+import com.cisco.oss.foundation.cluster.utils.MasterSlavePolicy;
+import com.cisco.oss.foundation.configuration.CcpConstants;
+import com.cisco.oss.foundation.configuration.ConfigurationFactory;
+import org.apache.commons.configuration.Configuration;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks the bounds of the tick delays: the jitter only shortens the interval, the first tick waits at most a second,
+ * and a slow backend tightens the interval down to a quarter of the lease.
+ * An exception to the tests living in com.cisco.oss.foundation.cluster.test: #MasterSlaveTickScheduler is package private,
+ * and through the registry the delays are random and can't be told apart from the tick durations.
+ */
+public class MasterSlaveTickSchedulerTest {
+
+    private static final String JOB = "tickSchedulerJob";
+
+    private final Configuration configuration = ConfigurationFactory.getConfiguration();
+    private double jitter;
+    private boolean adaptive;
+
+    @BeforeClass
+    public static void init() {
+        System.setProperty(CcpConstants.RPM_SOFTWARE_NAME, "dummy_component");
+    }
+
+    @Before
+    public void setUp() {
+        jitter = configuration.getDouble("masterSlave.tick.jitter", 0.1);
+        adaptive = configuration.getBoolean("masterSlave.tick.adaptive.enabled", true);
+    }
+
+    @After
+    public void tearDown() {
+        configuration.setProperty("masterSlave.tick.jitter", jitter);
+        configuration.setProperty("masterSlave.tick.adaptive.enabled", adaptive);
+    }
+
+    @Test
+    public void jitterOnlyShortensTheInterval() {
+
+        MasterSlaveTickScheduler scheduler = newScheduler(10, 0.2, false);
+        long min = Long.MAX_VALUE;
+        long max = 0;
+        for (int i = 0; i < 1000; i++) {
+            long delay = scheduler.nextDelay();
+            min = Math.min(min, delay);
+            max = Math.max(max, delay);
+        }
+        Assert.assertTrue(min >= 4000);
+        Assert.assertTrue(max <= 5000);
+        Assert.assertTrue(max > min);
+
+        Assert.assertEquals(5000, newScheduler(10, 0, false).nextDelay());
+    }
+
+    @Test
+    public void firstTickWaitsAtMostASecond() {
+
+        //a fraction of the tick interval, up to a second
+        assertInitialDelays(newScheduler(30, 0.5, false), 500);
+        assertInitialDelays(newScheduler(30, 1, false), 1000);
+        assertInitialDelays(newScheduler(1, 1, false), 500);
+        Assert.assertEquals(0, newScheduler(30, 0, false).initialDelay());
+    }
+
+    @Test
+    public void slowBackendTightensTheInterval() throws Exception {
+
+        MasterSlaveTickScheduler scheduler = newScheduler(4, 0, true);
+        Assert.assertEquals(2000, scheduler.nextDelay());
+
+        scheduler.tickStarted();
+        TimeUnit.MILLISECONDS.sleep(300);
+        scheduler.tickEnded();
+        //the round trip is at least the sleep - how much more depends on the machine
+        long delay = scheduler.nextDelay();
+        Assert.assertTrue(delay >= 1000 && delay < 2000);
+
+        //never more than 4 ticks per lease
+        MasterSlaveTickScheduler slowScheduler = newScheduler(4, 0, true);
+        slowScheduler.tickStarted();
+        TimeUnit.MILLISECONDS.sleep(1200);
+        slowScheduler.tickEnded();
+        Assert.assertEquals(1000, slowScheduler.nextDelay());
+
+        //without adaptive ticks the round trips don't matter
+        MasterSlaveTickScheduler fixedScheduler = newScheduler(4, 0, false);
+        fixedScheduler.tickStarted();
+        TimeUnit.MILLISECONDS.sleep(300);
+        fixedScheduler.tickEnded();
+        Assert.assertEquals(2000, fixedScheduler.nextDelay());
+    }
+
+    private MasterSlaveTickScheduler newScheduler(int leaseTime, double jitter, boolean adaptive) {
+        configuration.setProperty(JOB + ".masterSlave.leaseTime", leaseTime);
+        configuration.setProperty("masterSlave.tick.jitter", jitter);
+        configuration.setProperty("masterSlave.tick.adaptive.enabled", adaptive);
+        //don't depend on the configuration publishing the change
+        MasterSlavePolicy.reload();
+        return new MasterSlaveTickScheduler(JOB);
+    }
+
+    private static void assertInitialDelays(MasterSlaveTickScheduler scheduler, long bound) {
+        for (int i = 0; i < 1000; i++) {
+            long delay = scheduler.initialDelay();
+            Assert.assertTrue(delay >= 0 && delay <= bound);
+        }
+    }
+}
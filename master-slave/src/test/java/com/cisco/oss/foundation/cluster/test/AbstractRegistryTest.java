@@ -0,0 +1,87 @@
+package com.cisco.oss.foundation.cluster.test;
+
+import com.cisco.oss.foundation.cluster.registry.MasterSlaveListener;
+import com.cisco.oss.foundation.cluster.registry.MasterSlaveRegistry;
+import com.cisco.oss.foundation.configuration.CcpConstants;
+import com.cisco.oss.foundation.configuration.ConfigurationFactory;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Runs one job of the registry on the #ScriptedElector. The job is stopped, and its handoff awaited, after each test.
+ */
+public abstract class AbstractRegistryTest {
+
+    protected final String job;
+    protected ScriptedElector.Script script;
+
+    private String impl;
+
+    protected AbstractRegistryTest(String job) {
+        this.job = job;
+    }
+
+    @BeforeClass
+    public static void init() {
+        System.setProperty(CcpConstants.RPM_SOFTWARE_NAME, "dummy_component");
+    }
+
+    @Before
+    public void useScriptedElector() {
+        impl = ConfigurationFactory.getConfiguration().getString("masterSlave.impl", "consul");
+        ConfigurationFactory.getConfiguration().setProperty("masterSlave.impl", ScriptedElector.class.getName());
+        script = ScriptedElector.reset(job);
+    }
+
+    @After
+    public void stopJob() throws Exception {
+        script.hang.countDown();
+        MasterSlaveRegistry.INSTANCE.removeMasterSlaveListenerAsync(job).get(5, TimeUnit.SECONDS);
+        ConfigurationFactory.getConfiguration().setProperty("masterSlave.impl", impl);
+    }
+
+    /**
+     * starts the job and waits for its first decision
+     */
+    protected boolean start(MasterSlaveListener listener) throws Exception {
+        MasterSlaveRegistry.INSTANCE.addMasterSlaveListener(job, listener);
+        return MasterSlaveRegistry.INSTANCE.firstDecision(job).get(5, TimeUnit.SECONDS);
+    }
+
+    /**
+     * a listener that adds its callbacks to the calls of the script
+     */
+    protected MasterSlaveListener recordingListener() {
+        List<String> calls = script.calls;
+        return new MasterSlaveListener() {
+            @Override
+            public void goMaster() {
+                calls.add("goMaster");
+            }
+
+            @Override
+            public void goSlave() {
+                calls.add("goSlave");
+            }
+
+            @Override
+            public void prepareForMastership(long masterLeaseRemaining) {
+                calls.add("prepare:" + masterLeaseRemaining);
+            }
+        };
+    }
+
+    protected static void awaitTrue(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            Assert.assertTrue("condition not met in time", System.currentTimeMillis() < deadline);
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package com.cisco.oss.foundation.cluster.test;
+
+import com.cisco.oss.foundation.cluster.masterslave.consul.AsyncConsulClient;
+import com.cisco.oss.foundation.cluster.masterslave.consul.AsyncConsulMastershipElector;
+import com.cisco.oss.foundation.cluster.masterslave.consul.AsyncConsulSession;
+import com.cisco.oss.foundation.cluster.utils.MasterSlaveConfigurationUtil;
+import com.cisco.oss.foundation.configuration.CcpConstants;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the async consul elector against a local stand-in of the consul http api.
+ */
+public class AsyncConsulMastershipElectorTest {
+
+    private static final String JOB = "asyncJob";
+
+    private ConsulStandIn consul;
+    private AsyncConsulClient consulClient;
+
+    @BeforeClass
+    public static void init() {
+        System.setProperty(CcpConstants.RPM_SOFTWARE_NAME, "dummy_component");
+    }
+
+    @Before
+    public void startConsul() throws IOException {
+        consul = new ConsulStandIn();
+        consulClient = new AsyncConsulClient(consul.getUri(), Duration.ofSeconds(1), Duration.ofSeconds(2));
+    }
+
+    @After
+    public void stopConsul() {
+        consul.stop();
+    }
+
+    @Test
+    public void singleMasterAcrossSessions() throws Exception {
+
+        AsyncConsulMastershipElector first = newElector();
+        AsyncConsulMastershipElector second = newElector();
+
+        Assert.assertTrue(first.isActiveVersionAsync("1.0").get(2, TimeUnit.SECONDS));
+        Assert.assertTrue(first.isMasterAsync().get(2, TimeUnit.SECONDS));
+        long firstEpoch = first.getEpoch();
+        Assert.assertTrue(firstEpoch > 0);
+
+        Assert.assertTrue(second.isActiveVersionAsync("1.0").get(2, TimeUnit.SECONDS));
+        Assert.assertFalse(second.isMasterAsync().get(2, TimeUnit.SECONDS));
+
+        //the master keeps the lock and its epoch on the next tick
+        Assert.assertTrue(first.isActiveVersionAsync("1.0").get(2, TimeUnit.SECONDS));
+        Assert.assertTrue(first.isMasterAsync().get(2, TimeUnit.SECONDS));
+        Assert.assertEquals(firstEpoch, first.getEpoch());
+
+        //closing releases the lock and destroys the session
+        first.closeAsync().get(2, TimeUnit.SECONDS);
+        Assert.assertNull(consul.getLockSession(mastershipKey()));
+        Assert.assertTrue(second.isActiveVersionAsync("1.0").get(2, TimeUnit.SECONDS));
+        Assert.assertTrue(second.isMasterAsync().get(2, TimeUnit.SECONDS));
+        Assert.assertTrue(second.getEpoch() > firstEpoch);
+
+        second.closeAsync().get(2, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void handoffIsSeenByTheStandby() throws Exception {
+
+        AsyncConsulMastershipElector master = newElector();
+        AsyncConsulMastershipElector standby = newElector();
+
+        Assert.assertTrue(master.isActiveVersionAsync("1.0").get(2, TimeUnit.SECONDS));
+        Assert.assertTrue(master.isMasterAsync().get(2, TimeUnit.SECONDS));
+        long epoch = master.getEpoch();
+        Assert.assertFalse(standby.isMasterAsync().get(2, TimeUnit.SECONDS));
+        Assert.assertEquals(-1, standby.getMasterLeaseRemaining());
+
+        master.announceHandoffAsync().get(2, TimeUnit.SECONDS);
+        Assert.assertFalse(standby.isMasterAsync().get(2, TimeUnit.SECONDS));
+        Assert.assertEquals(0, standby.getMasterLeaseRemaining());
+        //announcing is not a new mastership
+        Assert.assertTrue(master.isMasterAsync().get(2, TimeUnit.SECONDS));
+        Assert.assertEquals(epoch, master.getEpoch());
+
+        //the next acquire clears the handoff
+        master.closeAsync().get(2, TimeUnit.SECONDS);
+        Assert.assertTrue(standby.isMasterAsync().get(2, TimeUnit.SECONDS));
+        AsyncConsulMastershipElector next = newElector();
+        Assert.assertFalse(next.isMasterAsync().get(2, TimeUnit.SECONDS));
+        Assert.assertEquals(-1, next.getMasterLeaseRemaining());
+
+        standby.closeAsync().get(2, TimeUnit.SECONDS);
+        next.closeAsync().get(2, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void activeVersionAndDataCenter() throws Exception {
+
+        AsyncConsulMastershipElector elector = newElector();
+
+        //no version key - every version is active
+        Assert.assertTrue(elector.isActiveVersionAsync("1.0").get(2, TimeUnit.SECONDS));
+
+        consul.putValue(MasterSlaveConfigurationUtil.COMPONENT_NAME + "-version", "2.0");
+        Assert.assertFalse(elector.isActiveVersionAsync("1.0").get(2, TimeUnit.SECONDS));
+        Assert.assertTrue(elector.isActiveVersionAsync("2.0").get(2, TimeUnit.SECONDS));
+
+        consul.putValue("primaryDatacenter", "dc1");
+        Assert.assertTrue(elector.isActiveDataCenterAsync("dc1").get(2, TimeUnit.SECONDS));
+        Assert.assertFalse(elector.isActiveDataCenterAsync("dc2").get(2, TimeUnit.SECONDS));
+
+        elector.closeAsync().get(2, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void invalidSessionIsRecreated() throws Exception {
+
+        AsyncConsulSession session = new AsyncConsulSession(consulClient);
+        AsyncConsulMastershipElector elector = new AsyncConsulMastershipElector(session);
+        elector.initAsync(JOB, JOB).get(2, TimeUnit.SECONDS);
+        String firstSession = session.getSessionId();
+        Assert.assertTrue(elector.isMasterAsync().get(2, TimeUnit.SECONDS));
+
+        //consul expired the session behind our back
+        consul.invalidateSession(firstSession);
+        Assert.assertTrue(elector.isMasterAsync().get(2, TimeUnit.SECONDS));
+        Assert.assertNotEquals(firstSession, session.getSessionId());
+        Assert.assertEquals(session.getSessionId(), consul.getLockSession(mastershipKey()));
+
+        elector.closeAsync().get(2, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void unreachableConsulIsNotReady() throws Exception {
+
+        AsyncConsulMastershipElector elector = newElector();
+        Assert.assertTrue(elector.isReady());
+
+        consul.stop();
+        try {
+            elector.isActiveVersionAsync("1.0").get(2, TimeUnit.SECONDS);
+            Assert.fail("consul is down");
+        } catch (Exception e) {
+            //expected
+        }
+        Assert.assertFalse(elector.isReady());
+    }
+
+    private AsyncConsulMastershipElector newElector() throws Exception {
+        //a session per elector - like two instances of the component
+        AsyncConsulMastershipElector elector = new AsyncConsulMastershipElector(new AsyncConsulSession(consulClient));
+        elector.initAsync(JOB, JOB).get(2, TimeUnit.SECONDS);
+        return elector;
+    }
+
+    private static String mastershipKey() {
+        return "master-slave/" + MasterSlaveConfigurationUtil.COMPONENT_NAME + "/" + JOB;
+    }
+}
@@ -0,0 +1,210 @@
+package com.cisco.oss.foundation.cluster.test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Minimal in-process stand-in for the consul endpoints used by the mastership electors:
+ * agent self, session create/renew/destroy and KV get/put with acquire and release.
+ */
+public class ConsulStandIn {
+
+    static {
+        //without it every response waits on a delayed ACK - read once, before the first server is created
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    private final HttpServer server;
+    private final Map<String, Entry> kv = new ConcurrentHashMap<>();
+    private final Set<String> sessions = ConcurrentHashMap.newKeySet();
+    private final AtomicLong index = new AtomicLong(1);
+    private final AtomicInteger requests = new AtomicInteger();
+    private volatile boolean renewalsFailing = false;
+
+    public ConsulStandIn() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    public URI getUri() {
+        return URI.create("http://127.0.0.1:" + server.getAddress().getPort());
+    }
+
+    public void stop() {
+        server.stop(0);
+    }
+
+    public int getRequestCount() {
+        return requests.get();
+    }
+
+    public void putValue(String key, String value) {
+        Entry entry = kv.computeIfAbsent(key, k -> new Entry());
+        synchronized (entry) {
+            entry.value = value;
+            entry.modifyIndex = index.incrementAndGet();
+        }
+    }
+
+    public String getLockSession(String key) {
+        Entry entry = kv.get(key);
+        return entry != null ? entry.session : null;
+    }
+
+    /**
+     * answer the session renewals with a server error, while the sessions and the KV store keep working
+     */
+    public void setRenewalsFailing(boolean renewalsFailing) {
+        this.renewalsFailing = renewalsFailing;
+    }
+
+    /**
+     * expire a session the way consul does when its TTL passes - its locks are released
+     */
+    public void invalidateSession(String sessionId) {
+        sessions.remove(sessionId);
+        for (Entry entry : kv.values()) {
+            synchronized (entry) {
+                if (sessionId.equals(entry.session)) {
+                    entry.session = null;
+                    entry.modifyIndex = index.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        String method = exchange.getRequestMethod();
+        String path = exchange.getRequestURI().getPath();
+        Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+        String body = readBody(exchange.getRequestBody());
+
+        if (path.equals("/v1/agent/self")) {
+            respond(exchange, 200, "{}");
+        } else if (path.equals("/v1/session/create")) {
+            String sessionId = UUID.randomUUID().toString();
+            sessions.add(sessionId);
+            respond(exchange, 200, "{\"ID\":\"" + sessionId + "\"}");
+        } else if (path.startsWith("/v1/session/renew/")) {
+            String sessionId = path.substring("/v1/session/renew/".length());
+            if (renewalsFailing) {
+                respond(exchange, 500, "rpc error: No cluster leader");
+            } else if (sessions.contains(sessionId)) {
+                respond(exchange, 200, "[{\"ID\":\"" + sessionId + "\"}]");
+            } else {
+                respond(exchange, 404, "Session id '" + sessionId + "' not found");
+            }
+        } else if (path.startsWith("/v1/session/destroy/")) {
+            invalidateSession(path.substring("/v1/session/destroy/".length()));
+            respond(exchange, 200, "true");
+        } else if (path.startsWith("/v1/kv/")) {
+            handleKv(exchange, method, path.substring("/v1/kv/".length()), query, body);
+        } else {
+            respond(exchange, 404, "");
+        }
+    }
+
+    private void handleKv(HttpExchange exchange, String method, String key, Map<String, String> query, String body) throws IOException {
+        if ("GET".equals(method)) {
+            Entry entry = kv.get(key);
+            if (entry == null) {
+                respond(exchange, 404, "");
+                return;
+            }
+            synchronized (entry) {
+                String value = entry.value != null ? "\"" + Base64.getEncoder().encodeToString(entry.value.getBytes(StandardCharsets.UTF_8)) + "\"" : "null";
+                String session = entry.session != null ? ",\"Session\":\"" + entry.session + "\"" : "";
+                respond(exchange, 200, "[{\"Key\":\"" + key + "\",\"Value\":" + value + session + ",\"LockIndex\":" + entry.lockIndex + ",\"ModifyIndex\":" + entry.modifyIndex + "}]");
+            }
+            return;
+        }
+
+        String acquire = query.get("acquire");
+        String release = query.get("release");
+        if (acquire != null && !sessions.contains(acquire)) {
+            respond(exchange, 500, "invalid session \"" + acquire + "\"");
+            return;
+        }
+
+        Entry entry = kv.computeIfAbsent(key, k -> new Entry());
+        boolean result = true;
+        synchronized (entry) {
+            if (acquire != null) {
+                if (entry.session == null) {
+                    entry.session = acquire;
+                    entry.lockIndex++;
+                } else {
+                    result = entry.session.equals(acquire);
+                }
+            } else if (release != null) {
+                if (release.equals(entry.session)) {
+                    entry.session = null;
+                } else {
+                    result = false;
+                }
+            }
+            if (result) {
+                //like consul, a put with acquire sets the value too
+                if (release == null) {
+                    entry.value = body;
+                }
+                entry.modifyIndex = index.incrementAndGet();
+            }
+        }
+        respond(exchange, 200, String.valueOf(result));
+    }
+
+    private static Map<String, String> parseQuery(String rawQuery) {
+        Map<String, String> query = new ConcurrentHashMap<>();
+        if (rawQuery != null) {
+            for (String param : rawQuery.split("&")) {
+                int separator = param.indexOf('=');
+                if (separator > 0) {
+                    query.put(param.substring(0, separator), java.net.URLDecoder.decode(param.substring(separator + 1), StandardCharsets.UTF_8));
+                }
+            }
+        }
+        return query;
+    }
+
+    private static String readBody(InputStream body) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        body.transferTo(bytes);
+        return bytes.toString(StandardCharsets.UTF_8);
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(status, bytes.length == 0 ? -1 : bytes.length);
+        if (bytes.length > 0) {
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        }
+        exchange.close();
+    }
+
+    private static final class Entry {
+        private String value;
+        private String session;
+        private long lockIndex;
+        private long modifyIndex;
+    }
+}
@@ -0,0 +1,74 @@
+package com.cisco.oss.foundation.cluster.test;
+
+import com.cisco.oss.foundation.cluster.metrics.ElectionOperation;
+import com.cisco.oss.foundation.cluster.metrics.InMemoryMasterSlaveMetrics;
+import com.cisco.oss.foundation.cluster.metrics.SlaveReason;
+import com.cisco.oss.foundation.cluster.registry.MasterSlaveRegistry;
+import com.cisco.oss.foundation.configuration.ConfigurationFactory;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks that a master survives failed ticks while its lease is valid, up to 'masterSlave.demotion.failures' in a row.
+ */
+public class FlapDampingTest extends AbstractRegistryTest {
+
+    private InMemoryMasterSlaveMetrics metrics;
+
+    public FlapDampingTest() {
+        super("flapJob");
+    }
+
+    @Before
+    public void setUp() {
+        ConfigurationFactory.getConfiguration().setProperty(job + ".masterSlave.leaseTime", 30);
+        ConfigurationFactory.getConfiguration().setProperty(job + ".masterSlave.demotion.failures", 3);
+        metrics = new InMemoryMasterSlaveMetrics();
+        MasterSlaveRegistry.INSTANCE.setMetrics(metrics);
+    }
+
+    @After
+    public void tearDown() {
+        MasterSlaveRegistry.INSTANCE.setMetrics(null);
+        ConfigurationFactory.getConfiguration().setProperty(job + ".masterSlave.demotion.failures", 1);
+    }
+
+    @Test
+    public void masterSurvivesFailedTicks() throws Exception {
+
+        Assert.assertTrue(start(recordingListener()));
+        InMemoryMasterSlaveMetrics.JobMetrics jobMetrics = metrics.getJobMetrics(job);
+        InMemoryMasterSlaveMetrics.LatencyHistogram ticks = jobMetrics.getLatency(ElectionOperation.TICK);
+
+        script.failure = new IllegalStateException("backend is down");
+        for (int failures = 1; failures < 3; failures++) {
+            long expected = failures;
+            MasterSlaveRegistry.INSTANCE.triggerElection(job);
+            awaitTrue(() -> ticks.getFailures() >= expected);
+            Assert.assertTrue(MasterSlaveRegistry.INSTANCE.isMaster(job));
+            Assert.assertEquals(0, jobMetrics.getSlaveTransitions());
+        }
+
+        //a successful tick starts the count over
+        script.failure = null;
+        long succeeded = ticks.getCount() - ticks.getFailures();
+        MasterSlaveRegistry.INSTANCE.triggerElection(job);
+        awaitTrue(() -> ticks.getCount() - ticks.getFailures() > succeeded);
+        script.failure = new IllegalStateException("backend is down");
+        for (int failures = 3; failures < 5; failures++) {
+            long expected = failures;
+            MasterSlaveRegistry.INSTANCE.triggerElection(job);
+            awaitTrue(() -> ticks.getFailures() >= expected);
+            Assert.assertTrue(MasterSlaveRegistry.INSTANCE.isMaster(job));
+        }
+
+        //the third failure in a row demotes
+        MasterSlaveRegistry.INSTANCE.triggerElection(job);
+        awaitTrue(() -> jobMetrics.getSlaveReasonCount(SlaveReason.ERROR) == 1);
+        Assert.assertFalse(MasterSlaveRegistry.INSTANCE.isMaster(job));
+        awaitTrue(() -> script.calls.contains("goSlave"));
+        Assert.assertEquals(1, script.calls.stream().filter("goSlave"::equals).count());
+    }
+}
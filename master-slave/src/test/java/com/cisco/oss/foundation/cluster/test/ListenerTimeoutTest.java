@@ -0,0 +1,81 @@
+package com.cisco.oss.foundation.cluster.test;
+
+import com.cisco.oss.foundation.cluster.registry.MasterSlaveListener;
+import com.cisco.oss.foundation.cluster.registry.MasterSlaveRegistry;
+import com.cisco.oss.foundation.configuration.ConfigurationFactory;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks that a listener callback is interrupted when it runs past its timeout - the lease time of the job here -
+ * and that the interrupt never reaches a callback that runs after it.
+ */
+public class ListenerTimeoutTest extends AbstractRegistryTest {
+
+    public ListenerTimeoutTest() {
+        super("listenerTimeoutJob");
+    }
+
+    @Before
+    public void setUp() {
+        ConfigurationFactory.getConfiguration().setProperty(job + ".masterSlave.leaseTime", 1);
+    }
+
+    @Test
+    public void slowCallbackIsInterrupted() throws Exception {
+
+        List<String> calls = script.calls;
+        Assert.assertTrue(start(new MasterSlaveListener() {
+            @Override
+            public void goMaster() {
+                try {
+                    TimeUnit.SECONDS.sleep(10);
+                    calls.add("goMaster");
+                } catch (InterruptedException e) {
+                    calls.add("goMaster interrupted");
+                }
+            }
+
+            @Override
+            public void goSlave() {
+                calls.add("goSlave interrupted: " + Thread.currentThread().isInterrupted());
+            }
+        }));
+
+        awaitTrue(() -> calls.contains("goMaster interrupted"));
+        script.master = false;
+        MasterSlaveRegistry.INSTANCE.triggerElection(job);
+        awaitTrue(() -> calls.contains("goSlave interrupted: false"));
+    }
+
+    @Test
+    public void callbackThatReturnedIsNotInterrupted() throws Exception {
+
+        List<String> calls = script.calls;
+        Assert.assertTrue(start(new MasterSlaveListener() {
+            @Override
+            public void goMaster() {
+                script.master = false;
+                MasterSlaveRegistry.INSTANCE.triggerElection(job);
+            }
+
+            @Override
+            public void goSlave() {
+                //runs past the time the goMaster callback was due
+                try {
+                    TimeUnit.MILLISECONDS.sleep(900);
+                    calls.add("goSlave");
+                } catch (InterruptedException e) {
+                    calls.add("goSlave interrupted");
+                }
+            }
+        }));
+
+        awaitTrue(() -> calls.contains("goSlave") || calls.contains("goSlave interrupted"));
+        Assert.assertTrue(calls.contains("goSlave"));
+    }
+}
@@ -0,0 +1,88 @@
+package com.cisco.oss.foundation.cluster.test;
+
+import com.cisco.oss.foundation.cluster.registry.MasterSlaveListener;
+import com.cisco.oss.foundation.cluster.registry.MasterSlaveRegistry;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Records a job on the #ScriptedElector and checks the JFR events of the registry.
+ */
+public class MasterSlaveJfrEventsTest extends AbstractRegistryTest {
+
+    private static final String PREFIX = "com.cisco.oss.foundation.cluster.";
+
+    public MasterSlaveJfrEventsTest() {
+        super("jfrJob");
+    }
+
+    @Test
+    public void ticksTransitionsAndCallbacks() throws Exception {
+
+        List<RecordedEvent> events;
+        try (Recording recording = new Recording()) {
+            recording.enable(PREFIX + "ElectionTick");
+            recording.enable(PREFIX + "MastershipTransition");
+            recording.enable(PREFIX + "ListenerCallback");
+            recording.start();
+
+            Assert.assertTrue(start(new MasterSlaveListener() {
+                @Override
+                public void goMaster() {
+                }
+
+                @Override
+                public void goSlave() {
+                    throw new IllegalStateException("slave callback failed");
+                }
+            }));
+            //stopping hands the mastership off
+            MasterSlaveRegistry.INSTANCE.removeMasterSlaveListenerAsync(job).get(5, TimeUnit.SECONDS);
+
+            recording.stop();
+            Path file = Files.createTempFile("master-slave", ".jfr");
+            try {
+                recording.dump(file);
+                events = RecordingFile.readAllEvents(file).stream()
+                        .filter(event -> job.equals(event.getString("jobName")))
+                        .collect(Collectors.toList());
+            } finally {
+                Files.deleteIfExists(file);
+            }
+        }
+
+        List<RecordedEvent> ticks = ofType(events, "ElectionTick");
+        Assert.assertFalse(ticks.isEmpty());
+        Assert.assertTrue(ticks.get(0).getBoolean("success"));
+        Assert.assertTrue(ticks.get(0).getBoolean("master"));
+
+        List<RecordedEvent> transitions = ofType(events, "MastershipTransition");
+        Assert.assertEquals(2, transitions.size());
+        Assert.assertTrue(transitions.get(0).getBoolean("master"));
+        Assert.assertFalse(transitions.get(1).getBoolean("master"));
+        Assert.assertNotNull(transitions.get(1).getString("reason"));
+
+        List<RecordedEvent> callbacks = ofType(events, "ListenerCallback");
+        Assert.assertEquals(2, callbacks.size());
+        Assert.assertEquals("goMaster", callbacks.get(0).getString("callback"));
+        Assert.assertTrue(callbacks.get(0).getBoolean("success"));
+        Assert.assertEquals("goSlave", callbacks.get(1).getString("callback"));
+        Assert.assertFalse(callbacks.get(1).getBoolean("success"));
+    }
+
+    private static List<RecordedEvent> ofType(List<RecordedEvent> events, String name) {
+        return events.stream()
+                .filter(event -> event.getEventType().getName().equals(PREFIX + name))
+                .sorted((first, second) -> first.getStartTime().compareTo(second.getStartTime()))
+                .collect(Collectors.toList());
+    }
+}
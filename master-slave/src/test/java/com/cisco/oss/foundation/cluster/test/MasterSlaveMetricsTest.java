@@ -0,0 +1,70 @@
+package com.cisco.oss.foundation.cluster.test;
+
+import com.cisco.oss.foundation.cluster.metrics.ElectionOperation;
+import com.cisco.oss.foundation.cluster.metrics.InMemoryMasterSlaveMetrics;
+import com.cisco.oss.foundation.cluster.metrics.SlaveReason;
+import com.cisco.oss.foundation.cluster.registry.MasterSlaveRegistry;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs a job on the #ScriptedElector and checks what the registry reports to the metrics.
+ */
+public class MasterSlaveMetricsTest extends AbstractRegistryTest {
+
+    private InMemoryMasterSlaveMetrics metrics;
+
+    public MasterSlaveMetricsTest() {
+        super("metricsJob");
+    }
+
+    @Before
+    public void setUp() {
+        metrics = new InMemoryMasterSlaveMetrics();
+        MasterSlaveRegistry.INSTANCE.setMetrics(metrics);
+    }
+
+    @After
+    public void tearDown() {
+        MasterSlaveRegistry.INSTANCE.setMetrics(null);
+    }
+
+    @Test
+    public void transitionsAndReasons() throws Exception {
+
+        Assert.assertTrue(start(recordingListener()));
+
+        InMemoryMasterSlaveMetrics.JobMetrics jobMetrics = metrics.getJobMetrics(job);
+        Assert.assertEquals(1, jobMetrics.getMasterTransitions());
+
+        //the master keeps its lease
+        MasterSlaveRegistry.INSTANCE.triggerElection(job);
+        awaitTrue(() -> jobMetrics.getLeaseRenewals() >= 1);
+
+        //another version became active
+        script.activeVersion = false;
+        MasterSlaveRegistry.INSTANCE.triggerElection(job);
+        awaitTrue(() -> jobMetrics.getSlaveReasonCount(SlaveReason.NOT_ACTIVE_VERSION) == 1);
+        Assert.assertEquals(1, jobMetrics.getSlaveTransitions());
+        Assert.assertEquals(0, jobMetrics.getLeaseRenewalFailures());
+        awaitTrue(() -> script.calls.contains("goSlave"));
+
+        //the tick is recorded once it returns, after the transition
+        InMemoryMasterSlaveMetrics.LatencyHistogram ticks = jobMetrics.getLatency(ElectionOperation.TICK);
+        awaitTrue(() -> ticks.getCount() >= 3);
+        Assert.assertEquals(0, ticks.getFailures());
+        Assert.assertTrue(jobMetrics.getLatency(ElectionOperation.IS_MASTER).getCount() >= 2);
+
+        //back to master - stopping the job is a transition too
+        script.activeVersion = true;
+        MasterSlaveRegistry.INSTANCE.triggerElection(job);
+        awaitTrue(() -> jobMetrics.getMasterTransitions() == 2);
+        MasterSlaveRegistry.INSTANCE.removeMasterSlaveListenerAsync(job).get(5, TimeUnit.SECONDS);
+        Assert.assertEquals(1, jobMetrics.getSlaveReasonCount(SlaveReason.STOPPED));
+        Assert.assertEquals(2, jobMetrics.getSlaveTransitions());
+    }
+}
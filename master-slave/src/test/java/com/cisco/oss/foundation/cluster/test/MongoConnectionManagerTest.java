@@ -0,0 +1,81 @@
+package com.cisco.oss.foundation.cluster.test;
+
+import com.cisco.oss.foundation.cluster.mongo.MongoConnectionManager;
+import com.cisco.oss.foundation.cluster.mongo.MongoConnectionState;
+import com.cisco.oss.foundation.configuration.CcpConstants;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs the mongo connection state machine against a fake probe.
+ */
+public class MongoConnectionManagerTest {
+
+    @BeforeClass
+    public static void init() {
+        System.setProperty(CcpConstants.RPM_SOFTWARE_NAME, "dummy_component");
+    }
+
+    @Test
+    public void degradesThenGoesDownAndReconnects() throws Exception {
+
+        AtomicBoolean dbUp = new AtomicBoolean(true);
+        List<MongoConnectionState> states = new CopyOnWriteArrayList<>();
+        MongoConnectionManager connectionManager = new MongoConnectionManager("test", () -> {
+            if (!dbUp.get()) {
+                throw new IllegalStateException("db is down");
+            }
+        });
+        connectionManager.addListener((previous, current) -> states.add(current));
+
+        connectionManager.start();
+        Assert.assertEquals(MongoConnectionState.UP, connectionManager.getState());
+        Assert.assertTrue(connectionManager.whenReady().isDone());
+
+        //one failed call is not enough to stop using the db
+        dbUp.set(false);
+        connectionManager.reportFailure(new IllegalStateException("timeout"));
+        Assert.assertEquals(MongoConnectionState.DEGRADED, connectionManager.getState());
+        Assert.assertTrue(connectionManager.isReady());
+
+        connectionManager.reportFailure(new IllegalStateException("timeout"));
+        connectionManager.reportFailure(new IllegalStateException("timeout"));
+        Assert.assertEquals(MongoConnectionState.DOWN, connectionManager.getState());
+        Assert.assertFalse(connectionManager.isReady());
+
+        //the reconnect loop brings it back
+        dbUp.set(true);
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(5);
+        while (!connectionManager.isReady() && System.currentTimeMillis() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(50);
+        }
+        Assert.assertEquals(MongoConnectionState.UP, connectionManager.getState());
+        Assert.assertEquals(4, states.size());
+        Assert.assertEquals(MongoConnectionState.DOWN, states.get(2));
+    }
+
+    @Test
+    public void notReadyUntilFirstConnect() throws Exception {
+
+        AtomicBoolean dbUp = new AtomicBoolean(false);
+        MongoConnectionManager connectionManager = new MongoConnectionManager("test", () -> {
+            if (!dbUp.get()) {
+                throw new IllegalStateException("db is down");
+            }
+        });
+
+        connectionManager.start();
+        Assert.assertEquals(MongoConnectionState.CONNECTING, connectionManager.getState());
+        Assert.assertFalse(connectionManager.whenReady().isDone());
+
+        dbUp.set(true);
+        connectionManager.whenReady().get(5, TimeUnit.SECONDS);
+        Assert.assertTrue(connectionManager.isReady());
+    }
+}
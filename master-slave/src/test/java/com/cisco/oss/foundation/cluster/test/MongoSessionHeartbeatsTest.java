@@ -0,0 +1,91 @@
+package com.cisco.oss.foundation.cluster.test;
+
+import com.cisco.oss.foundation.cluster.masterslave.mongo.MongoSessionHeartbeats;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Two sessions check each other's heartbeats on a fake mongo server whose clock is an hour behind the processes.
+ */
+public class MongoSessionHeartbeatsTest {
+
+    private static final long TTL = 3000;
+
+    private final Map<String, Long> server = new ConcurrentHashMap<>();
+    private final AtomicInteger singleReads = new AtomicInteger();
+
+    @Test
+    public void sessionYoungerThanTheCacheIsAlive() {
+
+        MongoSessionHeartbeats first = newSession();
+        heartbeat("first", first);
+        //the heartbeats are cached before the second session starts
+        Assert.assertFalse(first.isAlive("second", TTL));
+
+        MongoSessionHeartbeats second = newSession();
+        heartbeat("second", second);
+        Assert.assertTrue(first.isAlive("second", TTL));
+        Assert.assertTrue(second.isAlive("first", TTL));
+    }
+
+    @Test
+    public void renewalSinceTheCacheWasReadIsSeen() throws Exception {
+
+        MongoSessionHeartbeats first = newSession();
+        MongoSessionHeartbeats second = newSession();
+        heartbeat("first", first);
+        heartbeat("second", second);
+
+        TimeUnit.MILLISECONDS.sleep(TTL - 500);
+        heartbeat("first", first);
+        Assert.assertTrue(first.isAlive("second", TTL));
+        heartbeat("second", second);
+
+        //the cached heartbeat expired while the cache itself is still fresh
+        TimeUnit.MILLISECONDS.sleep(700);
+        int reads = singleReads.get();
+        Assert.assertTrue(first.isAlive("second", TTL));
+        Assert.assertEquals(reads + 1, singleReads.get());
+    }
+
+    @Test
+    public void sessionWithoutHeartbeatsExpires() throws Exception {
+
+        MongoSessionHeartbeats first = newSession();
+        MongoSessionHeartbeats second = newSession();
+        heartbeat("first", first);
+        heartbeat("second", second);
+        Assert.assertTrue(first.isAlive("second", TTL));
+
+        //only the first session keeps renewing
+        long deadline = System.currentTimeMillis() + TTL + 500;
+        while (System.currentTimeMillis() < deadline) {
+            heartbeat("first", first);
+            TimeUnit.MILLISECONDS.sleep(250);
+        }
+        Assert.assertFalse(first.isAlive("second", TTL));
+        Assert.assertTrue(second.isAlive("first", TTL));
+    }
+
+    private MongoSessionHeartbeats newSession() {
+        return new MongoSessionHeartbeats(() -> new HashMap<>(server), sessionId -> {
+            singleReads.incrementAndGet();
+            return server.get(sessionId);
+        });
+    }
+
+    /**
+     * what the heartbeat update does: the server stamps the document with its own time and returns it
+     */
+    private void heartbeat(String sessionId, MongoSessionHeartbeats session) {
+        long serverTime = System.currentTimeMillis() - TimeUnit.HOURS.toMillis(1);
+        server.put(sessionId, serverTime);
+        session.heartbeatWritten(serverTime);
+    }
+}
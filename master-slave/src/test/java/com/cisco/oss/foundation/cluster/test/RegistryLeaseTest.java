@@ -0,0 +1,119 @@
+package com.cisco.oss.foundation.cluster.test;
+
+import com.cisco.oss.foundation.cluster.registry.MasterSlaveListener;
+import com.cisco.oss.foundation.cluster.registry.MasterSlaveRegistry;
+import com.cisco.oss.foundation.cluster.utils.MasterSlavePolicy;
+import com.cisco.oss.foundation.configuration.ConfigurationFactory;
+import org.apache.commons.configuration.Configuration;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks that #MasterSlaveRegistry.isMaster follows the local lease: it expires while the backend hangs, even though no goSlave callback came.
+ * Also checks that the epoch of the elector reaches the listener and the registry,
+ * and that the lease of a consul job ends with its session when the session can't be renewed, although the ticks still see the lock.
+ */
+public class RegistryLeaseTest extends AbstractRegistryTest {
+
+    private static final long EPOCH = 7;
+
+    private final CountDownLatch masterCalled = new CountDownLatch(1);
+    private volatile boolean slaveCalled;
+    private volatile long masterEpoch = -1;
+
+    public RegistryLeaseTest() {
+        super("leaseJob");
+    }
+
+    @Before
+    public void setUp() {
+        ConfigurationFactory.getConfiguration().setProperty(job + ".masterSlave.leaseTime", 1);
+        script.epoch = EPOCH;
+    }
+
+    @Test
+    public void leaseExpiresWithoutTheBackend() throws Exception {
+
+        Assert.assertFalse(MasterSlaveRegistry.INSTANCE.isMaster(job));
+        Assert.assertEquals(0, MasterSlaveRegistry.INSTANCE.leaseRemaining(job));
+        Assert.assertEquals(-1, MasterSlaveRegistry.INSTANCE.getEpoch(job));
+
+        Assert.assertTrue(start(new MasterSlaveListener() {
+            @Override
+            public void goMaster() {
+                Assert.fail("goMaster(epoch) is overridden");
+            }
+
+            @Override
+            public void goMaster(long epoch) {
+                masterEpoch = epoch;
+                masterCalled.countDown();
+            }
+
+            @Override
+            public void goSlave() {
+                slaveCalled = true;
+            }
+        }));
+        Assert.assertTrue(MasterSlaveRegistry.INSTANCE.isMaster(job));
+        long leaseRemaining = MasterSlaveRegistry.INSTANCE.leaseRemaining(job);
+        Assert.assertTrue(leaseRemaining > 0 && leaseRemaining <= 1000);
+        Assert.assertEquals(EPOCH, MasterSlaveRegistry.INSTANCE.getEpoch(job));
+        Assert.assertTrue(masterCalled.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(EPOCH, masterEpoch);
+
+        //the next renewal never returns
+        script.hang = new CountDownLatch(1);
+        awaitTrue(() -> !MasterSlaveRegistry.INSTANCE.isMaster(job));
+        Assert.assertEquals(0, MasterSlaveRegistry.INSTANCE.leaseRemaining(job));
+        Assert.assertFalse(slaveCalled);
+
+        //the renewal goes through - the lease is valid again
+        script.hang.countDown();
+        awaitTrue(() -> MasterSlaveRegistry.INSTANCE.isMaster(job));
+        Assert.assertFalse(slaveCalled);
+    }
+
+    @Test
+    public void consulLeaseEndsWithTheSession() throws Exception {
+
+        ConsulStandIn consul = new ConsulStandIn();
+        Configuration configuration = ConfigurationFactory.getConfiguration();
+        //the registry uses the shared consul session of the process - no other test creates it
+        configuration.setProperty("consulClient.1.port", consul.getUri().getPort());
+        configuration.setProperty("masterSlave.impl", "consul-async");
+        configuration.setProperty("masterSlave.consul.sessionTtl", 2);
+        configuration.setProperty(job + ".masterSlave.leaseTime", 30);
+        //don't depend on the configuration publishing the change
+        MasterSlavePolicy.reload();
+        try {
+            Assert.assertTrue(start(recordingListener()));
+            //the session TTL bounds the lease, not the lease time of the job
+            long leaseRemaining = MasterSlaveRegistry.INSTANCE.leaseRemaining(job);
+            Assert.assertTrue(leaseRemaining > 0 && leaseRemaining <= 2000);
+
+            //the session heartbeat keeps the lease valid between the ticks
+            TimeUnit.MILLISECONDS.sleep(3000);
+            Assert.assertTrue(MasterSlaveRegistry.INSTANCE.isMaster(job));
+
+            //the ticks still read the lock, but the lease runs out with the session
+            consul.setRenewalsFailing(true);
+            MasterSlaveRegistry.INSTANCE.triggerElection(job);
+            awaitTrue(() -> !MasterSlaveRegistry.INSTANCE.isMaster(job));
+            Assert.assertFalse(script.calls.contains("goSlave"));
+
+            consul.setRenewalsFailing(false);
+            awaitTrue(() -> MasterSlaveRegistry.INSTANCE.isMaster(job));
+        } finally {
+            MasterSlaveRegistry.INSTANCE.removeMasterSlaveListenerAsync(job).get(5, TimeUnit.SECONDS);
+            configuration.setProperty("masterSlave.consul.sessionTtl", 0);
+            configuration.setProperty(job + ".masterSlave.leaseTime", 1);
+            MasterSlavePolicy.reload();
+            consul.stop();
+        }
+    }
+}
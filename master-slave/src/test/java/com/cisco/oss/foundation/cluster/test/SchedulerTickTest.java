@@ -0,0 +1,100 @@
+package com.cisco.oss.foundation.cluster.test;
+
+import com.cisco.oss.foundation.cluster.registry.MasterSlaveListener;
+import com.cisco.oss.foundation.cluster.registry.MasterSlaveRegistry;
+import com.cisco.oss.foundation.configuration.ConfigurationFactory;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs a job in 'scheduler' execution mode and checks that its ticks never overlap, whatever wakes it up,
+ * and that stopping it hands off after the last tick.
+ */
+public class SchedulerTickTest extends AbstractRegistryTest {
+
+    private String executionMode;
+
+    public SchedulerTickTest() {
+        super("schedulerJob");
+    }
+
+    @Before
+    public void setUp() {
+        executionMode = ConfigurationFactory.getConfiguration().getString("masterSlave.executionMode", "thread");
+        ConfigurationFactory.getConfiguration().setProperty("masterSlave.executionMode", "scheduler");
+    }
+
+    @After
+    public void tearDown() {
+        ConfigurationFactory.getConfiguration().setProperty("masterSlave.executionMode", executionMode);
+    }
+
+    @Test
+    public void wakeUpsDuringASlowTickDontOverlap() throws Exception {
+
+        Assert.assertTrue(start(recordingListener()));
+        //every tick now waits on the backend
+        script.delay = 50;
+
+        ExecutorService notifiers = Executors.newFixedThreadPool(4);
+        try {
+            for (int i = 0; i < 200; i++) {
+                notifiers.execute(() -> MasterSlaveRegistry.INSTANCE.triggerElection(job));
+                if (i % 20 == 0) {
+                    TimeUnit.MILLISECONDS.sleep(30);
+                }
+            }
+        } finally {
+            notifiers.shutdown();
+            Assert.assertTrue(notifiers.awaitTermination(5, TimeUnit.SECONDS));
+        }
+
+        //the wake-ups were folded into the running ticks and the job keeps ticking
+        int calls = script.isMasterCalls.get();
+        MasterSlaveRegistry.INSTANCE.triggerElection(job);
+        awaitTrue(() -> script.isMasterCalls.get() > calls);
+        Assert.assertEquals(1, script.maxConcurrentCalls.get());
+        Assert.assertTrue(MasterSlaveRegistry.INSTANCE.isMaster(job));
+    }
+
+    @Test
+    public void stopWaitsForTheRunningTick() throws Exception {
+
+        CountDownLatch slaveCalled = new CountDownLatch(1);
+        AtomicInteger concurrentCallsAtSlave = new AtomicInteger(-1);
+        Assert.assertTrue(start(new MasterSlaveListener() {
+            @Override
+            public void goMaster() {
+            }
+
+            @Override
+            public void goSlave() {
+                concurrentCallsAtSlave.set(script.concurrentCalls.get());
+                slaveCalled.countDown();
+            }
+        }));
+
+        //stop while a slow renewal is on the backend
+        script.delay = 300;
+        MasterSlaveRegistry.INSTANCE.triggerElection(job);
+        awaitTrue(() -> script.concurrentCalls.get() == 1);
+        CompletableFuture<Void> stopped = MasterSlaveRegistry.INSTANCE.removeMasterSlaveListenerAsync(job);
+        int calls = script.isMasterCalls.get();
+        stopped.get(5, TimeUnit.SECONDS);
+
+        Assert.assertTrue(slaveCalled.await(0, TimeUnit.SECONDS));
+        Assert.assertEquals(0, concurrentCallsAtSlave.get());
+        Assert.assertEquals(0, script.concurrentCallsAtClose);
+        Assert.assertEquals(1, script.calls.stream().filter("close"::equals).count());
+        Assert.assertEquals(calls, script.isMasterCalls.get());
+    }
+}
@@ -0,0 +1,125 @@
+package com.cisco.oss.foundation.cluster.test;
+
+import com.cisco.oss.foundation.cluster.masterslave.MastershipElector;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * In-memory elector for the registry tests. The registry creates it by class name ('masterSlave.impl'),
+ * so each job reads its behaviour from the #Script the test set up for the job name.
+ */
+public class ScriptedElector implements MastershipElector {
+
+    private static final Map<String, Script> SCRIPTS = new ConcurrentHashMap<>();
+
+    private volatile Script script = new Script();
+
+    /**
+     * a fresh script for the job. electors of earlier runs of the job keep the script they started with
+     */
+    public static Script reset(String jobName) {
+        Script script = new Script();
+        SCRIPTS.put(jobName, script);
+        return script;
+    }
+
+    @Override
+    public void init(String id, String jobName) {
+        script = SCRIPTS.computeIfAbsent(jobName, name -> new Script());
+        script.calls.add("init");
+    }
+
+    @Override
+    public boolean isReady() {
+        return script.ready;
+    }
+
+    @Override
+    public boolean isActiveVersion(String currentVersion) {
+        return script.activeVersion;
+    }
+
+    @Override
+    public boolean isActiveDataCenter(String currentDataCenter) {
+        return true;
+    }
+
+    @Override
+    public boolean isMaster() {
+        Script current = script;
+        current.isMasterCalls.incrementAndGet();
+        current.maxConcurrentCalls.accumulateAndGet(current.concurrentCalls.incrementAndGet(), Math::max);
+        try {
+            current.hang.await();
+            if (current.delay > 0) {
+                TimeUnit.MILLISECONDS.sleep(current.delay);
+            }
+            if (current.failure != null) {
+                throw current.failure;
+            }
+            return current.master;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } finally {
+            current.concurrentCalls.decrementAndGet();
+        }
+    }
+
+    @Override
+    public long getEpoch() {
+        return script.epoch;
+    }
+
+    @Override
+    public long getMasterLeaseRemaining() {
+        return script.masterLeaseRemaining;
+    }
+
+    @Override
+    public void announceHandoff() {
+        script.calls.add("announceHandoff");
+    }
+
+    @Override
+    public void close() {
+        script.calls.add("close");
+        script.concurrentCallsAtClose = script.concurrentCalls.get();
+    }
+
+    @Override
+    public String getActiveVersion() {
+        return "1.0";
+    }
+
+    @Override
+    public void cleanupMaster() {
+    }
+
+    /**
+     * what the elector answers, and what it was asked
+     */
+    public static class Script {
+
+        public volatile boolean ready = true;
+        public volatile boolean master = true;
+        public volatile boolean activeVersion = true;
+        public volatile RuntimeException failure;
+        public volatile CountDownLatch hang = new CountDownLatch(0);
+        public volatile long delay;
+        public volatile long epoch = -1;
+        public volatile long masterLeaseRemaining = -1;
+        public volatile int concurrentCallsAtClose = -1;
+
+        public final AtomicInteger isMasterCalls = new AtomicInteger();
+        public final AtomicInteger concurrentCalls = new AtomicInteger();
+        public final AtomicInteger maxConcurrentCalls = new AtomicInteger();
+        public final List<String> calls = new CopyOnWriteArrayList<>();
+    }
+}
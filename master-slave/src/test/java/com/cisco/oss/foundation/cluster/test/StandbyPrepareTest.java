@@ -0,0 +1,79 @@
+package com.cisco.oss.foundation.cluster.test;
+
+import com.cisco.oss.foundation.cluster.registry.MasterSlaveRegistry;
+import com.cisco.oss.foundation.configuration.ConfigurationFactory;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks that a standby is asked to prepare for the mastership when the lease of the master is about to expire,
+ * and that a stopping master announces the handoff before its listener is told it is slave.
+ */
+public class StandbyPrepareTest extends AbstractRegistryTest {
+
+    public StandbyPrepareTest() {
+        super("standbyJob");
+    }
+
+    @Before
+    public void setUp() {
+        ConfigurationFactory.getConfiguration().setProperty(job + ".masterSlave.standby.prepareTime", 5);
+    }
+
+    @After
+    public void tearDown() {
+        ConfigurationFactory.getConfiguration().setProperty(job + ".masterSlave.standby.prepareTime", 0);
+    }
+
+    @Test
+    public void standbyPreparesBeforeTheLeaseExpires() throws Exception {
+
+        script.master = false;
+        script.masterLeaseRemaining = 20000;
+        Assert.assertFalse(start(recordingListener()));
+        Assert.assertFalse(script.calls.stream().anyMatch(call -> call.startsWith("prepare")));
+
+        //the master missed its renewals
+        script.masterLeaseRemaining = 3000;
+        MasterSlaveRegistry.INSTANCE.triggerElection(job);
+        awaitTrue(() -> script.calls.contains("prepare:3000"));
+
+        //once per expiring lease
+        script.masterLeaseRemaining = 2000;
+        int calls = script.isMasterCalls.get();
+        MasterSlaveRegistry.INSTANCE.triggerElection(job);
+        awaitTrue(() -> script.isMasterCalls.get() > calls);
+        MasterSlaveRegistry.INSTANCE.triggerElection(job);
+        awaitTrue(() -> script.isMasterCalls.get() > calls + 1);
+        Assert.assertFalse(script.calls.contains("prepare:2000"));
+
+        //the master renewed and then announced a handoff
+        script.masterLeaseRemaining = 20000;
+        int renewed = script.isMasterCalls.get();
+        MasterSlaveRegistry.INSTANCE.triggerElection(job);
+        awaitTrue(() -> script.isMasterCalls.get() > renewed);
+        script.masterLeaseRemaining = 0;
+        MasterSlaveRegistry.INSTANCE.triggerElection(job);
+        awaitTrue(() -> script.calls.contains("prepare:0"));
+
+        script.master = true;
+        MasterSlaveRegistry.INSTANCE.triggerElection(job);
+        awaitTrue(() -> script.calls.contains("goMaster"));
+    }
+
+    @Test
+    public void masterAnnouncesTheHandoff() throws Exception {
+
+        Assert.assertTrue(start(recordingListener()));
+        awaitTrue(() -> script.calls.contains("goMaster"));
+        Assert.assertFalse(script.calls.contains("announceHandoff"));
+
+        MasterSlaveRegistry.INSTANCE.removeMasterSlaveListenerAsync(job).get(5, TimeUnit.SECONDS);
+        Assert.assertEquals(List.of("init", "goMaster", "announceHandoff", "goSlave", "close"), script.calls);
+    }
+}
@@ -0,0 +1,149 @@
+package com.cisco.oss.foundation.cluster.test;
+
+import com.cisco.oss.foundation.cluster.utils.MasterSlaveLookupCache;
+import com.cisco.oss.foundation.cluster.utils.TtlCache;
+import com.cisco.oss.foundation.configuration.CcpConstants;
+import com.cisco.oss.foundation.configuration.ConfigurationFactory;
+import org.apache.commons.configuration.Configuration;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Checks that concurrent lookups of a key share one load, that negative answers follow their own TTL,
+ * and that the lookup cache picks up a new TTL.
+ */
+public class TtlCacheTest {
+
+    private final AtomicInteger loads = new AtomicInteger();
+
+    @BeforeClass
+    public static void init() {
+        System.setProperty(CcpConstants.RPM_SOFTWARE_NAME, "dummy_component");
+    }
+
+    @Test
+    public void concurrentLookupsShareOneLoad() throws Exception {
+
+        TtlCache<String, String> cache = new TtlCache<>(60000, 60000, value -> value == null);
+        CountDownLatch loadStarted = new CountDownLatch(1);
+        CountDownLatch backend = new CountDownLatch(1);
+        ExecutorService callers = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<String>> values = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                values.add(callers.submit(() -> cache.get("version", key -> {
+                    loads.incrementAndGet();
+                    loadStarted.countDown();
+                    try {
+                        backend.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return "v1";
+                })));
+            }
+            Assert.assertTrue(loadStarted.await(5, TimeUnit.SECONDS));
+            //let the other callers reach the cache while the load hangs
+            TimeUnit.MILLISECONDS.sleep(200);
+            backend.countDown();
+            for (Future<String> value : values) {
+                Assert.assertEquals("v1", value.get(5, TimeUnit.SECONDS));
+            }
+        } finally {
+            callers.shutdownNow();
+        }
+        Assert.assertEquals(1, loads.get());
+
+        //an async load in flight is shared too
+        CompletableFuture<String> load = new CompletableFuture<>();
+        CompletableFuture<String> first = cache.getAsync("datacenter", key -> {
+            loads.incrementAndGet();
+            return load;
+        });
+        CompletableFuture<String> second = cache.getAsync("datacenter", key -> {
+            loads.incrementAndGet();
+            return CompletableFuture.completedFuture("other");
+        });
+        load.complete("dc1");
+        Assert.assertEquals("dc1", first.get(5, TimeUnit.SECONDS));
+        Assert.assertEquals("dc1", second.get(5, TimeUnit.SECONDS));
+        Assert.assertEquals(2, loads.get());
+    }
+
+    @Test
+    public void negativeAnswersFollowTheirOwnTtl() {
+
+        TtlCache<String, String> cache = new TtlCache<>(60000, 0, value -> value == null);
+        Assert.assertNull(cache.get("missing", this::load));
+        Assert.assertNull(cache.get("missing", this::load));
+        Assert.assertEquals(2, loads.get());
+
+        Assert.assertEquals("value", cache.get("present", key -> {
+            loads.incrementAndGet();
+            return "value";
+        }));
+        Assert.assertEquals("value", cache.get("present", this::load));
+        Assert.assertEquals(3, loads.get());
+
+        //and the other way around
+        TtlCache<String, String> negativeOnly = new TtlCache<>(0, 60000, value -> value == null);
+        Assert.assertNull(negativeOnly.get("missing", this::load));
+        Assert.assertNull(negativeOnly.get("missing", this::load));
+        Assert.assertEquals(4, loads.get());
+    }
+
+    @Test
+    public void failedLoadsAreNotCached() {
+
+        TtlCache<String, String> cache = new TtlCache<>(60000, 60000, value -> value == null);
+        try {
+            cache.get("key", key -> {
+                throw new IllegalStateException("backend is down");
+            });
+            Assert.fail("the failure of the load is thrown");
+        } catch (IllegalStateException e) {
+            Assert.assertEquals("backend is down", e.getMessage());
+        }
+        Assert.assertNull(cache.get("key", this::load));
+        Assert.assertEquals(1, loads.get());
+    }
+
+    @Test
+    public void lookupCacheReloadsItsTtl() {
+
+        Configuration configuration = ConfigurationFactory.getConfiguration();
+        int ttl = configuration.getInt("masterSlave.lookupCache.ttl", 5);
+        try {
+            configuration.setProperty("masterSlave.lookupCache.ttl", 0);
+            MasterSlaveLookupCache.INSTANCE.reload();
+            MasterSlaveLookupCache.INSTANCE.getKeyValue("test:version", key -> String.valueOf(loads.incrementAndGet()));
+            MasterSlaveLookupCache.INSTANCE.getKeyValue("test:version", key -> String.valueOf(loads.incrementAndGet()));
+            Assert.assertEquals(2, loads.get());
+
+            configuration.setProperty("masterSlave.lookupCache.ttl", 60);
+            MasterSlaveLookupCache.INSTANCE.reload();
+            Assert.assertEquals("3", MasterSlaveLookupCache.INSTANCE.getKeyValue("test:version", key -> String.valueOf(loads.incrementAndGet())));
+            Assert.assertEquals("3", MasterSlaveLookupCache.INSTANCE.getKeyValue("test:version", key -> String.valueOf(loads.incrementAndGet())));
+            Assert.assertEquals(3, loads.get());
+        } finally {
+            configuration.setProperty("masterSlave.lookupCache.ttl", ttl);
+            MasterSlaveLookupCache.INSTANCE.reload();
+        }
+    }
+
+    private String load(String key) {
+        loads.incrementAndGet();
+        return null;
+    }
+}